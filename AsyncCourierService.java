@@ -0,0 +1,248 @@
+import java.lang.reflect.Method;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Non-blocking facade over CourierServiceDB. Every operation returns a
+// CompletableFuture and runs on a virtual thread when the JVM has them (Java 21+),
+// otherwise on a cached platform thread pool.
+//
+// At most maxConcurrency operations execute at once (normally the connection
+// pool's size); the rest wait in an admission queue that holds no thread, so
+// tens of thousands of requests can be in flight while only maxConcurrency
+// threads are ever blocked on MySQL. Each operation has a timeout, and a future
+// that is cancelled or times out interrupts its worker and aborts the database
+// connections the worker holds: a query blocked on the socket ignores the
+// interrupt, so only the abort frees its slot and its pooled connection.
+public class AsyncCourierService implements AutoCloseable {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+    public static final int DEFAULT_MAX_QUEUED = 100_000;
+
+    private final CourierServiceDB db;
+    private final int maxConcurrency;
+    private final int maxQueued;
+    private final long timeoutMillis;
+    private final ExecutorService executor;
+    private final Queue<Task<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean closed;
+
+    public AsyncCourierService(CourierServiceDB db) {
+        this(db, db.getMaxConnections(), DEFAULT_MAX_QUEUED, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public AsyncCourierService(CourierServiceDB db, int maxConcurrency, int maxQueued, long timeoutMillis) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        this.db = db;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueued = maxQueued;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = newExecutor();
+    }
+
+    public CompletableFuture<Boolean> createShipment(long shipmentId, long senderId, long recipientId,
+                                                     long originId, long destinationId, LocalDateTime estimatedDelivery) {
+        return submit(db -> db.createShipment(shipmentId, senderId, recipientId, originId, destinationId, estimatedDelivery));
+    }
+
+    public CompletableFuture<Boolean> addPackageToShipment(long packageId, double weight, String description,
+                                                           long shipmentId, long agentId) {
+        return submit(db -> db.addPackageToShipment(packageId, weight, description, shipmentId, agentId));
+    }
+
+    public CompletableFuture<Boolean> updateShipmentStatus(long shipmentId, String status, long agentId, String notes) {
+        return submit(db -> db.updateShipmentStatus(shipmentId, status, agentId, notes));
+    }
+
+    public CompletableFuture<Boolean> registerDriver(long driverId, String name, String licenseNumber,
+                                                     String contact, int limit) {
+        return submit(db -> db.registerDriver(driverId, name, licenseNumber, contact, limit));
+    }
+
+    public CompletableFuture<Boolean> assignShipmentToDriver(long driverId, long shipmentId, long startLocationId,
+                                                             long endLocationId, LocalDateTime estimatedPickup,
+                                                             LocalDateTime estimatedDelivery) {
+        return submit(db -> db.assignShipmentToDriver(driverId, shipmentId, startLocationId, endLocationId,
+                                                      estimatedPickup, estimatedDelivery));
+    }
+
+    public CompletableFuture<Boolean> movePackageBetweenShipments(long packageId, long fromShipmentId, long toShipmentId,
+                                                                  long agentId, String reason, String notes) {
+        return submit(db -> db.movePackageBetweenShipments(packageId, fromShipmentId, toShipmentId, agentId, reason, notes));
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> getShipmentStatusAndLog(long shipmentId) {
+        return submit(db -> db.getShipmentStatusAndLog(shipmentId));
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> getPendingShipmentsForDriver(long driverId) {
+        return submit(db -> db.getPendingShipmentsForDriver(driverId));
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> getDelayedShipments() {
+        return submit(CourierServiceDB::getDelayedShipments);
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> getDailyShipmentVolume() {
+        return submit(CourierServiceDB::getDailyShipmentVolume);
+    }
+
+    // Run any CourierServiceDB call under the facade's concurrency limit and default timeout
+    public <T> CompletableFuture<T> submit(Function<CourierServiceDB, T> operation) {
+        return submit(operation, timeoutMillis);
+    }
+
+    // timeoutMillis <= 0 disables the timeout
+    public <T> CompletableFuture<T> submit(Function<CourierServiceDB, T> operation, long timeoutMillis) {
+        Task<T> task = new Task<>(operation);
+        if (closed) {
+            task.future.completeExceptionally(new RejectedExecutionException("Async courier service is closed"));
+            return task.future;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            task.future.completeExceptionally(new RejectedExecutionException(
+                "Too many queued operations (limit " + maxQueued + ")"));
+            return task.future;
+        }
+        queue.offer(task);
+        if (timeoutMillis > 0) {
+            task.future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        // Cancellation and timeouts stop the worker if the operation already started
+        task.future.whenComplete((result, error) -> {
+            if (error != null) {
+                task.interrupt(db);
+            }
+        });
+        dispatch();
+        return task.future;
+    }
+
+    // Operations waiting for a concurrency slot
+    public int getQueuedOperations() {
+        return queued.get();
+    }
+
+    // Operations currently executing
+    public int getRunningOperations() {
+        return running.get();
+    }
+
+    // Start queued tasks while slots are free
+    private void dispatch() {
+        while (true) {
+            int current = running.get();
+            if (current >= maxConcurrency || queue.isEmpty()) {
+                return;
+            }
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Task<?> task = queue.poll();
+            if (task == null) {
+                running.decrementAndGet();
+                continue;
+            }
+            queued.decrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run(db);
+                    } finally {
+                        running.decrementAndGet();
+                        dispatch();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.decrementAndGet();
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Stop accepting work, fail queued operations and wait for running ones to finish
+    @Override
+    public void close() {
+        closed = true;
+        Task<?> task;
+        while ((task = queue.poll()) != null) {
+            queued.decrementAndGet();
+            task.future.completeExceptionally(new CancellationException("Async courier service closed"));
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis > 0 ? timeoutMillis : Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Pre-21 JVM: platform threads, still bounded by maxConcurrency
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "courier-async-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static final class Task<T> {
+        final Function<CourierServiceDB, T> operation;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        // The submitter's read-your-writes session, bound on the worker while the task runs
+        final ReadSession session = ReadSession.current();
+        private Thread worker;
+
+        Task(Function<CourierServiceDB, T> operation) {
+            this.operation = operation;
+        }
+
+        void run(CourierServiceDB db) {
+            synchronized (this) {
+                if (future.isDone()) {
+                    // Cancelled or timed out while queued
+                    return;
+                }
+                worker = Thread.currentThread();
+            }
+            ReadSession.Scope scope = ReadSession.bind(session);
+            try {
+                future.complete(operation.apply(db));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                scope.close();
+                synchronized (this) {
+                    worker = null;
+                    // Don't leak an interrupt aimed at this task into the next one
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        // Runs while the worker is still on this task, so only its connections are
+        // aborted. An operation that failed by itself completes on its own worker,
+        // which is left alone.
+        synchronized void interrupt(CourierServiceDB db) {
+            if (worker != null && worker != Thread.currentThread()) {
+                worker.interrupt();
+                db.abortConnectionsOf(worker);
+            }
+        }
+    }
+}
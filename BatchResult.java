@@ -0,0 +1,47 @@
+import java.util.*;
+
+// Outcome of a batch ingestion call: rows that failed are reported individually
+// while the rest of the manifest is still committed.
+public class BatchResult {
+    // A row that could not be written, by its position in the submitted list
+    public record Failure(int index, long id, String message) {
+    }
+
+    private final int submitted;
+    private int succeeded;
+    private final List<Failure> failures = new ArrayList<>();
+
+    BatchResult(int submitted) {
+        this.submitted = submitted;
+    }
+
+    void addSucceeded(int rows) {
+        succeeded += rows;
+    }
+
+    void addFailure(int index, long id, String message) {
+        failures.add(new Failure(index, id, message));
+    }
+
+    public int getSubmitted() {
+        return submitted;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    public boolean isComplete() {
+        return failures.isEmpty() && succeeded == submitted;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult[submitted=" + submitted + ", succeeded=" + succeeded +
+               ", failed=" + failures.size() + "]";
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import javax.sql.DataSource;
+
+// Streaming exporter, the counterpart of BulkLoader: dumps a base table, or the
+// rows of one within a time range, to a .csv or .ndjson file (optionally .gz) in
+// the format BulkLoader reads. Rows are streamed from the server one at a time
+// and written as they arrive, so memory use does not grow with the table. The
+// file is written under a temporary name, synced and then renamed, so a partial
+// export never carries the final name.
+public class BulkExporter {
+    // Column a range export filters on; the reference tables have none and are exported whole
+    private static final Map<String, String> TIME_COLUMNS = Map.of(
+        "shipments", "created_time",
+        "package", "created_at",
+        "package_shipment_assignment", "assigned_at",
+        "driver_shipment_assignment", "assigned_at",
+        "status_logs", "timestamp",
+        "package_movement_log", "moved_at");
+
+    private final DataSource dataSource;
+
+    public BulkExporter(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public long export(String table, Path file) throws SQLException, IOException {
+        return export(table, null, null, file);
+    }
+
+    // Rows whose time column is in [from, to); a null bound is open. Returns the
+    // number of rows written.
+    public long export(String table, LocalDateTime from, LocalDateTime to, Path file) throws SQLException, IOException {
+        if (!BulkLoader.TABLES.contains(table)) {
+            throw new IllegalArgumentException("Not a base table: " + table);
+        }
+        if (!BulkRecords.isSupported(file)) {
+            throw new IllegalArgumentException("Unsupported export format: " + file.getFileName());
+        }
+        String timeColumn = TIME_COLUMNS.get(table);
+        if ((from != null || to != null) && timeColumn == null) {
+            throw new IllegalArgumentException(table + " has no time column to export a range of");
+        }
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(table);
+        if (from != null) {
+            sql.append(" WHERE `").append(timeColumn).append("` >= ?");
+        }
+        if (to != null) {
+            sql.append(from != null ? " AND `" : " WHERE `").append(timeColumn).append("` < ?");
+        }
+
+        Path target = file.toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        long rows = 0;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY,
+                                                             ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            int index = 1;
+            if (from != null) {
+                pstmt.setTimestamp(index++, Timestamp.valueOf(from));
+            }
+            if (to != null) {
+                pstmt.setTimestamp(index, Timestamp.valueOf(to));
+            }
+            try (ResultSet rs = pstmt.executeQuery();
+                 FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int count = meta.getColumnCount();
+                String[] columns = new String[count];
+                boolean[] numeric = new boolean[count];
+                boolean[] booleans = new boolean[count];
+                for (int c = 0; c < count; c++) {
+                    int type = meta.getColumnType(c + 1);
+                    columns[c] = meta.getColumnLabel(c + 1);
+                    booleans[c] = type == Types.BIT || type == Types.BOOLEAN;
+                    numeric[c] = booleans[c] || isNumeric(type);
+                }
+                String[] values = new String[count];
+                try (BulkRecords.RecordWriter writer = BulkRecords.create(new SyncOnClose(out), file, columns, numeric)) {
+                    while (rs.next()) {
+                        for (int c = 0; c < count; c++) {
+                            if (booleans[c]) {
+                                boolean value = rs.getBoolean(c + 1);
+                                values[c] = rs.wasNull() ? null : value ? "1" : "0";
+                            } else {
+                                // Text form keeps DECIMAL precision and avoids time zone conversion
+                                values[c] = rs.getString(c + 1);
+                            }
+                        }
+                        writer.write(values);
+                        rows++;
+                    }
+                }
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    // Exports every base table to <directory>/<table><extension>, e.g. ".csv.gz".
+    // The range applies to tables with a time column; reference tables are exported
+    // whole so the directory loads on its own. Rows of a range can still reference
+    // rows outside it (a status log of an older shipment); BulkLoader.checkReferences
+    // reports those after loading.
+    public Map<String, Long> exportAll(Path directory, LocalDateTime from, LocalDateTime to, String extension)
+            throws SQLException, IOException {
+        Map<String, Long> exported = new LinkedHashMap<>();
+        for (String table : BulkLoader.TABLES) {
+            boolean ranged = TIME_COLUMNS.containsKey(table);
+            exported.put(table, export(table, ranged ? from : null, ranged ? to : null,
+                                       directory.resolve(table + extension)));
+        }
+        return exported;
+    }
+
+    private static boolean isNumeric(int type) {
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Syncs the file to disk before closing it, after the writer has flushed its buffers
+    private static final class SyncOnClose extends FilterOutputStream {
+        private final FileOutputStream file;
+
+        SyncOnClose(FileOutputStream file) {
+            super(file);
+            this.file = file;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            file.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.flush();
+            file.getFD().sync();
+            file.close();
+        }
+    }
+
+    // Usage: BulkExporter [--url=...] [--user=...] [--password=...] [--from=2024-01-01T00:00]
+    //                     [--to=...] [--format=.csv.gz] <directory> [table...]
+    // Exports the listed tables, or every base table, to <directory>/<table><format>.
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 0) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.isEmpty()) {
+            System.err.println("Usage: BulkExporter [--url=jdbc:mysql://...] [--user=...] [--password=...] " +
+                               "[--from=yyyy-MM-ddTHH:mm] [--to=...] [--format=.csv.gz] <directory> [table...]");
+            System.exit(2);
+        }
+        LocalDateTime from = options.containsKey("from") ? LocalDateTime.parse(options.get("from")) : null;
+        LocalDateTime to = options.containsKey("to") ? LocalDateTime.parse(options.get("to")) : null;
+        String format = options.getOrDefault("format", ".csv.gz");
+        Path directory = Paths.get(positional.get(0));
+        List<String> tables = positional.subList(1, positional.size());
+
+        ConnectionPool pool = new ConnectionPool(
+            options.getOrDefault("url", "jdbc:mysql://localhost:3306/courier_service"),
+            options.getOrDefault("user", "root"), options.getOrDefault("password", "password"), 1, 2);
+        BulkExporter exporter = new BulkExporter(pool);
+        try {
+            Map<String, Long> exported = new LinkedHashMap<>();
+            if (tables.isEmpty()) {
+                exported.putAll(exporter.exportAll(directory, from, to, format));
+            }
+            for (String table : tables) {
+                boolean ranged = TIME_COLUMNS.containsKey(table);
+                exported.put(table, exporter.export(table, ranged ? from : null, ranged ? to : null,
+                                                    directory.resolve(table + format)));
+            }
+            exported.forEach((table, rows) -> System.out.println("Exported " + rows + " rows of " + table));
+        } catch (SQLException | IOException | IllegalArgumentException e) {
+            System.err.println("Error exporting: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            pool.close();
+        }
+    }
+}
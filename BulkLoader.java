@@ -0,0 +1,481 @@
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+
+// Bulk loader for backfills and data migration. Loads <table>.csv or
+// <table>.ndjson files (optionally gzipped, see BulkRecords) for the ten base
+// tables in foreign-key order, bypassing the per-row write path.
+//
+// Rows are streamed to the server with LOAD DATA LOCAL INFILE when the driver and
+// server allow it (local_infile=ON; Connector/J may also need
+// allowLoadLocalInfile=true) and with batched multi-row INSERTs otherwise.
+// Foreign key and unique checks are switched off for the loading session, so the
+// source must be consistent; checkReferences() finds orphaned rows afterwards.
+//
+// Each chunk of records is committed together with its checkpoint row in
+// bulk_load_checkpoints, so an interrupted load resumes after the last committed
+// chunk without duplicating or losing rows. Derived state (driver.active_load,
+// package.current_shipment_id, the daily volume rollup, caches) is not touched
+// here; CourierServiceDB.bulkLoad rebuilds it.
+public class BulkLoader {
+    // The base tables in foreign-key order: each follows the tables it references
+    public static final List<String> TABLES = List.of(
+        "customer", "location", "agent", "driver", "shipments", "package",
+        "package_shipment_assignment", "driver_shipment_assignment", "status_logs", "package_movement_log");
+
+    public static final int DEFAULT_CHUNK_SIZE = 50_000;
+    private static final int INSERT_BATCH_SIZE = 1000;
+    private static final String[] EXTENSIONS = { ".csv", ".csv.gz", ".ndjson", ".ndjson.gz", ".jsonl", ".jsonl.gz" };
+
+    private record Checkpoint(String fingerprint, long recordsLoaded, boolean completed) {
+    }
+
+    private final DataSource dataSource;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile boolean localInfileEnabled = true;
+
+    public BulkLoader(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    // Records per transaction and checkpoint
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    // False forces batched INSERTs even where LOAD DATA LOCAL INFILE is available
+    public void setLocalInfileEnabled(boolean localInfileEnabled) {
+        this.localInfileEnabled = localInfileEnabled;
+    }
+
+    // Source file of each table present in the directory, in load order
+    public static Map<String, Path> findFiles(Path directory) throws IOException {
+        Map<String, Path> files = new LinkedHashMap<>();
+        for (String table : TABLES) {
+            for (String extension : EXTENSIONS) {
+                Path file = directory.resolve(table + extension);
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                Path other = files.putIfAbsent(table, file);
+                if (other != null) {
+                    throw new IOException("Both " + other.getFileName() + " and " + file.getFileName() +
+                                          " found for " + table);
+                }
+            }
+        }
+        return files;
+    }
+
+    // Loads every table file in the directory and returns the records loaded per
+    // table by this run; tables already completed by an earlier run load 0
+    public Map<String, Long> load(Path directory) throws SQLException, IOException {
+        Map<String, Path> files = findFiles(directory);
+        if (files.isEmpty()) {
+            throw new IOException("No table files in " + directory);
+        }
+        Map<String, Long> loaded = new LinkedHashMap<>();
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SET SESSION foreign_key_checks = 0, unique_checks = 0");
+            }
+            try {
+                Method localInfile = localInfileEnabled ? probeLocalInfile(conn) : null;
+                for (Map.Entry<String, Path> entry : files.entrySet()) {
+                    loaded.put(entry.getKey(), loadFile(conn, localInfile, entry.getKey(), entry.getValue()));
+                }
+            } finally {
+                // The pool does not reset session variables
+                conn.rollback();
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("SET SESSION foreign_key_checks = 1, unique_checks = 1");
+                }
+            }
+        }
+        return loaded;
+    }
+
+    // Forgets every checkpoint, so the next load starts each file from the beginning
+    public void clearCheckpoints() throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM bulk_load_checkpoints");
+        }
+    }
+
+    // Rows of the given tables whose foreign keys point at missing parents, one line
+    // per foreign key with orphans
+    public List<String> checkReferences(Collection<String> tables) throws SQLException {
+        String foreignKeysSql = "SELECT COLUMN_NAME, REFERENCED_TABLE_NAME, REFERENCED_COLUMN_NAME " +
+                               "FROM information_schema.KEY_COLUMN_USAGE " +
+                               "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND REFERENCED_TABLE_NAME IS NOT NULL";
+        List<String> problems = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement foreignKeys = conn.prepareStatement(foreignKeysSql);
+             Statement stmt = conn.createStatement()) {
+            for (String table : tables) {
+                List<String[]> references = new ArrayList<>();
+                foreignKeys.setString(1, table);
+                try (ResultSet rs = foreignKeys.executeQuery()) {
+                    while (rs.next()) {
+                        references.add(new String[] { rs.getString(1), rs.getString(2), rs.getString(3) });
+                    }
+                }
+                for (String[] reference : references) {
+                    String sql = "SELECT COUNT(*) FROM " + table + " c LEFT JOIN " + reference[1] + " p " +
+                                "ON c.`" + reference[0] + "` = p.`" + reference[2] + "` " +
+                                "WHERE c.`" + reference[0] + "` IS NOT NULL AND p.`" + reference[2] + "` IS NULL";
+                    try (ResultSet rs = stmt.executeQuery(sql)) {
+                        rs.next();
+                        long orphans = rs.getLong(1);
+                        if (orphans > 0) {
+                            problems.add(orphans + " rows of " + table + "." + reference[0] + " reference missing " +
+                                         reference[1] + "." + reference[2]);
+                        }
+                    }
+                }
+            }
+        }
+        return problems;
+    }
+
+    private long loadFile(Connection conn, Method localInfile, String table, Path file) throws SQLException, IOException {
+        String source = file.getFileName().toString();
+        String fingerprint = Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+        Checkpoint checkpoint = readCheckpoint(conn, table, source);
+        if (checkpoint != null && !checkpoint.fingerprint().equals(fingerprint)) {
+            throw new SQLException("Checkpoint for " + source + " was written for a different version of the file; " +
+                                   "clear the checkpoints to reload it");
+        }
+        if (checkpoint != null && checkpoint.completed()) {
+            System.out.println("Skipping " + source + ": already loaded into " + table);
+            return 0;
+        }
+        long done = checkpoint == null ? 0 : checkpoint.recordsLoaded();
+        long loaded = 0;
+        try (BulkRecords.RecordReader reader = BulkRecords.open(file)) {
+            String[] columns = reader.columns();
+            boolean[] booleans = booleanColumns(conn, table, columns);
+            for (long i = 0; i < done; i++) {
+                if (reader.next() == null) {
+                    throw new IOException(source + " has fewer records than its checkpoint (" + done + ")");
+                }
+            }
+            int size = chunkSize;
+            while (true) {
+                int records = localInfile != null
+                    ? loadChunk(conn, localInfile, table, columns, booleans, reader, size)
+                    : insertChunk(conn, table, columns, booleans, reader, size);
+                boolean completed = records < size;
+                done += records;
+                loaded += records;
+                saveCheckpoint(conn, table, source, fingerprint, done, completed);
+                conn.commit();
+                if (completed) {
+                    break;
+                }
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        }
+        System.out.println("Loaded " + loaded + " records into " + table + " from " + source +
+                           (done > loaded ? " (resumed after " + (done - loaded) + ")" : ""));
+        return loaded;
+    }
+
+    // Validates the file's columns against the table and flags the boolean ones,
+    // whose true/false values are rewritten as 1/0
+    private static boolean[] booleanColumns(Connection conn, String table, String[] columns) throws SQLException {
+        Map<String, Integer> types = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " LIMIT 0")) {
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                types.put(meta.getColumnName(i).toLowerCase(Locale.ROOT), meta.getColumnType(i));
+            }
+        }
+        boolean[] booleans = new boolean[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Integer type = types.get(columns[i].toLowerCase(Locale.ROOT));
+            if (type == null) {
+                throw new SQLException("Table " + table + " has no column " + columns[i]);
+            }
+            booleans[i] = type == Types.BIT || type == Types.BOOLEAN || type == Types.TINYINT;
+        }
+        return booleans;
+    }
+
+    private static String value(String raw, boolean isBoolean) {
+        if (isBoolean && raw != null) {
+            if (raw.equalsIgnoreCase("true")) {
+                return "1";
+            }
+            if (raw.equalsIgnoreCase("false")) {
+                return "0";
+            }
+        }
+        return raw;
+    }
+
+    private static String columnList(String[] columns) {
+        StringJoiner joiner = new StringJoiner(", ", "(", ")");
+        for (String column : columns) {
+            joiner.add("`" + column + "`");
+        }
+        return joiner.toString();
+    }
+
+    private int insertChunk(Connection conn, String table, String[] columns, boolean[] booleans,
+                            BulkRecords.RecordReader reader, int size) throws SQLException, IOException {
+        String sql = "INSERT INTO " + table + " " + columnList(columns) + " VALUES (" +
+                    String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+        int records = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            String[] record;
+            while (records < size && (record = reader.next()) != null) {
+                for (int i = 0; i < columns.length; i++) {
+                    String value = value(record[i], booleans[i]);
+                    if (value == null) {
+                        pstmt.setNull(i + 1, Types.VARCHAR);
+                    } else {
+                        pstmt.setString(i + 1, value);
+                    }
+                }
+                pstmt.addBatch();
+                if (++records % INSERT_BATCH_SIZE == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            if (records % INSERT_BATCH_SIZE != 0) {
+                pstmt.executeBatch();
+            }
+        }
+        return records;
+    }
+
+    private int loadChunk(Connection conn, Method localInfile, String table, String[] columns, boolean[] booleans,
+                          BulkRecords.RecordReader reader, int size) throws SQLException, IOException {
+        TsvStream data = new TsvStream(reader, booleans, size);
+        long affected;
+        try (Statement stmt = conn.createStatement()) {
+            attach(stmt, localInfile, data);
+            affected = stmt.executeUpdate("LOAD DATA LOCAL INFILE 'bulk-load' INTO TABLE " + table +
+                                          " CHARACTER SET utf8mb4 " + columnList(columns));
+        } catch (SQLException e) {
+            if (data.failure != null) {
+                throw data.failure;
+            }
+            throw e;
+        }
+        if (data.failure != null) {
+            throw data.failure;
+        }
+        // LOCAL turns rejected rows and bad values into warnings; treat them as errors
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SHOW WARNINGS LIMIT 1")) {
+            if (rs.next() && !"Note".equals(rs.getString("Level"))) {
+                throw new SQLException("Loading " + table + " near record " + data.records + " of this chunk: " +
+                                       rs.getString("Message"));
+            }
+        }
+        if (affected != data.records) {
+            throw new SQLException("Only " + affected + " of " + data.records + " records were loaded into " + table);
+        }
+        return data.records;
+    }
+
+    // Connector/J's hook for supplying LOAD DATA LOCAL INFILE contents from a stream,
+    // or null if this driver or server cannot load local data
+    private static Method probeLocalInfile(Connection conn) {
+        try {
+            Method method = Class.forName("com.mysql.cj.jdbc.JdbcStatement")
+                .getMethod("setLocalInfileInputStream", InputStream.class);
+            try (Statement stmt = conn.createStatement()) {
+                attach(stmt, method, InputStream.nullInputStream());
+                stmt.executeUpdate("LOAD DATA LOCAL INFILE 'bulk-load' INTO TABLE bulk_load_checkpoints");
+            } finally {
+                conn.rollback();
+            }
+            return method;
+        } catch (ReflectiveOperationException | SQLException e) {
+            System.out.println("LOAD DATA LOCAL INFILE unavailable (" + e.getMessage() + "); using batched INSERTs");
+            return null;
+        }
+    }
+
+    private static void attach(Statement stmt, Method localInfile, InputStream data) throws SQLException {
+        try {
+            localInfile.invoke(stmt.unwrap(localInfile.getDeclaringClass()), data);
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        } catch (InvocationTargetException e) {
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    private static Checkpoint readCheckpoint(Connection conn, String table, String source) throws SQLException {
+        String sql = "SELECT fingerprint, records_loaded, completed FROM bulk_load_checkpoints " +
+                    "WHERE table_name = ? AND source_file = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, source);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? new Checkpoint(rs.getString(1), rs.getLong(2), rs.getBoolean(3)) : null;
+            }
+        }
+    }
+
+    private static void saveCheckpoint(Connection conn, String table, String source, String fingerprint,
+                                       long records, boolean completed) throws SQLException {
+        String sql = "INSERT INTO bulk_load_checkpoints (table_name, source_file, fingerprint, records_loaded, completed) " +
+                    "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE fingerprint = VALUES(fingerprint), " +
+                    "records_loaded = VALUES(records_loaded), completed = VALUES(completed)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, source);
+            pstmt.setString(3, fingerprint);
+            pstmt.setLong(4, records);
+            pstmt.setBoolean(5, completed);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Up to `limit` records of the reader as LOAD DATA's default format: tab-separated,
+    // backslash escapes, \N for NULL. A read failure is kept for the caller, since the
+    // driver reports it only as a failed statement.
+    private static final class TsvStream extends InputStream {
+        private static final int FILL_BYTES = 64 * 1024;
+
+        private final BulkRecords.RecordReader reader;
+        private final boolean[] booleans;
+        private final int limit;
+        private final StringBuilder text = new StringBuilder();
+        private byte[] buffer = new byte[0];
+        private int pos;
+        private boolean exhausted;
+        int records;
+        IOException failure;
+
+        TsvStream(BulkRecords.RecordReader reader, boolean[] booleans, int limit) {
+            this.reader = reader;
+            this.booleans = booleans;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= buffer.length && !fill()) {
+                return -1;
+            }
+            return buffer[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= buffer.length && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.length - pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            text.setLength(0);
+            while (!exhausted && records < limit && text.length() < FILL_BYTES) {
+                String[] record;
+                try {
+                    record = reader.next();
+                } catch (IOException e) {
+                    failure = e;
+                    throw e;
+                }
+                if (record == null) {
+                    exhausted = true;
+                    break;
+                }
+                for (int i = 0; i < record.length; i++) {
+                    if (i > 0) {
+                        text.append('\t');
+                    }
+                    appendField(value(record[i], booleans[i]));
+                }
+                text.append('\n');
+                records++;
+            }
+            buffer = text.toString().getBytes(StandardCharsets.UTF_8);
+            pos = 0;
+            return buffer.length > 0;
+        }
+
+        private void appendField(String value) {
+            if (value == null) {
+                text.append("\\N");
+                return;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\': text.append("\\\\"); break;
+                    case '\t': text.append("\\t"); break;
+                    case '\n': text.append("\\n"); break;
+                    case '\r': text.append("\\r"); break;
+                    case '\0': text.append("\\0"); break;
+                    default: text.append(c);
+                }
+            }
+        }
+    }
+
+    // Usage: BulkLoader [--url=...] [--user=...] [--password=...] [--chunk=N] [--no-local-infile] <directory>
+    // Creates or upgrades the schema, loads the directory and rebuilds derived state.
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        String directory = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.equals("--no-local-infile")) {
+                options.put("no-local-infile", "true");
+            } else if (arg.startsWith("--") && eq > 0) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else if (directory == null && !arg.startsWith("--")) {
+                directory = arg;
+            } else {
+                directory = null;
+                break;
+            }
+        }
+        if (directory == null) {
+            System.err.println("Usage: BulkLoader [--url=jdbc:mysql://...] [--user=...] [--password=...] " +
+                               "[--chunk=N] [--no-local-infile] <directory>");
+            System.exit(2);
+        }
+        // allowLoadLocalInfile lets the driver stream the files; only connect to a trusted server with it
+        CourierServiceDB db = new CourierServiceDB(new ConnectionPool(
+            options.getOrDefault("url", "jdbc:mysql://localhost:3306/courier_service" +
+                                        "?rewriteBatchedStatements=true&allowLoadLocalInfile=true"),
+            options.getOrDefault("user", "root"), options.getOrDefault("password", "password"), 1, 2));
+        boolean ok;
+        try {
+            db.createSchema();
+            BulkLoader loader = db.getBulkLoader();
+            loader.setChunkSize(Integer.parseInt(options.getOrDefault("chunk", String.valueOf(DEFAULT_CHUNK_SIZE))));
+            loader.setLocalInfileEnabled(!options.containsKey("no-local-infile"));
+            ok = db.bulkLoad(Paths.get(directory));
+        } finally {
+            db.close();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
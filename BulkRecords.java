@@ -0,0 +1,424 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Record formats shared by BulkLoader and BulkExporter. The format follows the
+// file name: .csv or .ndjson (.jsonl), optionally followed by .gz.
+//
+// CSV has a header line of column names and RFC 4180 quoting. An empty unquoted
+// field is NULL and a quoted empty field ("") is the empty string. NDJSON holds
+// one flat JSON object per line keyed by column name; the first object's keys
+// fix the column order and keys missing from later objects are NULL.
+final class BulkRecords {
+    private BulkRecords() {
+    }
+
+    interface RecordReader extends Closeable {
+        String[] columns();
+
+        // Next record in column order, or null at end of file
+        String[] next() throws IOException;
+    }
+
+    interface RecordWriter extends Closeable {
+        void write(String[] values) throws IOException;
+    }
+
+    static boolean isSupported(Path file) {
+        String name = baseName(file);
+        return name.endsWith(".csv") || name.endsWith(".ndjson") || name.endsWith(".jsonl");
+    }
+
+    static RecordReader open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        try {
+            return baseName(file).endsWith(".csv") ? new CsvReader(reader) : new NdjsonReader(reader);
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    // numeric[i] writes column i unquoted in NDJSON
+    static RecordWriter create(OutputStream out, Path file, String[] columns, boolean[] numeric) throws IOException {
+        if (file.getFileName().toString().endsWith(".gz")) {
+            out = new GZIPOutputStream(out, 64 * 1024);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        if (baseName(file).endsWith(".csv")) {
+            return new CsvWriter(writer, columns);
+        }
+        return new NdjsonWriter(writer, columns, numeric);
+    }
+
+    // File name without a trailing .gz
+    static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
+    }
+
+    private static final class CsvReader implements RecordReader {
+        private final BufferedReader in;
+        private final String[] columns;
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private long line = 1;
+
+        CsvReader(BufferedReader in) throws IOException {
+            this.in = in;
+            String[] header = next();
+            if (header == null) {
+                throw new IOException("CSV file has no header line");
+            }
+            this.columns = header;
+        }
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            fields.clear();
+            int c = in.read();
+            // Blank lines, including a trailing one, hold no record
+            while (c == '\n' || c == '\r') {
+                if (c == '\n') {
+                    line++;
+                }
+                c = in.read();
+            }
+            if (c < 0) {
+                return null;
+            }
+            long startLine = line;
+            while (true) {
+                field.setLength(0);
+                boolean quoted = false;
+                if (c == '"') {
+                    quoted = true;
+                    while (true) {
+                        c = in.read();
+                        if (c < 0) {
+                            throw new IOException("Unterminated quoted field starting on line " + startLine);
+                        }
+                        if (c == '"') {
+                            c = in.read();
+                            if (c != '"') {
+                                break;
+                            }
+                        } else if (c == '\n') {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                } else {
+                    while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                        field.append((char) c);
+                        c = in.read();
+                    }
+                }
+                fields.add(quoted || field.length() > 0 ? field.toString() : null);
+                if (c == ',') {
+                    c = in.read();
+                    continue;
+                }
+                if (c == '\r') {
+                    c = in.read();
+                    if (c != '\n' && c >= 0) {
+                        throw new IOException("Stray carriage return on line " + line);
+                    }
+                }
+                if (c != '\n' && c >= 0) {
+                    throw new IOException("Unexpected character after quoted field on line " + line);
+                }
+                line++;
+                break;
+            }
+            String[] record = fields.toArray(new String[0]);
+            if (columns != null && record.length != columns.length) {
+                throw new IOException("Line " + startLine + " has " + record.length + " fields, expected " +
+                                      columns.length);
+            }
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class NdjsonReader implements RecordReader {
+        private final BufferedReader in;
+        private final Map<String, Integer> index = new HashMap<>();
+        private String[] columns;
+        private Map<String, String> pending;
+        private long line;
+
+        NdjsonReader(BufferedReader in) throws IOException {
+            this.in = in;
+            pending = readObject();
+            Set<String> keys = pending == null ? Set.of() : pending.keySet();
+            columns = keys.toArray(new String[0]);
+            for (int i = 0; i < columns.length; i++) {
+                index.put(columns[i], i);
+            }
+        }
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            Map<String, String> object = pending != null ? pending : readObject();
+            pending = null;
+            if (object == null) {
+                return null;
+            }
+            String[] record = new String[columns.length];
+            for (Map.Entry<String, String> entry : object.entrySet()) {
+                Integer i = index.get(entry.getKey());
+                if (i == null) {
+                    throw new IOException("Line " + line + " has key " + entry.getKey() + " not present on the first line");
+                }
+                record[i] = entry.getValue();
+            }
+            return record;
+        }
+
+        private Map<String, String> readObject() throws IOException {
+            String text;
+            do {
+                text = in.readLine();
+                line++;
+                if (text == null) {
+                    return null;
+                }
+            } while (text.isBlank());
+            try {
+                return new JsonLine(text).parseObject();
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + line + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Parser for one flat JSON object; values are kept as their text, null as null
+    private static final class JsonLine {
+        private final String text;
+        private int pos;
+
+        JsonLine(String text) {
+            this.text = text;
+        }
+
+        Map<String, String> parseObject() {
+            Map<String, String> object = new LinkedHashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    String key = parseString();
+                    expect(':');
+                    object.put(key, parseValue());
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw new IllegalArgumentException("expected , or } at column " + pos);
+                    }
+                }
+            }
+            if (peek() != 0) {
+                throw new IllegalArgumentException("trailing characters at column " + pos);
+            }
+            return object;
+        }
+
+        private String parseValue() {
+            char c = peek();
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("nested values are not supported (column " + pos + ")");
+            }
+            int start = pos;
+            while (pos < text.length() && ",} \t".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("missing value at column " + start);
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= text.length()) {
+                    throw new IllegalArgumentException("unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    throw new IllegalArgumentException("unterminated string");
+                }
+                char e = text.charAt(pos++);
+                switch (e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw new IllegalArgumentException("truncated \\u escape");
+                        }
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw new IllegalArgumentException("expected " + expected + " at column " + pos);
+            }
+        }
+
+        // Next non-blank character, consumed
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        // Next non-blank character, or 0 at end of line
+        private char peek() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+    }
+
+    private static final class CsvWriter implements RecordWriter {
+        private final Writer out;
+
+        CsvWriter(Writer out, String[] columns) throws IOException {
+            this.out = out;
+            write(columns);
+        }
+
+        @Override
+        public void write(String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String value = values[i];
+                if (value == null) {
+                    continue;
+                }
+                if (value.isEmpty() || value.indexOf(',') >= 0 || value.indexOf('"') >= 0 ||
+                    value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(value.replace("\"", "\"\""));
+                    out.write('"');
+                } else {
+                    out.write(value);
+                }
+            }
+            out.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class NdjsonWriter implements RecordWriter {
+        private final Writer out;
+        private final String[] keys;
+        private final boolean[] numeric;
+
+        NdjsonWriter(Writer out, String[] columns, boolean[] numeric) {
+            this.out = out;
+            this.numeric = numeric;
+            this.keys = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                keys[i] = quote(columns[i]) + ":";
+            }
+        }
+
+        @Override
+        public void write(String[] values) throws IOException {
+            out.write('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(keys[i]);
+                String value = values[i];
+                out.write(value == null ? "null" : numeric[i] ? value : quote(value));
+            }
+            out.write("}\n");
+        }
+
+        private static String quote(String value) {
+            StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            return sb.append('"').toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
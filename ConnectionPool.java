@@ -0,0 +1,466 @@
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+// Bounded JDBC connection pool. Borrowed connections are proxies whose close()
+// hands the physical connection back to the pool instead of closing it. Statements
+// created through them are proxies too, whose getConnection() returns the borrowed
+// proxy rather than the physical connection. Result sets are the driver's own, so
+// ResultSet.getStatement().getConnection() must not be used to reach (and close)
+// the connection.
+public class ConnectionPool implements DataSource, AutoCloseable {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+
+    private volatile long borrowTimeoutMillis = 30_000;
+    private volatile int validationTimeoutSeconds = 2;
+    private volatile long leakDetectionThresholdMillis = 60_000;
+    private volatile int statementCacheSize = 64;
+
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> inUse = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // Pool metrics
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+    private final AtomicLong connectionsDestroyed = new AtomicLong();
+    private final AtomicLong connectionsAborted = new AtomicLong();
+    private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+    private final LatencyHistogram borrowWaits = new LatencyHistogram();
+    private final SlowQueryLog slowQueryLog = new SlowQueryLog(this);
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, 5, 5, TimeUnit.SECONDS);
+    }
+
+    // Open connections up to the configured minimum
+    public void warmUp() throws SQLException {
+        while (totalConnections.get() < minSize && !closed) {
+            idle.offerLast(openConnection());
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                borrowTimeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis +
+                                              " ms waiting for a pooled connection (active=" + inUse.size() +
+                                              ", max=" + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeValidConnection();
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrower = Thread.currentThread();
+            pooled.borrowSite = leakDetectionThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            inUse.add(pooled);
+            borrowCount.incrementAndGet();
+            long waited = System.nanoTime() - start;
+            borrowWaitNanos.addAndGet(waited);
+            borrowWaits.recordNanos(waited);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the configured credentials");
+    }
+
+    private PooledConnection takeValidConnection() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isValid(pooled)) {
+                return pooled;
+            }
+            validationFailures.incrementAndGet();
+            destroy(pooled);
+        }
+        return openConnection();
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        totalConnections.incrementAndGet();
+        connectionsCreated.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void release(PooledConnection pooled) {
+        inUse.remove(pooled);
+        pooled.borrower = null;
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.physical.clearWarnings();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        connectionsDestroyed.incrementAndGet();
+        pooled.statements.closeAll();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // Connection is already unusable
+        }
+    }
+
+    // Aborts the physical connections currently borrowed by thread, e.g. when the
+    // operation running on it was cancelled or timed out. A statement blocked in a
+    // socket read ignores interrupts, but fails as soon as its connection is aborted;
+    // the aborted connection is then destroyed when its borrower returns it, freeing
+    // its slot. Returns how many connections were aborted.
+    public int abortConnectionsOf(Thread thread) {
+        int aborted = 0;
+        for (PooledConnection pooled : inUse) {
+            if (pooled.borrower == thread) {
+                try {
+                    pooled.physical.abort(Runnable::run);
+                    aborted++;
+                } catch (SQLException e) {
+                    System.err.println("Error aborting pooled connection: " + e.getMessage());
+                }
+            }
+        }
+        connectionsAborted.addAndGet(aborted);
+        return aborted;
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        long threshold = leakDetectionThresholdMillis;
+        if (threshold > 0) {
+            for (PooledConnection pooled : inUse) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > threshold) {
+                    pooled.leakReported = true;
+                    leaksDetected.incrementAndGet();
+                    System.err.println("Possible connection leak: connection held for " +
+                                       (now - pooled.borrowedAt) + " ms");
+                    if (pooled.borrowSite != null) {
+                        pooled.borrowSite.printStackTrace();
+                    }
+                }
+            }
+        }
+        try {
+            warmUp();
+        } catch (SQLException e) {
+            System.err.println("Connection pool refill failed: " + e.getMessage());
+        }
+    }
+
+    // Pool metrics snapshot
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long borrows = borrowCount.get();
+        metrics.put("total_connections", totalConnections.get());
+        metrics.put("active_connections", inUse.size());
+        metrics.put("idle_connections", idle.size());
+        metrics.put("threads_awaiting", permits.getQueueLength());
+        metrics.put("min_size", minSize);
+        metrics.put("max_size", maxSize);
+        metrics.put("borrow_count", borrows);
+        metrics.put("avg_borrow_wait_ms", borrows == 0 ? 0.0 : borrowWaitNanos.get() / 1_000_000.0 / borrows);
+        metrics.put("borrow_timeouts", borrowTimeouts.get());
+        metrics.put("validation_failures", validationFailures.get());
+        metrics.put("leaks_detected", leaksDetected.get());
+        metrics.put("connections_created", connectionsCreated.get());
+        metrics.put("connections_destroyed", connectionsDestroyed.get());
+        metrics.put("connections_aborted", connectionsAborted.get());
+        long hits = statementCounters.hits.get();
+        long misses = statementCounters.misses.get();
+        metrics.put("statement_cache_hits", hits);
+        metrics.put("statement_cache_misses", misses);
+        metrics.put("statement_cache_evictions", statementCounters.evictions.get());
+        metrics.put("statement_cache_hit_ratio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        return metrics;
+    }
+
+    public int getActiveConnections() {
+        return inUse.size();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getThreadsAwaiting() {
+        return permits.getQueueLength();
+    }
+
+    public long getBorrowTimeouts() {
+        return borrowTimeouts.get();
+    }
+
+    // Distribution of time spent waiting for a connection in getConnection()
+    public LatencyHistogram getBorrowWaits() {
+        return borrowWaits;
+    }
+
+    // Timing, JFR events and slow-query capture for statements from the statement cache
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    public void setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+    }
+
+    // 0 disables leak detection
+    public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    }
+
+    // Per-connection prepared statement cache size; 0 disables caching.
+    // Applies to connections opened after the call.
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        slowQueryLog.close();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        // In-use connections are destroyed when their borrowers return them
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    // A physical connection owned by the pool
+    private final class PooledConnection {
+        final Connection physical;
+        final StatementCache statements;
+        volatile long borrowedAt;
+        // Thread that borrowed the connection; null while idle
+        volatile Thread borrower;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new StatementCache(physical, statementCacheSize, statementCounters, slowQueryLog);
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new Handle(this));
+        }
+    }
+
+    // The borrower's view of a pooled connection; valid until close()
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                return pooled.statements.prepare((String) args[0], (Connection) proxy);
+            }
+            Object result;
+            try {
+                result = method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement && Statement.class.isAssignableFrom(method.getReturnType())) {
+                // createStatement, prepareCall and the other prepareStatement overloads
+                return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                              new Class<?>[] { method.getReturnType() },
+                                              new BorrowedStatement((Statement) result, (Connection) proxy));
+            }
+            return result;
+        }
+    }
+
+    // An uncached statement of a borrowed connection; only getConnection() differs
+    private static final class BorrowedStatement implements InvocationHandler {
+        private final Statement statement;
+        private final Connection handle;
+
+        BorrowedStatement(Statement statement, Connection handle) {
+            this.statement = statement;
+            this.handle = handle;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getConnection":
+                    return handle;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "BorrowedStatement[" + statement + "]";
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.*;
+import jdk.jfr.*;
+
+// Instrumentation surface of one CourierServiceDB: per-operation latency histograms
+// and counters, connection pool and slow-query MXBeans (JMX domain "courier.db"),
+// and the JFR events emitted by operations and pooled statements.
+public class CourierMetrics implements AutoCloseable {
+    public interface OperationMXBean {
+        long getCount();
+        long getFailures();
+        long getRetries();
+        long getRows();
+        double getMeanMicros();
+        long getP50Micros();
+        long getP99Micros();
+        long getP999Micros();
+        long getMaxMicros();
+        void reset();
+    }
+
+    public interface ConnectionPoolMXBean {
+        int getTotalConnections();
+        int getActiveConnections();
+        int getIdleConnections();
+        int getThreadsAwaiting();
+        int getMaxSize();
+        long getBorrowTimeouts();
+        double getBorrowWaitMeanMicros();
+        long getBorrowWaitP99Micros();
+        long getBorrowWaitMaxMicros();
+    }
+
+    public interface SlowQueryLogMXBean {
+        long getThresholdMillis();
+        void setThresholdMillis(long thresholdMillis);
+        long getSlowQueryCount();
+        List<String> getRecentSlowQueries();
+        void clear();
+    }
+
+    @Name("courier.Operation")
+    @Label("Courier Operation")
+    @Category({ "Courier", "Database" })
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Rows")
+        long rows;
+        @Label("Success")
+        boolean success;
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("courier.Statement")
+    @Label("Courier Statement")
+    @Category({ "Courier", "Database" })
+    @StackTrace(false)
+    static final class StatementEvent extends Event {
+        @Label("SQL Id")
+        String sqlId;
+        @Label("SQL")
+        String sql;
+        @Label("Affected Rows")
+        @Description("Update count, or -1 for queries")
+        long rows;
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    private static final EventType OPERATION_EVENT = EventType.getEventType(OperationEvent.class);
+    private static final EventType STATEMENT_EVENT = EventType.getEventType(StatementEvent.class);
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final String instance = "courier-" + INSTANCES.incrementAndGet();
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final List<ObjectName> registered = Collections.synchronizedList(new ArrayList<>());
+
+    public CourierMetrics(ConnectionPool pool) {
+        register("type=ConnectionPool", new PoolView(pool), ConnectionPoolMXBean.class);
+        register("type=SlowQueryLog", pool.getSlowQueryLog(), SlowQueryLogMXBean.class);
+    }
+
+    // Stats for the named operation, created and registered with JMX on first use
+    public OperationStats operation(String name) {
+        OperationStats stats = operations.get(name);
+        if (stats != null) {
+            return stats;
+        }
+        synchronized (operations) {
+            stats = operations.get(name);
+            if (stats == null) {
+                stats = new OperationStats(name);
+                register("type=Operation,name=" + name, stats, OperationMXBean.class);
+                operations.put(name, stats);
+            }
+            return stats;
+        }
+    }
+
+    // Snapshot of every operation's counters and latency percentiles
+    public Map<String, Map<String, Object>> getOperationMetrics() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        for (OperationStats stats : operations.values()) {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("count", stats.getCount());
+            metrics.put("failures", stats.getFailures());
+            metrics.put("retries", stats.getRetries());
+            metrics.put("rows", stats.getRows());
+            metrics.put("mean_us", stats.getMeanMicros());
+            metrics.put("p50_us", stats.getP50Micros());
+            metrics.put("p99_us", stats.getP99Micros());
+            metrics.put("p999_us", stats.getP999Micros());
+            metrics.put("max_us", stats.getMaxMicros());
+            result.put(stats.getName(), metrics);
+        }
+        return result;
+    }
+
+    static void emitOperationEvent(String operation, long rows, boolean success, long latencyNanos) {
+        if (!OPERATION_EVENT.isEnabled()) {
+            return;
+        }
+        OperationEvent event = new OperationEvent();
+        event.operation = operation;
+        event.rows = rows;
+        event.success = success;
+        event.latency = latencyNanos;
+        event.commit();
+    }
+
+    static boolean statementEventsEnabled() {
+        return STATEMENT_EVENT.isEnabled();
+    }
+
+    static void emitStatementEvent(String sqlId, String sql, long rows, long latencyNanos) {
+        StatementEvent event = new StatementEvent();
+        event.sqlId = sqlId;
+        event.sql = sql;
+        event.rows = rows;
+        event.latency = latencyNanos;
+        event.commit();
+    }
+
+    private <T> void register(String properties, T bean, Class<T> mxbeanInterface) {
+        try {
+            ObjectName name = new ObjectName("courier.db:instance=" + instance + "," + properties);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(bean, mxbeanInterface, true), name);
+            registered.add(name);
+        } catch (JMException e) {
+            System.err.println("Error registering metrics MBean " + properties + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registered) {
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (JMException e) {
+                    // Already gone
+                }
+            }
+            registered.clear();
+        }
+    }
+
+    private static final class PoolView implements ConnectionPoolMXBean {
+        private final ConnectionPool pool;
+
+        PoolView(ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public int getTotalConnections() {
+            return pool.getTotalConnections();
+        }
+
+        @Override
+        public int getActiveConnections() {
+            return pool.getActiveConnections();
+        }
+
+        @Override
+        public int getIdleConnections() {
+            return pool.getIdleConnections();
+        }
+
+        @Override
+        public int getThreadsAwaiting() {
+            return pool.getThreadsAwaiting();
+        }
+
+        @Override
+        public int getMaxSize() {
+            return pool.getMaxSize();
+        }
+
+        @Override
+        public long getBorrowTimeouts() {
+            return pool.getBorrowTimeouts();
+        }
+
+        @Override
+        public double getBorrowWaitMeanMicros() {
+            return pool.getBorrowWaits().getMeanMicros();
+        }
+
+        @Override
+        public long getBorrowWaitP99Micros() {
+            return pool.getBorrowWaits().percentileMicros(99);
+        }
+
+        @Override
+        public long getBorrowWaitMaxMicros() {
+            return pool.getBorrowWaits().getMaxMicros();
+        }
+    }
+}
@@ -1,181 +1,142 @@
 import java.sql.*;
 import java.util.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class CourierServiceDB {
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/courier_service";
-    private static final String USER = "root";
-    private static final String PASS = "password";
+    // rewriteBatchedStatements turns JDBC batches into multi-row INSERTs;
+    // useLocalSessionState skips the round trip for redundant autocommit/isolation changes
+    private static final String DB_URL = System.getProperty("courier.db.url",
+                                                            "jdbc:mysql://localhost:3306/courier_service" +
+                                                            "?rewriteBatchedStatements=true&useLocalSessionState=true");
+    private static final String USER = System.getProperty("courier.db.user", "root");
+    private static final String PASS = System.getProperty("courier.db.password", "password");
+    // Comma-separated replica URLs for read routing; empty serves every read from the primary
+    private static final String REPLICA_URLS = System.getProperty("courier.db.replicaUrls", "");
     
-    private Connection connection;
+    // Connection pool sizing
+    private static final int POOL_MIN_SIZE = 2;
+    private static final int POOL_MAX_SIZE = 10;
+    
+    // Rows per transaction for batch ingestion
+    private static final int BATCH_CHUNK_SIZE = 1000;
+    
+    // Earliest date covered by a full rollup rebuild (MySQL's minimum DATE)
+    private static final LocalDate ROLLUP_EPOCH = LocalDate.of(1000, 1, 1);
+    
+    // Integer.MIN_VALUE makes Connector/J stream rows one at a time
+    private static final int DEFAULT_STREAM_FETCH_SIZE = Integer.MIN_VALUE;
+    
+    // Reasons a package may be moved for: the package_movement_log.movement_reason values
+    public static final List<String> MOVEMENT_REASONS = List.of(
+        "reassignment", "consolidation", "split_shipment", "damage", "customer_request", "other");
+    
+    // Recomputes driver.active_load from open driver assignments
+    private static final String RECONCILE_DRIVER_LOAD_SQL =
+        "UPDATE driver d SET d.active_load = " +
+        "(SELECT COUNT(*) FROM driver_shipment_assignment dsa " +
+        "WHERE dsa.driver_id = d.driver_id AND dsa.delivered = FALSE)";
+    
+    // Attempts for a transaction that keeps hitting deadlocks or lock wait timeouts
+    private static final int MAX_TRANSACTION_ATTEMPTS = 4;
+    private static final long TRANSACTION_RETRY_BACKOFF_MILLIS = 20;
+    
+    // Node ID for generated keys; must be distinct for every process sharing the database
+    private static final long NODE_ID = Long.getLong("courier.nodeId", 0L);
+    
+    // Where expired status_logs and package_movement_log partitions are archived
+    private static final String ARCHIVE_DIR = System.getProperty("courier.archiveDir", "archive");
+    
+    private final ConnectionPool pool;
+    private final ReadRouter readRouter;
+    private final IdGenerator idGenerator;
+    private final ReferenceDataCache referenceData;
+    private final LocationHierarchy locationHierarchy;
+    private final CourierMetrics metrics;
+    private final PartitionManager partitions;
+    private final DelayWatcher delayWatcher;
+    private final BulkLoader bulkLoader;
+    private final ShipmentEventTailer eventTailer;
+    private final DispatchEngine dispatchEngine;
+    private volatile int streamFetchSize = DEFAULT_STREAM_FETCH_SIZE;
+    // Null means status logs are written synchronously
+    private volatile StatusLogWriter statusLogWriter;
     
     public CourierServiceDB() {
+        this(new ConnectionPool(DB_URL, USER, PASS, POOL_MIN_SIZE, POOL_MAX_SIZE), replicaPools());
+    }
+    
+    public CourierServiceDB(ConnectionPool pool) {
+        this(pool, List.of());
+    }
+    
+    public CourierServiceDB(ConnectionPool pool, IdGenerator idGenerator) {
+        this(pool, List.of(), idGenerator);
+    }
+    
+    // Writes go to the primary pool; reads are spread over the replica pools
+    public CourierServiceDB(ConnectionPool primary, List<ConnectionPool> replicas) {
+        this(primary, replicas, new SnowflakeIdGenerator(NODE_ID));
+    }
+    
+    public CourierServiceDB(ConnectionPool primary, List<ConnectionPool> replicas, IdGenerator idGenerator) {
+        this.pool = primary;
+        this.readRouter = new ReadRouter(primary, replicas);
+        this.idGenerator = idGenerator;
+        this.referenceData = new ReferenceDataCache(pool);
+        this.locationHierarchy = new LocationHierarchy(pool);
+        this.metrics = new CourierMetrics(pool);
+        this.partitions = new PartitionManager(pool, Paths.get(ARCHIVE_DIR));
+        partitions.schedule(1, TimeUnit.DAYS);
+        this.delayWatcher = new DelayWatcher(pool, referenceData);
+        this.bulkLoader = new BulkLoader(pool);
+        this.eventTailer = new ShipmentEventTailer(pool);
+        this.dispatchEngine = new DispatchEngine(pool, locationHierarchy, idGenerator);
         try {
             // Load MySQL JDBC driver
             Class.forName("com.mysql.cj.jdbc.Driver");
-            this.connection = DriverManager.getConnection(DB_URL, USER, PASS);
+            pool.warmUp();
             System.out.println("Database connected successfully!");
+            referenceData.warmUp();
         } catch (ClassNotFoundException | SQLException e) {
+            // The pool keeps retrying on borrow, so a database outage is not fatal
             System.err.println("Database connection failed: " + e.getMessage());
         }
+        // Loads open shipments in the background and retries until the database is reachable
+        delayWatcher.start();
     }
     
-    // Create database schema
+    private static List<ConnectionPool> replicaPools() {
+        List<ConnectionPool> replicas = new ArrayList<>();
+        for (String url : REPLICA_URLS.split(",")) {
+            if (!url.isBlank()) {
+                replicas.add(new ConnectionPool(url.trim(), USER, PASS, POOL_MIN_SIZE, POOL_MAX_SIZE));
+            }
+        }
+        return replicas;
+    }
+    
+    // Create the database schema or upgrade it to the latest migration
     public void createSchema() {
         try {
-            Statement stmt = connection.createStatement();
+            int applied = new SchemaMigrator(pool).migrate();
             
-            // Create tables
-            String[] createTables = {
-                // Customer table
-                "CREATE TABLE IF NOT EXISTS customer (" +
-                "customer_id BIGINT PRIMARY KEY," +
-                "name VARCHAR(100) NOT NULL," +
-                "contact VARCHAR(50) NOT NULL" +
-                ")",
-                
-                // Location table
-                "CREATE TABLE IF NOT EXISTS location (" +
-                "location_id BIGINT PRIMARY KEY," +
-                "name VARCHAR(100) NOT NULL," +
-                "parent_location_id BIGINT NULL," +
-                "pinCode VARCHAR(20) NOT NULL," +
-                "FOREIGN KEY (parent_location_id) REFERENCES location(location_id)" +
-                ")",
-                
-                // Agent table
-                "CREATE TABLE IF NOT EXISTS agent (" +
-                "agent_id BIGINT PRIMARY KEY," +
-                "name VARCHAR(100) NOT NULL," +
-                "contacts VARCHAR(100) NOT NULL" +
-                ")",
-                
-                // Driver table
-                "CREATE TABLE IF NOT EXISTS driver (" +
-                "driver_id BIGINT PRIMARY KEY," +
-                "name VARCHAR(100) NOT NULL," +
-                "license_number VARCHAR(50) UNIQUE NOT NULL," +
-                "contact VARCHAR(50) NOT NULL," +
-                "`limit` BIGINT DEFAULT 5" +
-                ")",
-                
-                // Shipments table
-                "CREATE TABLE IF NOT EXISTS shipments (" +
-                "shipment_id BIGINT PRIMARY KEY," +
-                "sender_id BIGINT NOT NULL," +
-                "recipient_id BIGINT NOT NULL," +
-                "origin_id BIGINT NOT NULL," +
-                "destination_id BIGINT NOT NULL," +
-                "status ENUM('pending', 'in_transit', 'delivered', 'returned') DEFAULT 'pending'," +
-                "created_time DATETIME DEFAULT CURRENT_TIMESTAMP," +
-                "estimated_delivery_time DATETIME," +
-                "actual_delivery DATETIME NULL," +
-                "FOREIGN KEY (sender_id) REFERENCES customer(customer_id)," +
-                "FOREIGN KEY (recipient_id) REFERENCES customer(customer_id)," +
-                "FOREIGN KEY (origin_id) REFERENCES location(location_id)," +
-                "FOREIGN KEY (destination_id) REFERENCES location(location_id)" +
-                ")",
-                
-                // Package table
-                "CREATE TABLE IF NOT EXISTS package (" +
-                "package_id BIGINT PRIMARY KEY," +
-                "weight DECIMAL(8,2) NOT NULL," +
-                "description VARCHAR(500) NOT NULL," +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                "is_active BOOLEAN DEFAULT TRUE" +
-                ")",
-                
-                // Package shipment assignment table
-                "CREATE TABLE IF NOT EXISTS package_shipment_assignment (" +
-                "assignment_id BIGINT PRIMARY KEY AUTO_INCREMENT," +
-                "package_id BIGINT NOT NULL," +
-                "shipment_id BIGINT NOT NULL," +
-                "assigned_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                "removed_at TIMESTAMP NULL," +
-                "assigned_by_agent_id BIGINT," +
-                "removal_reason ENUM('reassigned', 'damaged', 'lost', 'returned', 'other') NULL," +
-                "notes TEXT," +
-                "FOREIGN KEY (package_id) REFERENCES package(package_id)," +
-                "FOREIGN KEY (shipment_id) REFERENCES shipments(shipment_id)," +
-                "FOREIGN KEY (assigned_by_agent_id) REFERENCES agent(agent_id)" +
-                ")",
-                
-                // Driver shipment assignment table
-                "CREATE TABLE IF NOT EXISTS driver_shipment_assignment (" +
-                "assignment_id BIGINT PRIMARY KEY," +
-                "driver_id BIGINT NOT NULL," +
-                "shipment_id BIGINT NOT NULL," +
-                "start_location_id BIGINT NOT NULL," +
-                "end_location_id BIGINT NOT NULL," +
-                "delivered BOOLEAN DEFAULT FALSE," +
-                "assigned_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                "estimated_pickup_time DATETIME," +
-                "actual_pickup_time DATETIME NULL," +
-                "estimated_delivery_time DATETIME," +
-                "actual_delivery_time DATETIME NULL," +
-                "FOREIGN KEY (driver_id) REFERENCES driver(driver_id)," +
-                "FOREIGN KEY (shipment_id) REFERENCES shipments(shipment_id)," +
-                "FOREIGN KEY (start_location_id) REFERENCES location(location_id)," +
-                "FOREIGN KEY (end_location_id) REFERENCES location(location_id)" +
-                ")",
-                
-                // Status logs table
-                "CREATE TABLE IF NOT EXISTS status_logs (" +
-                "log_id BIGINT PRIMARY KEY," +
-                "shipment_id BIGINT NOT NULL," +
-                "location_id BIGINT," +
-                "agent_id BIGINT," +
-                "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                "status ENUM('pending', 'in_transit', 'delivered', 'returned') NOT NULL," +
-                "notes TEXT," +
-                "FOREIGN KEY (shipment_id) REFERENCES shipments(shipment_id) ON DELETE CASCADE," +
-                "FOREIGN KEY (location_id) REFERENCES location(location_id)," +
-                "FOREIGN KEY (agent_id) REFERENCES agent(agent_id)" +
-                ")",
-                
-                // Package movement log table
-                "CREATE TABLE IF NOT EXISTS package_movement_log (" +
-                "log_id BIGINT PRIMARY KEY AUTO_INCREMENT," +
-                "package_id BIGINT NOT NULL," +
-                "from_shipment_id BIGINT NULL," +
-                "to_shipment_id BIGINT NULL," +
-                "moved_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                "moved_by_agent_id BIGINT," +
-                "movement_reason ENUM('reassignment', 'consolidation', 'split_shipment', 'damage', 'customer_request', 'other')," +
-                "notes TEXT," +
-                "FOREIGN KEY (package_id) REFERENCES package(package_id)," +
-                "FOREIGN KEY (from_shipment_id) REFERENCES shipments(shipment_id)," +
-                "FOREIGN KEY (to_shipment_id) REFERENCES shipments(shipment_id)," +
-                "FOREIGN KEY (moved_by_agent_id) REFERENCES agent(agent_id)" +
-                ")"
-            };
+            // Partition log tables from older schemas and create the coming months' partitions
+            partitions.ensurePartitioned();
             
-            for (String sql : createTables) {
-                stmt.execute(sql);
-            }
-            
-            // Create indexes
-            String[] createIndexes = {
-                "CREATE INDEX IF NOT EXISTS idx_package_shipment_assignment_package ON package_shipment_assignment(package_id)",
-                "CREATE INDEX IF NOT EXISTS idx_package_shipment_assignment_shipment ON package_shipment_assignment(shipment_id)",
-                "CREATE INDEX IF NOT EXISTS idx_package_shipment_assignment_active ON package_shipment_assignment(package_id, removed_at)",
-                "CREATE INDEX IF NOT EXISTS idx_package_movement_log_package ON package_movement_log(package_id)",
-                "CREATE INDEX IF NOT EXISTS idx_package_movement_log_timestamp ON package_movement_log(moved_at)",
-                "CREATE INDEX IF NOT EXISTS idx_shipments_status ON shipments(status)",
-                "CREATE INDEX IF NOT EXISTS idx_shipments_estimated_delivery ON shipments(estimated_delivery_time)",
-                "CREATE INDEX IF NOT EXISTS idx_driver_assignment_driver_delivered ON driver_shipment_assignment(driver_id, delivered)"
-            };
-            
-            for (String sql : createIndexes) {
-                try {
-                    stmt.execute(sql);
-                } catch (SQLException e) {
-                    // Index might already exist, continue
-                }
-            }
-            
-            System.out.println("Database schema created successfully!");
+            System.out.println("Database schema created successfully! (version " + SchemaMigrator.latestVersion() +
+                               ", " + applied + " migrations applied)");
             
         } catch (SQLException e) {
             System.err.println("Error creating schema: " + e.getMessage());
@@ -185,19 +146,28 @@ public class CourierServiceDB {
     // Function 1: Create shipment with sender, recipient, origin, destination
     public boolean createShipment(long shipmentId, long senderId, long recipientId, 
                                  long originId, long destinationId, LocalDateTime estimatedDelivery) {
+        String sql = "INSERT INTO shipments (shipment_id, sender_id, recipient_id, origin_id, destination_id, estimated_delivery_time) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
         try {
-            String sql = "INSERT INTO shipments (shipment_id, sender_id, recipient_id, origin_id, destination_id, estimated_delivery_time) " +
-                        "VALUES (?, ?, ?, ?, ?, ?)";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setLong(1, shipmentId);
-            pstmt.setLong(2, senderId);
-            pstmt.setLong(3, recipientId);
-            pstmt.setLong(4, originId);
-            pstmt.setLong(5, destinationId);
-            pstmt.setTimestamp(6, Timestamp.valueOf(estimatedDelivery));
-            
-            int result = pstmt.executeUpdate();
-            return result > 0;
+            boolean created = inTransaction(metrics.operation("createShipment"), conn -> {
+                int result;
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setLong(1, shipmentId);
+                    pstmt.setLong(2, senderId);
+                    pstmt.setLong(3, recipientId);
+                    pstmt.setLong(4, originId);
+                    pstmt.setLong(5, destinationId);
+                    pstmt.setTimestamp(6, Timestamp.valueOf(estimatedDelivery));
+                    result = pstmt.executeUpdate();
+                }
+                
+                DailyVolumeRollup.recordNewShipment(conn, shipmentId);
+                return result > 0;
+            });
+            if (created) {
+                delayWatcher.shipmentCreated(shipmentId, senderId, recipientId, Timestamp.valueOf(estimatedDelivery));
+            }
+            return created;
         } catch (SQLException e) {
             System.err.println("Error creating shipment: " + e.getMessage());
             return false;
@@ -207,64 +177,270 @@ public class CourierServiceDB {
     // Function 2: Add package to shipment
     public boolean addPackageToShipment(long packageId, double weight, String description, 
                                        long shipmentId, long agentId) {
+        String packageSql = "INSERT INTO package (package_id, weight, description, current_shipment_id) " +
+                          "VALUES (?, ?, ?, ?)";
+        String assignmentSql = "INSERT INTO package_shipment_assignment (package_id, shipment_id, assigned_by_agent_id) " +
+                             "VALUES (?, ?, ?)";
         try {
-            // First create the package
-            String packageSql = "INSERT INTO package (package_id, weight, description) VALUES (?, ?, ?)";
-            PreparedStatement pstmt = connection.prepareStatement(packageSql);
-            pstmt.setLong(1, packageId);
-            pstmt.setDouble(2, weight);
-            pstmt.setString(3, description);
-            pstmt.executeUpdate();
-            
-            // Then assign it to shipment
-            String assignmentSql = "INSERT INTO package_shipment_assignment (package_id, shipment_id, assigned_by_agent_id) " +
-                                 "VALUES (?, ?, ?)";
-            pstmt = connection.prepareStatement(assignmentSql);
-            pstmt.setLong(1, packageId);
-            pstmt.setLong(2, shipmentId);
-            pstmt.setLong(3, agentId);
-            
-            int result = pstmt.executeUpdate();
-            return result > 0;
+            return inTransaction(metrics.operation("addPackageToShipment"), conn -> {
+                // First create the package
+                try (PreparedStatement pstmt = conn.prepareStatement(packageSql)) {
+                    pstmt.setLong(1, packageId);
+                    pstmt.setDouble(2, weight);
+                    pstmt.setString(3, description);
+                    pstmt.setLong(4, shipmentId);
+                    pstmt.executeUpdate();
+                }
+                
+                // Then assign it to shipment
+                int result;
+                try (PreparedStatement pstmt = conn.prepareStatement(assignmentSql)) {
+                    pstmt.setLong(1, packageId);
+                    pstmt.setLong(2, shipmentId);
+                    pstmt.setLong(3, agentId);
+                    result = pstmt.executeUpdate();
+                }
+                
+                DailyVolumeRollup.applyPackageWeight(conn, packageId, shipmentId, 1);
+                return result > 0;
+            });
         } catch (SQLException e) {
             System.err.println("Error adding package to shipment: " + e.getMessage());
             return false;
         }
     }
     
+    // Batch variant of Function 1: ingest a shipment manifest in chunked transactions
+    public BatchResult createShipments(List<NewShipment> shipments) {
+        String sql = "INSERT INTO shipments (shipment_id, sender_id, recipient_id, origin_id, destination_id, estimated_delivery_time) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
+        BatchResult result = executeInChunks(metrics.operation("createShipments"), "creating shipments",
+                                             shipments, NewShipment::shipmentId, (stmts, s) -> {
+            stmts[0].setLong(1, s.shipmentId());
+            stmts[0].setLong(2, s.senderId());
+            stmts[0].setLong(3, s.recipientId());
+            stmts[0].setLong(4, s.originId());
+            stmts[0].setLong(5, s.destinationId());
+            stmts[0].setTimestamp(6, Timestamp.valueOf(s.estimatedDelivery()));
+            stmts[1].setLong(1, s.shipmentId());
+        }, sql, DailyVolumeRollup.NEW_SHIPMENT_SQL);
+        Set<Integer> failed = new HashSet<>();
+        for (BatchResult.Failure failure : result.getFailures()) {
+            failed.add(failure.index());
+        }
+        for (int i = 0; i < shipments.size(); i++) {
+            NewShipment s = shipments.get(i);
+            if (!failed.contains(i)) {
+                delayWatcher.shipmentCreated(s.shipmentId(), s.senderId(), s.recipientId(),
+                                             Timestamp.valueOf(s.estimatedDelivery()));
+            }
+        }
+        return result;
+    }
+    
+    // Batch variant of Function 2: create packages and assign them to their shipments
+    public BatchResult addPackagesToShipments(List<NewPackage> packages) {
+        String packageSql = "INSERT INTO package (package_id, weight, description, current_shipment_id) " +
+                          "VALUES (?, ?, ?, ?)";
+        String assignmentSql = "INSERT INTO package_shipment_assignment (package_id, shipment_id, assigned_by_agent_id) " +
+                             "VALUES (?, ?, ?)";
+        return executeInChunks(metrics.operation("addPackagesToShipments"), "adding packages",
+                               packages, NewPackage::packageId, (stmts, p) -> {
+            stmts[0].setLong(1, p.packageId());
+            stmts[0].setDouble(2, p.weight());
+            stmts[0].setString(3, p.description());
+            stmts[0].setLong(4, p.shipmentId());
+            stmts[1].setLong(1, p.packageId());
+            stmts[1].setLong(2, p.shipmentId());
+            stmts[1].setLong(3, p.agentId());
+            stmts[2].setLong(1, p.packageId());
+            stmts[2].setInt(2, 1);
+            stmts[2].setLong(3, p.shipmentId());
+        }, packageSql, assignmentSql, DailyVolumeRollup.PACKAGE_WEIGHT_SQL);
+    }
+    
+    // Binds one row's parameters onto each statement of a batch
+    private interface RowBinder<T> {
+        void bind(PreparedStatement[] stmts, T row) throws SQLException;
+    }
+    
+    // Runs rows through JDBC batches of BATCH_CHUNK_SIZE, one transaction per chunk.
+    // A chunk that fails is rolled back and replayed row by row so that only the
+    // offending rows are reported as failures.
+    private <T> BatchResult executeInChunks(OperationStats stats, String label, List<T> rows,
+                                            ToLongFunction<T> idOf, RowBinder<T> binder, String... sqls) {
+        long start = stats.start();
+        BatchResult result = new BatchResult(rows.size());
+        int next = 0;
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            PreparedStatement[] stmts = new PreparedStatement[sqls.length];
+            try {
+                for (int i = 0; i < sqls.length; i++) {
+                    stmts[i] = conn.prepareStatement(sqls[i]);
+                }
+                while (next < rows.size()) {
+                    int end = Math.min(next + BATCH_CHUNK_SIZE, rows.size());
+                    List<T> chunk = rows.subList(next, end);
+                    if (executeChunk(conn, stmts, chunk, binder)) {
+                        result.addSucceeded(chunk.size());
+                    } else {
+                        executeRowByRow(conn, stmts, chunk, next, idOf, binder, result);
+                    }
+                    next = end;
+                }
+                readRouter.recordWrite(conn);
+            } finally {
+                for (PreparedStatement stmt : stmts) {
+                    if (stmt != null) {
+                        stmt.close();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error " + label + ": " + e.getMessage());
+            for (int i = next; i < rows.size(); i++) {
+                result.addFailure(i, idOf(idOf, rows.get(i)), e.getMessage());
+            }
+        }
+        stats.record(start, result.getSucceeded(), result.isComplete());
+        return result;
+    }
+    
+    private <T> boolean executeChunk(Connection conn, PreparedStatement[] stmts, List<T> chunk,
+                                     RowBinder<T> binder) throws SQLException {
+        try {
+            for (T row : chunk) {
+                binder.bind(stmts, row);
+                for (PreparedStatement stmt : stmts) {
+                    stmt.addBatch();
+                }
+            }
+            // Statements run in declaration order so parent rows precede child rows
+            for (PreparedStatement stmt : stmts) {
+                stmt.executeBatch();
+            }
+            conn.commit();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            // A row the binder rejects (e.g. a null field) is found by the row-by-row replay
+            conn.rollback();
+            for (PreparedStatement stmt : stmts) {
+                stmt.clearBatch();
+            }
+            return false;
+        }
+    }
+    
+    private <T> void executeRowByRow(Connection conn, PreparedStatement[] stmts, List<T> chunk, int offset,
+                                     ToLongFunction<T> idOf, RowBinder<T> binder,
+                                     BatchResult result) throws SQLException {
+        for (int i = 0; i < chunk.size(); i++) {
+            T row = chunk.get(i);
+            Savepoint savepoint = conn.setSavepoint();
+            try {
+                binder.bind(stmts, row);
+                for (PreparedStatement stmt : stmts) {
+                    stmt.executeUpdate();
+                }
+                conn.releaseSavepoint(savepoint);
+                result.addSucceeded(1);
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback(savepoint);
+                result.addFailure(offset + i, idOf(idOf, row), e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        }
+        conn.commit();
+    }
+    
+    // Id of a row for its failure report; 0 when the row itself is null
+    private static <T> long idOf(ToLongFunction<T> idOf, T row) {
+        return row == null ? 0 : idOf.applyAsLong(row);
+    }
+    
     // Function 3: Update shipment status
     public boolean updateShipmentStatus(long shipmentId, String status, long agentId, String notes) {
+        String updateSql = "UPDATE shipments SET status = ? WHERE shipment_id = ?";
+        String logSql = "INSERT INTO status_logs (log_id, shipment_id, agent_id, status, notes) " +
+                       "VALUES (?, ?, ?, ?, ?)";
+        // With a pipeline the log row is handed to the writer after commit; if its
+        // queue stays full the row is written inline as in SYNC mode
+        StatusLogWriter logWriter = statusLogWriter;
+        boolean deferLog = logWriter != null && logWriter.reserve();
+        StatusLogWriter.Entry[] entry = new StatusLogWriter.Entry[1];
+        boolean handedOff = false;
         try {
-            // Update shipment status
-            String updateSql = "UPDATE shipments SET status = ? WHERE shipment_id = ?";
-            PreparedStatement pstmt = connection.prepareStatement(updateSql);
-            pstmt.setString(1, status);
-            pstmt.setLong(2, shipmentId);
-            pstmt.executeUpdate();
-            
-            // Log the status change
-            String logSql = "INSERT INTO status_logs (log_id, shipment_id, agent_id, status, notes) " +
-                           "VALUES (?, ?, ?, ?, ?)";
-            pstmt = connection.prepareStatement(logSql);
-            pstmt.setLong(1, System.currentTimeMillis()); // Simple ID generation
-            pstmt.setLong(2, shipmentId);
-            pstmt.setLong(3, agentId);
-            pstmt.setString(4, status);
-            pstmt.setString(5, notes);
-            
-            int result = pstmt.executeUpdate();
-            return result > 0;
+            boolean logged = inTransaction(metrics.operation("updateShipmentStatus"), conn -> {
+                // The partitioned status_logs has no foreign key to shipments, so an
+                // unknown shipment is rejected here before anything is logged
+                if (DailyVolumeRollup.recordStatusChange(conn, shipmentId, status) == null) {
+                    return false;
+                }
+                
+                // Update shipment status
+                try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
+                    pstmt.setString(1, status);
+                    pstmt.setLong(2, shipmentId);
+                    if (pstmt.executeUpdate() == 0) {
+                        conn.rollback();
+                        return false;
+                    }
+                }
+                
+                // A delivered shipment frees its slot on the driver
+                if ("delivered".equals(status)) {
+                    releaseDriverCapacity(conn, shipmentId);
+                }
+                ShipmentOutbox.statusChanged(conn, shipmentId, status, agentId, notes);
+                
+                // Log the status change
+                if (deferLog) {
+                    entry[0] = new StatusLogWriter.Entry(idGenerator.nextId(), shipmentId, agentId, status, notes,
+                                                         new Timestamp(System.currentTimeMillis()));
+                    return true;
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(logSql)) {
+                    pstmt.setLong(1, idGenerator.nextId());
+                    pstmt.setLong(2, shipmentId);
+                    pstmt.setLong(3, agentId);
+                    pstmt.setString(4, status);
+                    pstmt.setString(5, notes);
+                    return pstmt.executeUpdate() > 0;
+                }
+            });
+            if (!logged) {
+                return false;
+            }
+            delayWatcher.statusChanged(shipmentId, status);
+            eventTailer.wakeUp();
+            if (deferLog) {
+                handedOff = true;
+                // The status change has committed either way; a lost log row is
+                // reported here and counted in getStatusLogMetrics()
+                if (!logWriter.append(entry[0])) {
+                    System.err.println("Error logging status " + status + " of shipment " + shipmentId +
+                                       ": the status was updated but its log entry was not written");
+                }
+            }
+            return true;
         } catch (SQLException e) {
             System.err.println("Error updating shipment status: " + e.getMessage());
             return false;
+        } finally {
+            // Reservation is still held if the transaction never committed
+            if (deferLog && !handedOff) {
+                logWriter.cancelReservation();
+            }
         }
     }
     
     // Function 4: Register driver
     public boolean registerDriver(long driverId, String name, String licenseNumber, String contact, int limit) {
-        try {
-            String sql = "INSERT INTO driver (driver_id, name, license_number, contact, `limit`) VALUES (?, ?, ?, ?, ?)";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
+        String sql = "INSERT INTO driver (driver_id, name, license_number, contact, `limit`) VALUES (?, ?, ?, ?, ?)";
+        OperationStats stats = metrics.operation("registerDriver");
+        long start = stats.start();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, driverId);
             pstmt.setString(2, name);
             pstmt.setString(3, licenseNumber);
@@ -272,272 +448,1192 @@ public class CourierServiceDB {
             pstmt.setInt(5, limit);
             
             int result = pstmt.executeUpdate();
+            referenceData.invalidateDriver(driverId);
+            readRouter.recordWrite(conn);
+            stats.record(start, result, true);
             return result > 0;
         } catch (SQLException e) {
             System.err.println("Error registering driver: " + e.getMessage());
+            stats.record(start, 0, false);
             return false;
         }
     }
     
     // Function 5: Assign shipment to driver
+    // The capacity check and the reservation are one conditional UPDATE on the driver
+    // row, so concurrent dispatchers serialize on that row lock and can never push
+    // active_load past the driver's limit. The reservation, the assignment insert, the
+    // outbox event and the commit are still four statements on one connection: MySQL
+    // cannot update the driver and insert the assignment in one statement short of a
+    // trigger, and a trigger would double count the reservations DispatchEngine and
+    // ShardedCourierService make themselves.
     public boolean assignShipmentToDriver(long driverId, long shipmentId, long startLocationId, 
                                         long endLocationId, LocalDateTime estimatedPickup, 
                                         LocalDateTime estimatedDelivery) {
+        String reserveSql = "UPDATE driver SET active_load = active_load + 1 " +
+                          "WHERE driver_id = ? AND active_load < `limit`";
+        String assignSql = "INSERT INTO driver_shipment_assignment (assignment_id, driver_id, shipment_id, " +
+                         "start_location_id, end_location_id, estimated_pickup_time, estimated_delivery_time) " +
+                         "VALUES (?, ?, ?, ?, ?, ?, ?)";
         try {
-            // Check driver capacity
-            String capacitySql = "SELECT COUNT(*) FROM driver_shipment_assignment dsa " +
-                               "JOIN driver d ON dsa.driver_id = d.driver_id " +
-                               "WHERE dsa.driver_id = ? AND dsa.delivered = FALSE";
-            PreparedStatement pstmt = connection.prepareStatement(capacitySql);
-            pstmt.setLong(1, driverId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                int activeAssignments = rs.getInt(1);
-                String limitSql = "SELECT `limit` FROM driver WHERE driver_id = ?";
-                pstmt = connection.prepareStatement(limitSql);
-                pstmt.setLong(1, driverId);
-                rs = pstmt.executeQuery();
-                
-                if (rs.next()) {
-                    int limit = rs.getInt(1);
-                    if (activeAssignments >= limit) {
+            boolean assigned = inTransaction(metrics.operation("assignShipmentToDriver"), conn -> {
+                // Reserve a slot on the driver
+                try (PreparedStatement pstmt = conn.prepareStatement(reserveSql)) {
+                    pstmt.setLong(1, driverId);
+                    if (pstmt.executeUpdate() == 0) {
+                        conn.rollback();
                         System.err.println("Driver has reached maximum capacity");
                         return false;
                     }
                 }
+                
+                // Assign shipment to driver
+                try (PreparedStatement pstmt = conn.prepareStatement(assignSql)) {
+                    pstmt.setLong(1, idGenerator.nextId());
+                    pstmt.setLong(2, driverId);
+                    pstmt.setLong(3, shipmentId);
+                    pstmt.setLong(4, startLocationId);
+                    pstmt.setLong(5, endLocationId);
+                    pstmt.setTimestamp(6, Timestamp.valueOf(estimatedPickup));
+                    pstmt.setTimestamp(7, Timestamp.valueOf(estimatedDelivery));
+                    pstmt.executeUpdate();
+                }
+                ShipmentOutbox.driverAssigned(conn, shipmentId, driverId);
+                return true;
+            });
+            if (assigned) {
+                delayWatcher.driverAssigned(shipmentId, driverId);
+                eventTailer.wakeUp();
             }
-            
-            // Assign shipment to driver
-            String assignSql = "INSERT INTO driver_shipment_assignment (assignment_id, driver_id, shipment_id, " +
-                             "start_location_id, end_location_id, estimated_pickup_time, estimated_delivery_time) " +
-                             "VALUES (?, ?, ?, ?, ?, ?, ?)";
-            pstmt = connection.prepareStatement(assignSql);
-            pstmt.setLong(1, System.currentTimeMillis());
-            pstmt.setLong(2, driverId);
-            pstmt.setLong(3, shipmentId);
-            pstmt.setLong(4, startLocationId);
-            pstmt.setLong(5, endLocationId);
-            pstmt.setTimestamp(6, Timestamp.valueOf(estimatedPickup));
-            pstmt.setTimestamp(7, Timestamp.valueOf(estimatedDelivery));
-            
-            int result = pstmt.executeUpdate();
-            return result > 0;
+            return assigned;
         } catch (SQLException e) {
+            // Closing the connection rolls back the reservation
             System.err.println("Error assigning shipment to driver: " + e.getMessage());
             return false;
         }
     }
     
-    // Function 6: Move package between shipments
+    // Bulk variant of Function 5: assigns up to maxShipments pending shipments, most
+    // urgent first, to the nearest drivers with capacity left, planned in memory and
+    // written in one transaction (see DispatchEngine). Every shipment considered is
+    // counted as submitted; failures carry the ids of shipments left unassigned.
+    public BatchResult dispatchPendingShipments(int maxShipments, LocalDateTime estimatedPickup) {
+        OperationStats stats = metrics.operation("dispatchPendingShipments");
+        long start = stats.start();
+        DispatchEngine.Plan plan;
+        try {
+            plan = dispatchEngine.plan(maxShipments);
+        } catch (SQLException e) {
+            System.err.println("Error planning dispatch: " + e.getMessage());
+            stats.record(start, 0, false);
+            BatchResult result = new BatchResult(0);
+            result.addFailure(0, 0, e.getMessage());
+            return result;
+        }
+        List<DispatchEngine.Assignment> assignments = plan.assignments();
+        BatchResult result = new BatchResult(assignments.size() + plan.unassigned().size());
+        Set<Integer> failed = new HashSet<>();
+        boolean written = true;
+        try {
+            // Retried on deadlock like every other write; commit records the ReadSession token
+            BatchResult persisted = inTransaction(metrics.operation("persistDispatchPlan"),
+                                                  conn -> dispatchEngine.persist(conn, plan, estimatedPickup));
+            result.addSucceeded(persisted.getSucceeded());
+            for (BatchResult.Failure failure : persisted.getFailures()) {
+                failed.add(failure.index());
+                result.addFailure(failure.index(), failure.id(), failure.message());
+            }
+        } catch (SQLException e) {
+            System.err.println("Error dispatching shipments: " + e.getMessage());
+            written = false;
+            for (int i = 0; i < assignments.size(); i++) {
+                failed.add(i);
+                result.addFailure(i, assignments.get(i).shipmentId(), e.getMessage());
+            }
+        }
+        for (int i = 0; i < plan.unassigned().size(); i++) {
+            result.addFailure(assignments.size() + i, plan.unassigned().get(i), "No driver with remaining capacity");
+        }
+        for (int i = 0; i < assignments.size(); i++) {
+            if (!failed.contains(i)) {
+                delayWatcher.driverAssigned(assignments.get(i).shipmentId(), assignments.get(i).driverId());
+            }
+        }
+        if (result.getSucceeded() > 0) {
+            eventTailer.wakeUp();
+        }
+        stats.record(start, result.getSucceeded(), written);
+        return result;
+    }
+    
+    // Mark the shipment's open driver assignment delivered and free the driver's slot
+    private void releaseDriverCapacity(Connection conn, long shipmentId) throws SQLException {
+        String releaseSql = "UPDATE driver_shipment_assignment dsa JOIN driver d ON dsa.driver_id = d.driver_id " +
+                          "SET dsa.delivered = TRUE, dsa.actual_delivery_time = NOW(), " +
+                          "d.active_load = GREATEST(d.active_load - 1, 0) " +
+                          "WHERE dsa.shipment_id = ? AND dsa.delivered = FALSE";
+        try (PreparedStatement pstmt = conn.prepareStatement(releaseSql)) {
+            pstmt.setLong(1, shipmentId);
+            pstmt.executeUpdate();
+        }
+    }
+    
+    // Recompute every driver's active_load from the assignment table
+    public boolean reconcileDriverLoad() {
+        OperationStats stats = metrics.operation("reconcileDriverLoad");
+        long start = stats.start();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(RECONCILE_DRIVER_LOAD_SQL)) {
+            stats.record(start, pstmt.executeUpdate(), true);
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error reconciling driver load: " + e.getMessage());
+            stats.record(start, 0, false);
+            return false;
+        }
+    }
+    
+    // Function 6: Move package between shipments. The reason is one of MOVEMENT_REASONS;
+    // the closed assignment records the matching removal reason (see removalReason).
     public boolean movePackageBetweenShipments(long packageId, long fromShipmentId, long toShipmentId, 
                                              long agentId, String reason, String notes) {
+        String removalReason = removalReason(reason);
+        if (removalReason == null) {
+            System.err.println("Error moving package: unknown movement reason " + reason +
+                               ", expected one of " + MOVEMENT_REASONS);
+            return false;
+        }
+        String pointerSql = "UPDATE package SET current_shipment_id = ? WHERE package_id = ? AND current_shipment_id = ?";
+        String removeSql = "UPDATE package_shipment_assignment SET removed_at = NOW(), removal_reason = ? " +
+                         "WHERE package_id = ? AND shipment_id = ? AND removed_at IS NULL";
+        String assignSql = "INSERT INTO package_shipment_assignment (package_id, shipment_id, assigned_by_agent_id) " +
+                         "VALUES (?, ?, ?)";
+        String logSql = "INSERT INTO package_movement_log (package_id, from_shipment_id, to_shipment_id, " +
+                       "moved_by_agent_id, movement_reason, notes) VALUES (?, ?, ?, ?, ?, ?)";
         try {
-            // Mark current assignment as removed
-            String removeSql = "UPDATE package_shipment_assignment SET removed_at = NOW(), removal_reason = ? " +
-                             "WHERE package_id = ? AND shipment_id = ? AND removed_at IS NULL";
-            PreparedStatement pstmt = connection.prepareStatement(removeSql);
-            pstmt.setString(1, reason);
-            pstmt.setLong(2, packageId);
-            pstmt.setLong(3, fromShipmentId);
-            pstmt.executeUpdate();
-            
-            // Create new assignment
-            String assignSql = "INSERT INTO package_shipment_assignment (package_id, shipment_id, assigned_by_agent_id) " +
-                             "VALUES (?, ?, ?)";
-            pstmt = connection.prepareStatement(assignSql);
-            pstmt.setLong(1, packageId);
-            pstmt.setLong(2, toShipmentId);
-            pstmt.setLong(3, agentId);
-            
-            // Log the movement
-            String logSql = "INSERT INTO package_movement_log (package_id, from_shipment_id, to_shipment_id, " +
-                           "moved_by_agent_id, movement_reason, notes) VALUES (?, ?, ?, ?, ?, ?)";
-            pstmt = connection.prepareStatement(logSql);
-            pstmt.setLong(1, packageId);
-            pstmt.setLong(2, fromShipmentId);
-            pstmt.setLong(3, toShipmentId);
-            pstmt.setLong(4, agentId);
-            pstmt.setString(5, reason);
-            pstmt.setString(6, notes);
-            
-            int result = pstmt.executeUpdate();
-            return result > 0;
+            boolean moved = inTransaction(metrics.operation("movePackageBetweenShipments"), conn -> {
+                // Repoint the package first: a primary-key update that locks the package row,
+                // so concurrent moves of it queue here. Nothing to move if it is not on the shipment.
+                try (PreparedStatement pstmt = conn.prepareStatement(pointerSql)) {
+                    pstmt.setLong(1, toShipmentId);
+                    pstmt.setLong(2, packageId);
+                    pstmt.setLong(3, fromShipmentId);
+                    if (pstmt.executeUpdate() == 0) {
+                        conn.rollback();
+                        System.err.println("Package " + packageId + " is not assigned to shipment " + fromShipmentId);
+                        return false;
+                    }
+                }
+                
+                // Close the current assignment in the history
+                try (PreparedStatement pstmt = conn.prepareStatement(removeSql)) {
+                    pstmt.setString(1, removalReason);
+                    pstmt.setLong(2, packageId);
+                    pstmt.setLong(3, fromShipmentId);
+                    if (pstmt.executeUpdate() == 0) {
+                        conn.rollback();
+                        System.err.println("Package " + packageId + " points at shipment " + fromShipmentId +
+                                           " without an open assignment; run CurrentShipmentCheck");
+                        return false;
+                    }
+                }
+                
+                // Create new assignment
+                try (PreparedStatement pstmt = conn.prepareStatement(assignSql)) {
+                    pstmt.setLong(1, packageId);
+                    pstmt.setLong(2, toShipmentId);
+                    pstmt.setLong(3, agentId);
+                    pstmt.executeUpdate();
+                }
+                
+                // Log the movement
+                int result;
+                try (PreparedStatement pstmt = conn.prepareStatement(logSql)) {
+                    pstmt.setLong(1, packageId);
+                    pstmt.setLong(2, fromShipmentId);
+                    pstmt.setLong(3, toShipmentId);
+                    pstmt.setLong(4, agentId);
+                    pstmt.setString(5, reason);
+                    pstmt.setString(6, notes);
+                    result = pstmt.executeUpdate();
+                }
+                
+                // The package's weight follows it to the new shipment's bucket. Buckets are
+                // touched in shipment order so opposite moves lock them in the same order.
+                if (fromShipmentId < toShipmentId) {
+                    DailyVolumeRollup.applyPackageWeight(conn, packageId, fromShipmentId, -1);
+                    DailyVolumeRollup.applyPackageWeight(conn, packageId, toShipmentId, 1);
+                } else {
+                    DailyVolumeRollup.applyPackageWeight(conn, packageId, toShipmentId, 1);
+                    DailyVolumeRollup.applyPackageWeight(conn, packageId, fromShipmentId, -1);
+                }
+                ShipmentOutbox.packageRemoved(conn, packageId, fromShipmentId, toShipmentId, agentId, notes);
+                ShipmentOutbox.packageAdded(conn, packageId, toShipmentId, fromShipmentId, agentId, notes);
+                return result > 0;
+            });
+            if (moved) {
+                eventTailer.wakeUp();
+            }
+            return moved;
         } catch (SQLException e) {
             System.err.println("Error moving package: " + e.getMessage());
             return false;
         }
     }
     
+    // The package_shipment_assignment.removal_reason recorded for a movement reason,
+    // or null if the movement reason is not one of MOVEMENT_REASONS
+    static String removalReason(String movementReason) {
+        if (movementReason == null || !MOVEMENT_REASONS.contains(movementReason)) {
+            return null;
+        }
+        return switch (movementReason) {
+            case "reassignment" -> "reassigned";
+            case "damage" -> "damaged";
+            default -> "other";
+        };
+    }
+    
+    private static final String CURRENT_SHIPMENT_SQL =
+        "SELECT current_shipment_id FROM package WHERE package_id = ? AND current_shipment_id IS NOT NULL";
+    
+    // Shipment the package is on now, read from its current_shipment_id pointer with
+    // one primary-key lookup. -1 if the package is unknown, unassigned or the read failed.
+    public long findCurrentShipment(long packageId) {
+        List<Long> found = queryList(metrics.operation("findCurrentShipment"), "finding current shipment",
+                                     CURRENT_SHIPMENT_SQL, rs -> rs.getLong(1), packageId);
+        return found.isEmpty() ? -1 : found.get(0);
+    }
+    
+    // Batch variant of findCurrentShipment: package id -> shipment id for every package
+    // that is on a shipment, read in primary-key IN lists of BATCH_CHUNK_SIZE.
+    // Ids missing from the result are unknown or unassigned.
+    public Map<Long, Long> findCurrentShipments(Collection<Long> packageIds) {
+        OperationStats stats = metrics.operation("findCurrentShipments");
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(packageIds));
+        Map<Long, Long> result = new HashMap<>(ids.size() * 2);
+        for (int from = 0; from < ids.size(); from += BATCH_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + BATCH_CHUNK_SIZE, ids.size()));
+            String sql = "SELECT package_id, current_shipment_id FROM package WHERE package_id IN (" +
+                         placeholders(chunk.size()) + ") AND current_shipment_id IS NOT NULL";
+            long[] params = chunk.stream().mapToLong(Long::longValue).toArray();
+            for (long[] row : queryList(stats, "finding current shipments", sql,
+                                        rs -> new long[] {rs.getLong(1), rs.getLong(2)}, params)) {
+                result.put(row[0], row[1]);
+            }
+        }
+        return result;
+    }
+    
+    // Verify every package's current_shipment_id against its open assignment, and
+    // rewrite the wrong ones if repair is set; see CurrentShipmentCheck. False if
+    // problems remain.
+    public boolean checkCurrentShipments(boolean repair) {
+        OperationStats stats = metrics.operation("checkCurrentShipments");
+        long start = stats.start();
+        CurrentShipmentCheck check = new CurrentShipmentCheck(pool);
+        List<String> problems = check.run(repair);
+        for (String problem : problems) {
+            System.err.println(problem);
+        }
+        if (check.getRepaired() > 0) {
+            System.out.println("Current shipment pointers repaired: " + check.getRepaired());
+        }
+        stats.record(start, check.getChecked(), problems.isEmpty());
+        return problems.isEmpty();
+    }
+    
     // Function 7: Get current status and location log for shipment
     public List<Map<String, Object>> getShipmentStatusAndLog(long shipmentId) {
-        List<Map<String, Object>> result = new ArrayList<>();
-        try {
-            String sql = "SELECT s.shipment_id, s.status as current_status, s.estimated_delivery_time, " +
-                        "s.actual_delivery, sl.status as log_status, sl.timestamp as log_timestamp, " +
-                        "l.name as location_name, l.pinCode, a.name as agent_name, sl.notes " +
-                        "FROM shipments s " +
-                        "LEFT JOIN status_logs sl ON s.shipment_id = sl.shipment_id " +
-                        "LEFT JOIN location l ON sl.location_id = l.location_id " +
-                        "LEFT JOIN agent a ON sl.agent_id = a.agent_id " +
-                        "WHERE s.shipment_id = ? " +
-                        "ORDER BY sl.timestamp DESC";
-            
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setLong(1, shipmentId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                row.put("shipment_id", rs.getLong("shipment_id"));
-                row.put("current_status", rs.getString("current_status"));
-                row.put("estimated_delivery_time", rs.getTimestamp("estimated_delivery_time"));
-                row.put("actual_delivery", rs.getTimestamp("actual_delivery"));
-                row.put("log_status", rs.getString("log_status"));
-                row.put("log_timestamp", rs.getTimestamp("log_timestamp"));
-                row.put("location_name", rs.getString("location_name"));
-                row.put("pinCode", rs.getString("pinCode"));
-                row.put("agent_name", rs.getString("agent_name"));
-                row.put("notes", rs.getString("notes"));
-                result.add(row);
-            }
-        } catch (SQLException e) {
-            System.err.println("Error getting shipment status: " + e.getMessage());
+        return toMaps(findShipmentLog(shipmentId), ShipmentLogEntry::toMap);
+    }
+    
+    // Function 7 including status changes already archived out of the database
+    public List<Map<String, Object>> getShipmentStatusAndLog(long shipmentId, boolean includeArchive) {
+        return toMaps(findShipmentLog(shipmentId, includeArchive), ShipmentLogEntry::toMap);
+    }
+    
+    // Status history joined to the shipment; the time bound is in the join so a shipment
+    // without log rows in range still yields one row with null log columns
+    private static final String SHIPMENT_LOG_SQL =
+        "SELECT s.shipment_id, s.status as current_status, s.estimated_delivery_time, " +
+        "s.actual_delivery, sl.status as log_status, sl.timestamp as log_timestamp, " +
+        "sl.location_id, sl.agent_id, sl.notes, s.created_time " +
+        "FROM shipments s " +
+        "LEFT JOIN status_logs sl ON s.shipment_id = sl.shipment_id AND sl.timestamp %s FROM_UNIXTIME(?) " +
+        "WHERE s.shipment_id = ? " +
+        "ORDER BY sl.timestamp DESC";
+    private static final String RECENT_SHIPMENT_LOG_SQL = String.format(SHIPMENT_LOG_SQL, ">=");
+    private static final String OLDER_SHIPMENT_LOG_SQL = String.format(SHIPMENT_LOG_SQL, "<");
+    
+    // Typed variant of Function 7. Location and agent names come from the reference
+    // cache, resolved once the log rows have been read.
+    public List<ShipmentLogEntry> findShipmentLog(long shipmentId) {
+        return findShipmentLog(shipmentId, false);
+    }
+    
+    // Reads the current and previous month's partitions first and the older ones only
+    // if the shipment was created before that. Archived entries are read only when
+    // includeArchive is set and the shipment predates the newest archived month.
+    public List<ShipmentLogEntry> findShipmentLog(long shipmentId, boolean includeArchive) {
+        long recentSince = PartitionManager.recentBoundary().getEpochSecond();
+        Timestamp[] created = new Timestamp[1];
+        DeferredMapper<ShipmentLogEntry> mapper = (rs, refs) -> {
+            created[0] = rs.getTimestamp(10);
+            long id = rs.getLong(1);
+            String currentStatus = rs.getString(2);
+            Timestamp estimatedDelivery = rs.getTimestamp(3);
+            Timestamp actualDelivery = rs.getTimestamp(4);
+            String logStatus = rs.getString(5);
+            Timestamp logTimestamp = rs.getTimestamp(6);
+            long locationId = rs.getLong(7);
+            Long location = rs.wasNull() ? null : refs.location(locationId);
+            long agentId = rs.getLong(8);
+            Long agent = rs.wasNull() ? null : refs.agent(agentId);
+            String notes = rs.getString(9);
+            return resolved -> shipmentLogEntry(resolved, id, currentStatus, estimatedDelivery, actualDelivery,
+                                                logStatus, logTimestamp, location, agent, notes);
+        };
+        List<ShipmentLogEntry> result = queryResolved(metrics.operation("findShipmentLog"), "getting shipment status",
+                                                      RECENT_SHIPMENT_LOG_SQL, mapper, recentSince, shipmentId);
+        if (result.isEmpty()) {
+            return result;
+        }
+        if (created[0] == null || created[0].toInstant().getEpochSecond() < recentSince) {
+            appendOlderEntries(result, queryResolved(metrics.operation("findShipmentLogHistory"),
+                                                     "getting shipment status history", OLDER_SHIPMENT_LOG_SQL,
+                                                     mapper, recentSince, shipmentId));
+        }
+        Instant archivedThrough = partitions.archivedThrough(PartitionManager.LogTable.STATUS_LOGS);
+        if (includeArchive && archivedThrough != null &&
+            (created[0] == null || created[0].toInstant().isBefore(archivedThrough))) {
+            appendOlderEntries(result, findArchivedShipmentLog(result.get(0)));
         }
         return result;
     }
     
+    private List<ShipmentLogEntry> findArchivedShipmentLog(ShipmentLogEntry shipment) {
+        PartitionManager.LogTable table = PartitionManager.LogTable.STATUS_LOGS;
+        int locationColumn = table.column("location_id");
+        int agentColumn = table.column("agent_id");
+        int timestampColumn = table.column("timestamp");
+        int statusColumn = table.column("status");
+        int notesColumn = table.column("notes");
+        OperationStats stats = metrics.operation("findArchivedShipmentLog");
+        long start = stats.start();
+        ReferenceDataCache.Batch refs = referenceData.batch();
+        List<Function<ReferenceDataCache.Batch, ShipmentLogEntry>> rows = new ArrayList<>();
+        partitions.scanArchive(table, "shipment_id", Long.toString(shipment.shipmentId()), row -> {
+            Long location = row[locationColumn] == null ? null : refs.location(Long.parseLong(row[locationColumn]));
+            Long agent = row[agentColumn] == null ? null : refs.agent(Long.parseLong(row[agentColumn]));
+            String logStatus = row[statusColumn];
+            Timestamp logTimestamp = Timestamp.valueOf(row[timestampColumn]);
+            String notes = row[notesColumn];
+            rows.add(resolved -> shipmentLogEntry(resolved, shipment.shipmentId(), shipment.currentStatus(),
+                                                  shipment.estimatedDeliveryTime(), shipment.actualDelivery(),
+                                                  logStatus, logTimestamp, location, agent, notes));
+        });
+        List<ShipmentLogEntry> archived = resolve(refs, rows);
+        archived.sort(Comparator.comparing(ShipmentLogEntry::logTimestamp).reversed());
+        stats.record(start, archived.size(), true);
+        return archived;
+    }
+    
+    private static ShipmentLogEntry shipmentLogEntry(ReferenceDataCache.Batch refs, long shipmentId,
+                                                     String currentStatus, Timestamp estimatedDelivery,
+                                                     Timestamp actualDelivery, String logStatus,
+                                                     Timestamp logTimestamp, Long locationId, Long agentId,
+                                                     String notes) {
+        ReferenceDataCache.Location location = refs.getLocation(locationId);
+        return new ShipmentLogEntry(shipmentId, currentStatus, estimatedDelivery, actualDelivery, logStatus,
+                                    logTimestamp, location == null ? null : location.name(),
+                                    location == null ? null : location.pinCode(), refs.agentName(agentId), notes);
+    }
+    
+    // Appends entries older than those in result, dropping the null-log placeholder rows
+    private static void appendOlderEntries(List<ShipmentLogEntry> result, List<ShipmentLogEntry> older) {
+        older.removeIf(entry -> entry.logStatus() == null);
+        if (older.isEmpty()) {
+            return;
+        }
+        result.removeIf(entry -> entry.logStatus() == null);
+        result.addAll(older);
+    }
+    
     // Function 8: Get pending shipments for driver
     public List<Map<String, Object>> getPendingShipmentsForDriver(long driverId) {
-        List<Map<String, Object>> result = new ArrayList<>();
-        try {
-            String sql = "SELECT s.shipment_id, c1.name as sender_name, c2.name as recipient_name, " +
-                        "l1.name as origin_location, l2.name as destination_location, " +
-                        "s.estimated_delivery_time, dsa.assigned_at, dsa.estimated_pickup_time " +
-                        "FROM shipments s " +
-                        "JOIN driver_shipment_assignment dsa ON s.shipment_id = dsa.shipment_id " +
-                        "JOIN customer c1 ON s.sender_id = c1.customer_id " +
-                        "JOIN customer c2 ON s.recipient_id = c2.customer_id " +
-                        "JOIN location l1 ON s.origin_id = l1.location_id " +
-                        "JOIN location l2 ON s.destination_id = l2.location_id " +
-                        "WHERE dsa.driver_id = ? AND s.status = 'pending' AND dsa.delivered = FALSE " +
-                        "ORDER BY dsa.assigned_at";
-            
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setLong(1, driverId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                row.put("shipment_id", rs.getLong("shipment_id"));
-                row.put("sender_name", rs.getString("sender_name"));
-                row.put("recipient_name", rs.getString("recipient_name"));
-                row.put("origin_location", rs.getString("origin_location"));
-                row.put("destination_location", rs.getString("destination_location"));
-                row.put("estimated_delivery_time", rs.getTimestamp("estimated_delivery_time"));
-                row.put("assigned_at", rs.getTimestamp("assigned_at"));
-                row.put("estimated_pickup_time", rs.getTimestamp("estimated_pickup_time"));
-                result.add(row);
-            }
-        } catch (SQLException e) {
-            System.err.println("Error getting pending shipments: " + e.getMessage());
-        }
-        return result;
+        return toMaps(findPendingShipmentsForDriver(driverId), PendingShipment::toMap);
+    }
+    
+    // Typed variant of Function 8. Only the shipment and assignment rows are read;
+    // customer and location names are resolved from the reference cache.
+    public List<PendingShipment> findPendingShipmentsForDriver(long driverId) {
+        String sql = "SELECT s.shipment_id, s.sender_id, s.recipient_id, s.origin_id, s.destination_id, " +
+                    "s.estimated_delivery_time, dsa.assigned_at, dsa.estimated_pickup_time " +
+                    "FROM shipments s " +
+                    "JOIN driver_shipment_assignment dsa ON s.shipment_id = dsa.shipment_id " +
+                    "WHERE dsa.driver_id = ? AND s.status = 'pending' AND dsa.delivered = FALSE " +
+                    "ORDER BY dsa.assigned_at";
+        return queryResolved(metrics.operation("findPendingShipmentsForDriver"), "getting pending shipments",
+                             sql, (rs, refs) -> {
+            long id = rs.getLong(1);
+            long sender = refs.customer(rs.getLong(2));
+            long recipient = refs.customer(rs.getLong(3));
+            long origin = refs.location(rs.getLong(4));
+            long destination = refs.location(rs.getLong(5));
+            Timestamp estimatedDelivery = rs.getTimestamp(6);
+            Timestamp assignedAt = rs.getTimestamp(7);
+            Timestamp estimatedPickup = rs.getTimestamp(8);
+            return resolved -> new PendingShipment(
+                id, resolved.customerName(sender), resolved.customerName(recipient),
+                resolved.locationName(origin), resolved.locationName(destination),
+                estimatedDelivery, assignedAt, estimatedPickup);
+        }, driverId);
     }
     
     // Function 9: Get delayed shipments
     public List<Map<String, Object>> getDelayedShipments() {
-        List<Map<String, Object>> result = new ArrayList<>();
-        try {
-            String sql = "SELECT s.shipment_id, c1.name as sender_name, c2.name as recipient_name, " +
-                        "s.estimated_delivery_time, s.actual_delivery, " +
-                        "TIMESTAMPDIFF(HOUR, s.estimated_delivery_time, NOW()) as delay_hours, " +
-                        "d.name as driver_name, d.contact as driver_contact " +
-                        "FROM shipments s " +
-                        "JOIN customer c1 ON s.sender_id = c1.customer_id " +
-                        "JOIN customer c2 ON s.recipient_id = c2.customer_id " +
-                        "LEFT JOIN driver_shipment_assignment dsa ON s.shipment_id = dsa.shipment_id " +
-                        "LEFT JOIN driver d ON dsa.driver_id = d.driver_id " +
-                        "WHERE s.estimated_delivery_time < NOW() " +
-                        "AND s.status IN ('pending', 'in_transit') " +
-                        "AND (s.actual_delivery IS NULL OR s.actual_delivery > s.estimated_delivery_time) " +
-                        "ORDER BY delay_hours DESC";
-            
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                row.put("shipment_id", rs.getLong("shipment_id"));
-                row.put("sender_name", rs.getString("sender_name"));
-                row.put("recipient_name", rs.getString("recipient_name"));
-                row.put("estimated_delivery_time", rs.getTimestamp("estimated_delivery_time"));
-                row.put("actual_delivery", rs.getTimestamp("actual_delivery"));
-                row.put("delay_hours", rs.getLong("delay_hours"));
-                row.put("driver_name", rs.getString("driver_name"));
-                row.put("driver_contact", rs.getString("driver_contact"));
-                result.add(row);
+        return toMaps(findDelayedShipments(), DelayedShipment::toMap);
+    }
+    
+    // At most one row per shipment: its latest open assignment. DelayWatcher loads
+    // with the same join, so its answers match these queries. Joining every
+    // assignment row would repeat a reassigned shipment, and the keyset page's
+    // shipment_id cursor would then skip its copies on the next page.
+    static final String OPEN_ASSIGNMENT_JOIN =
+        "LEFT JOIN driver_shipment_assignment dsa ON dsa.assignment_id = (" +
+        "SELECT a.assignment_id FROM driver_shipment_assignment a " +
+        "WHERE a.shipment_id = s.shipment_id AND a.delivered = FALSE " +
+        "ORDER BY a.assigned_at DESC, a.assignment_id DESC LIMIT 1) ";
+    
+    private static final String DELAYED_SHIPMENTS_WHERE =
+        "WHERE s.estimated_delivery_time < NOW() " +
+        "AND s.status IN ('pending', 'in_transit') " +
+        "AND (s.actual_delivery IS NULL OR s.actual_delivery > s.estimated_delivery_time)";
+    
+    // Open shipments past their estimated delivery time; callers append the ordering.
+    // Customer and driver names are resolved from the reference cache.
+    private static final String DELAYED_SHIPMENTS_SQL =
+        "SELECT s.shipment_id, s.sender_id, s.recipient_id, " +
+        "s.estimated_delivery_time, s.actual_delivery, " +
+        "TIMESTAMPDIFF(HOUR, s.estimated_delivery_time, NOW()) as delay_hours, dsa.driver_id " +
+        "FROM shipments s " +
+        OPEN_ASSIGNMENT_JOIN +
+        DELAYED_SHIPMENTS_WHERE;
+    
+    // The same rows with the names joined in, for the streaming variants: they map rows
+    // while their connection is open, so they cannot go to the cache for misses
+    private static final String NAMED_DELAYED_SHIPMENTS_SQL =
+        "SELECT s.shipment_id, c1.name, c2.name, " +
+        "s.estimated_delivery_time, s.actual_delivery, " +
+        "TIMESTAMPDIFF(HOUR, s.estimated_delivery_time, NOW()) as delay_hours, d.name, d.contact " +
+        "FROM shipments s " +
+        "LEFT JOIN customer c1 ON s.sender_id = c1.customer_id " +
+        "LEFT JOIN customer c2 ON s.recipient_id = c2.customer_id " +
+        OPEN_ASSIGNMENT_JOIN +
+        "LEFT JOIN driver d ON dsa.driver_id = d.driver_id " +
+        DELAYED_SHIPMENTS_WHERE;
+    
+    private static final RowMapper<DelayedShipment> NAMED_DELAYED_SHIPMENT_MAPPER = rs -> new DelayedShipment(
+        rs.getLong(1), rs.getString(2), rs.getString(3), rs.getTimestamp(4), rs.getTimestamp(5),
+        rs.getLong(6), rs.getString(7), rs.getString(8));
+    
+    private static Function<ReferenceDataCache.Batch, DelayedShipment> readDelayedShipment(
+            ResultSet rs, ReferenceDataCache.Batch refs) throws SQLException {
+        long id = rs.getLong(1);
+        long sender = refs.customer(rs.getLong(2));
+        long recipient = refs.customer(rs.getLong(3));
+        Timestamp estimatedDelivery = rs.getTimestamp(4);
+        Timestamp actualDelivery = rs.getTimestamp(5);
+        long delayHours = rs.getLong(6);
+        long driverId = rs.getLong(7);
+        Long driver = rs.wasNull() ? null : refs.driver(driverId);
+        return resolved -> {
+            ReferenceDataCache.Driver row = resolved.getDriver(driver);
+            return new DelayedShipment(
+                id, resolved.customerName(sender), resolved.customerName(recipient),
+                estimatedDelivery, actualDelivery, delayHours,
+                row == null ? null : row.name(), row == null ? null : row.contact());
+        };
+    }
+    
+    // Typed variant of Function 9. Served from the delay watcher's in-memory index once it
+    // has loaded; until then (or while the database is unreachable at startup) the
+    // shipments table is scanned.
+    public List<DelayedShipment> findDelayedShipments() {
+        if (delayWatcher.isLoaded()) {
+            OperationStats stats = metrics.operation("findDelayedShipments");
+            long start = stats.start();
+            List<DelayedShipment> result = delayWatcher.getDelayedShipments();
+            stats.record(start, result.size(), true);
+            return result;
+        }
+        return queryResolved(metrics.operation("findDelayedShipments"), "getting delayed shipments",
+                             DELAYED_SHIPMENTS_SQL + " ORDER BY delay_hours DESC",
+                             CourierServiceDB::readDelayedShipment);
+    }
+    
+    // Streaming variant of Function 9: rows are handed to the consumer as they arrive,
+    // most delayed first, without buffering the result. Returns the number of rows.
+    public long streamDelayedShipments(Consumer<DelayedShipment> consumer) {
+        return queryEach(metrics.operation("streamDelayedShipments"), "streaming delayed shipments",
+                         NAMED_DELAYED_SHIPMENTS_SQL + " ORDER BY delay_hours DESC",
+                         NAMED_DELAYED_SHIPMENT_MAPPER, consumer);
+    }
+    
+    // Lazily evaluated variant of Function 9. The stream holds a pooled connection
+    // until it is closed, so use it in try-with-resources.
+    public Stream<DelayedShipment> delayedShipmentStream() {
+        return lazyStream(metrics.operation("delayedShipmentStream"), "streaming delayed shipments",
+                          NAMED_DELAYED_SHIPMENTS_SQL + " ORDER BY delay_hours DESC",
+                          NAMED_DELAYED_SHIPMENT_MAPPER);
+    }
+    
+    // Keyset-paginated variant of Function 9, most delayed first. Pass null for the
+    // first page and the last row of the previous page after that. Ordering by
+    // (estimated_delivery_time, shipment_id) matches delay order and, unlike OFFSET,
+    // lets each page start with an index seek.
+    public List<DelayedShipment> findDelayedShipmentsPage(DelayedShipment after, int pageSize) {
+        String order = " ORDER BY s.estimated_delivery_time, s.shipment_id LIMIT ?";
+        if (after == null) {
+            return queryResolved(metrics.operation("findDelayedShipmentsPage"), "getting delayed shipments page",
+                                 DELAYED_SHIPMENTS_SQL + order,
+                                 CourierServiceDB::readDelayedShipment, pageSize);
+        }
+        String sql = DELAYED_SHIPMENTS_SQL +
+                    " AND (s.estimated_delivery_time > ? OR (s.estimated_delivery_time = ? AND s.shipment_id > ?))" +
+                    order;
+        OperationStats stats = metrics.operation("findDelayedShipmentsPage");
+        long start = stats.start();
+        ReferenceDataCache.Batch refs = referenceData.batch();
+        List<Function<ReferenceDataCache.Batch, DelayedShipment>> rows = new ArrayList<>();
+        boolean ok = true;
+        try (Connection conn = readRouter.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setTimestamp(1, after.estimatedDeliveryTime());
+            pstmt.setTimestamp(2, after.estimatedDeliveryTime());
+            pstmt.setLong(3, after.shipmentId());
+            pstmt.setInt(4, pageSize);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(readDelayedShipment(rs, refs));
+                }
             }
         } catch (SQLException e) {
-            System.err.println("Error getting delayed shipments: " + e.getMessage());
+            System.err.println("Error getting delayed shipments page: " + e.getMessage());
+            ok = false;
         }
+        List<DelayedShipment> result = resolve(refs, rows);
+        stats.record(start, result.size(), ok);
         return result;
     }
     
     // Function 10: Get daily shipment volume by origin
     public List<Map<String, Object>> getDailyShipmentVolume() {
-        List<Map<String, Object>> result = new ArrayList<>();
-        try {
-            String sql = "SELECT DATE(s.created_time) as shipment_date, l.name as origin_location, " +
-                        "l.pinCode as origin_pincode, COUNT(s.shipment_id) as total_shipments, " +
-                        "COUNT(CASE WHEN s.status = 'delivered' THEN 1 END) as delivered_shipments, " +
-                        "COUNT(CASE WHEN s.status = 'in_transit' THEN 1 END) as in_transit_shipments, " +
-                        "COUNT(CASE WHEN s.status = 'pending' THEN 1 END) as pending_shipments, " +
-                        "SUM(p.weight) as total_weight_kg " +
-                        "FROM shipments s " +
-                        "JOIN location l ON s.origin_id = l.location_id " +
-                        "LEFT JOIN package_shipment_assignment psa ON s.shipment_id = psa.shipment_id " +
-                        "LEFT JOIN package p ON psa.package_id = p.package_id " +
-                        "WHERE s.created_time >= DATE_SUB(CURDATE(), INTERVAL 30 DAY) " +
-                        "AND (psa.removed_at IS NULL OR psa.removed_at IS NULL) " +
-                        "GROUP BY DATE(s.created_time), l.location_id, l.name, l.pinCode " +
-                        "ORDER BY shipment_date DESC, total_shipments DESC";
-            
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            ResultSet rs = pstmt.executeQuery();
-            
+        return toMaps(findDailyShipmentVolume(), DailyVolume::toMap);
+    }
+    
+    // Reads the rollup, so cost depends on the 30-day window rather than on history size
+    private static final String DAILY_VOLUME_SQL =
+        "SELECT v.shipment_date, l.name as origin_location, l.pinCode as origin_pincode, " +
+        "v.total_shipments, v.delivered_shipments, v.in_transit_shipments, v.pending_shipments, " +
+        "v.total_weight_kg " +
+        "FROM daily_shipment_volume v " +
+        "JOIN location l ON v.origin_id = l.location_id " +
+        "WHERE v.shipment_date >= DATE_SUB(CURDATE(), INTERVAL 30 DAY) " +
+        "ORDER BY v.shipment_date DESC, v.total_shipments DESC";
+    
+    private static final RowMapper<DailyVolume> DAILY_VOLUME_MAPPER = rs -> new DailyVolume(
+        rs.getDate(1), rs.getString(2), rs.getString(3), rs.getLong(4), rs.getLong(5),
+        rs.getLong(6), rs.getLong(7), rs.getDouble(8));
+    
+    // Typed variant of Function 10
+    public List<DailyVolume> findDailyShipmentVolume() {
+        return queryList(metrics.operation("findDailyShipmentVolume"), "getting daily shipment volume",
+                         DAILY_VOLUME_SQL, DAILY_VOLUME_MAPPER);
+    }
+    
+    // Streaming variant of Function 10. Returns the number of rows.
+    public long streamDailyShipmentVolume(Consumer<DailyVolume> consumer) {
+        return queryEach(metrics.operation("streamDailyShipmentVolume"), "streaming daily shipment volume",
+                         DAILY_VOLUME_SQL, DAILY_VOLUME_MAPPER, consumer);
+    }
+    
+    // Lazily evaluated variant of Function 10; close the stream to release its connection
+    public Stream<DailyVolume> dailyShipmentVolumeStream() {
+        return lazyStream(metrics.operation("dailyShipmentVolumeStream"), "streaming daily shipment volume",
+                          DAILY_VOLUME_SQL, DAILY_VOLUME_MAPPER);
+    }
+    
+    // Rebuild the whole daily volume rollup from the base tables
+    public boolean rebuildDailyVolumeRollup() {
+        return rebuildDailyVolumeRollup(ROLLUP_EPOCH);
+    }
+    
+    // Reconcile the daily volume rollup from the given day onwards with the base tables
+    public boolean rebuildDailyVolumeRollup(LocalDate since) {
+        OperationStats stats = metrics.operation("rebuildDailyVolumeRollup");
+        long start = stats.start();
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            int buckets = DailyVolumeRollup.rebuild(conn, since);
+            conn.commit();
+            stats.record(start, buckets, true);
+            System.out.println("Daily volume rollup rebuilt: " + buckets + " buckets since " + since);
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error rebuilding daily volume rollup: " + e.getMessage());
+            stats.record(start, 0, false);
+            return false;
+        }
+    }
+    
+    // Subtree variant of Function 10: daily volume of every origin at or below the hub,
+    // summed per day. Filters the rollup rows with O(1) checks against the hub's range
+    // in one tour snapshot, taken before the cursor is opened: a refresh borrows a
+    // connection, which must not happen while this one is held.
+    public List<DailyVolume> findSubtreeShipmentVolume(long rootLocationId) {
+        String sql = "SELECT shipment_date, origin_id, total_shipments, delivered_shipments, " +
+                    "in_transit_shipments, pending_shipments, total_weight_kg " +
+                    "FROM daily_shipment_volume " +
+                    "WHERE shipment_date >= DATE_SUB(CURDATE(), INTERVAL 30 DAY) " +
+                    "ORDER BY shipment_date DESC";
+        // An unknown hub triggers its refresh here
+        if (locationHierarchy.depth(rootLocationId) < 0) {
+            return new ArrayList<>();
+        }
+        LocationHierarchy.Tour tour = locationHierarchy.tour();
+        int subtreeStart = tour.enter(rootLocationId);
+        int subtreeEnd = tour.exit(rootLocationId);
+        ReferenceDataCache.Location root = referenceData.getLocation(rootLocationId);
+        String rootName = root == null ? null : root.name();
+        String rootPinCode = root == null ? null : root.pinCode();
+        OperationStats stats = metrics.operation("findSubtreeShipmentVolume");
+        long start = stats.start();
+        List<DailyVolume> result = new ArrayList<>();
+        try (Connection conn = readRouter.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            java.sql.Date day = null;
+            long total = 0, delivered = 0, inTransit = 0, pending = 0;
+            double weight = 0;
             while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                row.put("shipment_date", rs.getDate("shipment_date"));
-                row.put("origin_location", rs.getString("origin_location"));
-                row.put("origin_pincode", rs.getString("origin_pincode"));
-                row.put("total_shipments", rs.getLong("total_shipments"));
-                row.put("delivered_shipments", rs.getLong("delivered_shipments"));
-                row.put("in_transit_shipments", rs.getLong("in_transit_shipments"));
-                row.put("pending_shipments", rs.getLong("pending_shipments"));
-                row.put("total_weight_kg", rs.getDouble("total_weight_kg"));
-                result.add(row);
+                int position = tour.enter(rs.getLong(2));
+                if (position < subtreeStart || position >= subtreeEnd) {
+                    continue;
+                }
+                java.sql.Date rowDay = rs.getDate(1);
+                if (day != null && !day.equals(rowDay)) {
+                    result.add(new DailyVolume(day, rootName, rootPinCode, total, delivered, inTransit, pending, weight));
+                    total = delivered = inTransit = pending = 0;
+                    weight = 0;
+                }
+                day = rowDay;
+                total += rs.getLong(3);
+                delivered += rs.getLong(4);
+                inTransit += rs.getLong(5);
+                pending += rs.getLong(6);
+                weight += rs.getDouble(7);
+            }
+            if (day != null) {
+                result.add(new DailyVolume(day, rootName, rootPinCode, total, delivered, inTransit, pending, weight));
             }
         } catch (SQLException e) {
-            System.err.println("Error getting daily shipment volume: " + e.getMessage());
+            System.err.println("Error getting subtree shipment volume: " + e.getMessage());
+            stats.record(start, result.size(), false);
+            return result;
         }
+        stats.record(start, result.size(), true);
         return result;
     }
     
-    // Get database connection (for demo purposes)
-    public Connection getConnection() {
-        return connection;
+    // Pending shipments whose origin is the hub or any location below it
+    public List<ShipmentSummary> findSubtreePendingShipments(long rootLocationId) {
+        long[] subtree = locationHierarchy.subtree(rootLocationId);
+        if (subtree.length == 0) {
+            return new ArrayList<>();
+        }
+        String sql = "SELECT shipment_id, sender_id, recipient_id, origin_id, destination_id, status, " +
+                    "created_time, estimated_delivery_time " +
+                    "FROM shipments " +
+                    "WHERE status = 'pending' AND origin_id IN (%s) " +
+                    "ORDER BY created_time";
+        return querySubtree(metrics.operation("findSubtreePendingShipments"), "getting subtree pending shipments",
+                            sql, subtree, Comparator.comparing(ShipmentSummary::createdTime,
+                                                               Comparator.nullsLast(Comparator.naturalOrder())),
+                            (rs, refs) -> {
+            long id = rs.getLong(1);
+            long sender = refs.customer(rs.getLong(2));
+            long recipient = refs.customer(rs.getLong(3));
+            long origin = refs.location(rs.getLong(4));
+            long destination = refs.location(rs.getLong(5));
+            String status = rs.getString(6);
+            Timestamp created = rs.getTimestamp(7);
+            Timestamp estimatedDelivery = rs.getTimestamp(8);
+            return resolved -> new ShipmentSummary(
+                id, resolved.customerName(sender), resolved.customerName(recipient),
+                resolved.locationName(origin), resolved.locationName(destination), status,
+                created, estimatedDelivery);
+        });
     }
     
-    // Close database connection
-    public void close() {
+    // Delayed shipments whose origin is the hub or any location below it, most delayed first
+    public List<DelayedShipment> findSubtreeDelayedShipments(long rootLocationId) {
+        long[] subtree = locationHierarchy.subtree(rootLocationId);
+        if (subtree.length == 0) {
+            return new ArrayList<>();
+        }
+        String sql = DELAYED_SHIPMENTS_SQL + " AND s.origin_id IN (%s) ORDER BY delay_hours DESC";
+        return querySubtree(metrics.operation("findSubtreeDelayedShipments"), "getting subtree delayed shipments",
+                            sql, subtree, Comparator.comparingLong(DelayedShipment::delayHours).reversed(),
+                            CourierServiceDB::readDelayedShipment);
+    }
+    
+    // Runs a query filtering on a subtree's locations, whose %s is an IN list. A hub
+    // near the root expands to most locations, so the ids go in chunks of at most
+    // BATCH_CHUNK_SIZE, one query each, and the rows of several chunks are merged
+    // into the query's own order.
+    private <T> List<T> querySubtree(OperationStats stats, String label, String sqlFormat, long[] subtree,
+                                     Comparator<? super T> order, DeferredMapper<T> mapper) {
+        List<T> result = new ArrayList<>();
+        for (int from = 0; from < subtree.length; from += BATCH_CHUNK_SIZE) {
+            long[] chunk = Arrays.copyOfRange(subtree, from, Math.min(from + BATCH_CHUNK_SIZE, subtree.length));
+            result.addAll(queryResolved(stats, label, String.format(sqlFormat, placeholders(chunk.length)),
+                                        mapper, chunk));
+        }
+        if (subtree.length > BATCH_CHUNK_SIZE) {
+            result.sort(order);
+        }
+        return result;
+    }
+    
+    // Load every <table>.csv / <table>.ndjson file in the directory with BulkLoader,
+    // then rebuild what is derived from the loaded tables. Rerunning after a failure
+    // resumes from the last checkpoint. False if the load failed or left rows that
+    // reference missing parents.
+    public boolean bulkLoad(Path directory) {
+        OperationStats stats = metrics.operation("bulkLoad");
+        long start = stats.start();
+        Map<String, Long> loaded;
+        List<String> orphans;
+        try {
+            loaded = bulkLoader.load(directory);
+            orphans = bulkLoader.checkReferences(loaded.keySet());
+        } catch (SQLException | IOException e) {
+            System.err.println("Error bulk loading " + directory + ": " + e.getMessage());
+            stats.record(start, 0, false);
+            return false;
+        }
+        for (String orphan : orphans) {
+            System.err.println("Bulk load left dangling references: " + orphan);
+        }
+        
+        Set<String> tables = loaded.keySet();
+        if (tables.contains("customer") || tables.contains("location") ||
+            tables.contains("agent") || tables.contains("driver")) {
+            referenceData.invalidateAll();
+        }
+        if (tables.contains("location")) {
+            locationHierarchy.refresh();
+        }
+        boolean rebuilt = true;
+        if (tables.contains("driver") || tables.contains("driver_shipment_assignment")) {
+            rebuilt &= reconcileDriverLoad();
+        }
+        if (tables.contains("package") || tables.contains("package_shipment_assignment")) {
+            // Loaded files carry whatever pointers they were exported with; derive them again
+            rebuilt &= checkCurrentShipments(true);
+        }
+        if (tables.contains("shipments") || tables.contains("package") ||
+            tables.contains("package_shipment_assignment")) {
+            rebuilt &= rebuildDailyVolumeRollup();
+        }
+        if (tables.contains("shipments") || tables.contains("driver_shipment_assignment")) {
+            delayWatcher.requestResync();
+        }
+        
+        long rows = 0;
+        for (long count : loaded.values()) {
+            rows += count;
+        }
+        boolean ok = orphans.isEmpty() && rebuilt;
+        stats.record(start, rows, ok);
+        return ok;
+    }
+    
+    // Stream a base table, or its rows created within [from, to) (null bounds are
+    // open), to a .csv or .ndjson file in the format bulkLoad reads. Returns the rows
+    // written, or -1 on failure.
+    public long exportTable(String table, LocalDateTime from, LocalDateTime to, Path file) {
+        OperationStats stats = metrics.operation("exportTable");
+        long start = stats.start();
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                System.out.println("Database connection closed.");
+            long rows = new BulkExporter(pool).export(table, from, to, file);
+            stats.record(start, rows, true);
+            return rows;
+        } catch (SQLException | IOException | IllegalArgumentException e) {
+            System.err.println("Error exporting " + table + ": " + e.getMessage());
+            stats.record(start, 0, false);
+            return -1;
+        }
+    }
+    
+    // Push shipment change events to the subscriber instead of polling
+    // getShipmentStatusAndLog; see ShipmentEventTailer. A new name starts with the
+    // next event, or with the oldest retained one if fromBeginning is set; a known
+    // name resumes after its stored offset. False if the subscription failed.
+    public boolean subscribeToShipmentEvents(String name, boolean fromBeginning,
+                                             ShipmentEventTailer.Subscriber subscriber) {
+        try {
+            eventTailer.subscribe(name, fromBeginning, subscriber);
+            return true;
+        } catch (SQLException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println("Error subscribing to shipment events: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    public boolean unsubscribeFromShipmentEvents(String name) {
+        return eventTailer.unsubscribe(name);
+    }
+    
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+    
+    // One unit of transactional work; may roll back itself and return early
+    private interface TransactionWork<T> {
+        T run(Connection conn) throws SQLException;
+    }
+    
+    // Runs work as one explicit transaction on a pooled connection. Deadlocks and lock
+    // wait timeouts abort the whole transaction, so it is rerun from the start after a
+    // jittered exponential backoff; other errors propagate unchanged. Latency, including
+    // retries, is recorded against stats.
+    private <T> T inTransaction(OperationStats stats, TransactionWork<T> work) throws SQLException {
+        long start = stats.start();
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
+                T result = work.run(conn);
+                conn.commit();
+                readRouter.recordWrite(conn);
+                stats.record(start, result instanceof BatchResult batch ? batch.getSucceeded()
+                                    : Boolean.TRUE.equals(result) ? 1 : 0, true);
+                return result;
+            } catch (SQLException e) {
+                if (attempt >= MAX_TRANSACTION_ATTEMPTS || !isTransientLockFailure(e)) {
+                    stats.record(start, 0, false);
+                    throw e;
+                }
+                stats.retried();
+                long ceiling = TRANSACTION_RETRY_BACKOFF_MILLIS << (attempt - 1);
+                try {
+                    Thread.sleep(ceiling / 2 + java.util.concurrent.ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    stats.record(start, 0, false);
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    // MySQL 1213 (deadlock), 1205 (lock wait timeout) and SQLSTATE 40001 (serialization failure)
+    private static boolean isTransientLockFailure(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            if (cause instanceof SQLTransactionRollbackException || cause.getErrorCode() == 1213 ||
+                cause.getErrorCode() == 1205 || "40001".equals(cause.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Maps one result row to a typed record, reading columns by position
+    private interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+    
+    // Reads one row into a deferred result: the mapper registers the reference ids the
+    // row needs with the batch, and the function builds the record once it is resolved
+    private interface DeferredMapper<T> {
+        Function<ReferenceDataCache.Batch, T> map(ResultSet rs, ReferenceDataCache.Batch refs) throws SQLException;
+    }
+    
+    // queryList whose reference names are resolved after its connection is released,
+    // with one batched load per reference table for the cache misses
+    private <T> List<T> queryResolved(OperationStats stats, String label, String sql, DeferredMapper<T> mapper,
+                                      long... params) {
+        ReferenceDataCache.Batch refs = referenceData.batch();
+        return resolve(refs, queryList(stats, label, sql, rs -> mapper.map(rs, refs), params));
+    }
+    
+    private static <T> List<T> resolve(ReferenceDataCache.Batch refs,
+                                       List<Function<ReferenceDataCache.Batch, T>> rows) {
+        refs.resolve();
+        List<T> result = new ArrayList<>(rows.size());
+        for (Function<ReferenceDataCache.Batch, T> row : rows) {
+            result.add(row.apply(refs));
+        }
+        return result;
+    }
+    
+    private <T> List<T> queryList(OperationStats stats, String label, String sql, RowMapper<T> mapper,
+                                  long... params) {
+        long start = stats.start();
+        List<T> result = new ArrayList<>();
+        try (Connection conn = readRouter.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setLong(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(mapper.map(rs));
+                }
             }
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            System.err.println("Error " + label + ": " + e.getMessage());
+            stats.record(start, result.size(), false);
+            return result;
+        }
+        stats.record(start, result.size(), true);
+        return result;
+    }
+    
+    // Forward-only, read-only statement with the streaming fetch size, so rows are
+    // pulled from the server as they are consumed instead of being buffered.
+    // Uses the three-argument prepareStatement, which bypasses the statement cache.
+    private PreparedStatement prepareStreaming(Connection conn, String sql) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        pstmt.setFetchSize(streamFetchSize);
+        return pstmt;
+    }
+    
+    private <T> long queryEach(OperationStats stats, String label, String sql, RowMapper<T> mapper,
+                               Consumer<? super T> consumer) {
+        long start = stats.start();
+        long rows = 0;
+        try (Connection conn = readRouter.getReadConnection();
+             PreparedStatement pstmt = prepareStreaming(conn, sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                consumer.accept(mapper.map(rs));
+                rows++;
+            }
+        } catch (SQLException e) {
+            System.err.println("Error " + label + ": " + e.getMessage());
+            stats.record(start, rows, false);
+            return rows;
+        }
+        stats.record(start, rows, true);
+        return rows;
+    }
+    
+    // Latency covers the whole life of the stream, from the query until close()
+    private <T> Stream<T> lazyStream(OperationStats stats, String label, String sql, RowMapper<T> mapper) {
+        long start = stats.start();
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs;
+        try {
+            conn = readRouter.getReadConnection();
+            pstmt = prepareStreaming(conn, sql);
+            rs = pstmt.executeQuery();
+        } catch (SQLException e) {
+            System.err.println("Error " + label + ": " + e.getMessage());
+            closeQuietly(pstmt);
+            closeQuietly(conn);
+            stats.record(start, 0, false);
+            return Stream.empty();
+        }
+        
+        ResultSet results = rs;
+        // [0] rows read, [1] 1 once reading failed
+        long[] progress = new long[2];
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!results.next()) {
+                        return false;
+                    }
+                    action.accept(mapper.map(results));
+                    progress[0]++;
+                    return true;
+                } catch (SQLException e) {
+                    System.err.println("Error " + label + ": " + e.getMessage());
+                    progress[1] = 1;
+                    return false;
+                }
+            }
+        };
+        Connection streamConn = conn;
+        PreparedStatement streamStmt = pstmt;
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            closeQuietly(results);
+            closeQuietly(streamStmt);
+            closeQuietly(streamConn);
+            stats.record(start, progress[0], progress[1] == 0);
+        });
+    }
+    
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception e) {
+            System.err.println("Error closing resource: " + e.getMessage());
+        }
+    }
+    
+    private static <T> List<Map<String, Object>> toMaps(List<T> rows, Function<T, Map<String, Object>> toMap) {
+        List<Map<String, Object>> result = new ArrayList<>(rows.size());
+        for (T row : rows) {
+            result.add(toMap.apply(row));
+        }
+        return result;
+    }
+    
+    // Borrow a pooled database connection (for demo purposes); the caller must close it
+    public Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+    
+    // Call after writing a location row outside this class (insert, rename,
+    // re-parent, delete): drops the cached name and the location tree, so subtree
+    // queries and dispatch proximity see the change at once
+    public void invalidateLocation(long locationId) {
+        referenceData.invalidateLocation(locationId);
+        locationHierarchy.invalidate();
+    }
+    
+    // Reference data cache; callers that write customer, location, agent or driver
+    // rows directly must invalidate the affected entries
+    public ReferenceDataCache getReferenceData() {
+        return referenceData;
+    }
+    
+    // Monthly partitions and archive of status_logs and package_movement_log
+    public PartitionManager getPartitionManager() {
+        return partitions;
+    }
+    
+    // Index of open shipments by deadline; register listeners here to be told when a
+    // shipment becomes overdue
+    public DelayWatcher getDelayWatcher() {
+        return delayWatcher;
+    }
+    
+    // Subscriber offsets and delivery counters
+    public ShipmentEventTailer getEventTailer() {
+        return eventTailer;
+    }
+    
+    // Planner behind dispatchPendingShipments, e.g. to inspect a plan before writing it
+    public DispatchEngine getDispatchEngine() {
+        return dispatchEngine;
+    }
+    
+    // Chunk size and LOAD DATA settings used by bulkLoad; also clears checkpoints
+    public BulkLoader getBulkLoader() {
+        return bulkLoader;
+    }
+    
+    // In-memory index of the location tree
+    public LocationHierarchy getLocationHierarchy() {
+        return locationHierarchy;
+    }
+    
+    // Fetch size for streaming queries. Positive values fetch through a server-side
+    // cursor and need useCursorFetch=true on the JDBC URL.
+    public void setStreamFetchSize(int streamFetchSize) {
+        this.streamFetchSize = streamFetchSize;
+    }
+    
+    // Connection pool metrics
+    public Map<String, Object> getPoolMetrics() {
+        return pool.getMetrics();
+    }
+    
+    // Replica lag bound and read-your-writes wait; see ReadRouter
+    public ReadRouter getReadRouter() {
+        return readRouter;
+    }
+    
+    public Map<String, Object> getReadRoutingMetrics() {
+        return readRouter.getMetrics();
+    }
+
+    // How updateShipmentStatus writes status_logs rows. Switching modes flushes
+    // any entries queued under the previous one.
+    public synchronized void setStatusLogDurability(StatusLogWriter.Durability durability) {
+        StatusLogWriter previous = statusLogWriter;
+        if (previous != null && previous.getDurability() == durability) {
+            return;
+        }
+        statusLogWriter = durability == StatusLogWriter.Durability.SYNC ? null : new StatusLogWriter(pool, durability);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+    
+    public Map<String, Object> getStatusLogMetrics() {
+        StatusLogWriter logWriter = statusLogWriter;
+        return logWriter == null ? Map.of("durability", StatusLogWriter.Durability.SYNC.name()) : logWriter.getMetrics();
+    }
+    
+    // Per-operation latency histograms and counters, also exported over JMX
+    public CourierMetrics getMetrics() {
+        return metrics;
+    }
+    
+    public Map<String, Map<String, Object>> getOperationMetrics() {
+        return metrics.getOperationMetrics();
+    }
+    
+    // Slow-query threshold, count and recent entries with their EXPLAIN plans
+    public SlowQueryLog getSlowQueryLog() {
+        return pool.getSlowQueryLog();
+    }
+    
+    // Upper bound on concurrent database work; sizes async callers' concurrency limits
+    public int getMaxConnections() {
+        return pool.getMaxSize();
+    }
+    
+    // Reloads the delayed-shipment index after shipments or driver assignments were
+    // written behind this instance's back (other processes, bulk SQL), waiting up to
+    // timeoutMillis. Returns false if the reload did not finish in time.
+    public boolean resyncDelayedShipments(long timeoutMillis) {
+        return delayWatcher.resyncAndWait(timeoutMillis);
+    }
+    
+    // Aborts the database connections held by worker, so an operation that was
+    // cancelled or timed out stops waiting on MySQL and gives its connections back
+    public int abortConnectionsOf(Thread worker) {
+        return readRouter.abortConnectionsOf(worker);
+    }
+    
+    // Close the connection pool
+    public void close() {
+        // Flush queued status logs while the pool is still open
+        setStatusLogDurability(StatusLogWriter.Durability.SYNC);
+        partitions.close();
+        delayWatcher.close();
+        eventTailer.close();
+        readRouter.close();
+        if (!pool.isClosed()) {
+            pool.close();
+            System.out.println("Database connection closed.");
         }
+        metrics.close();
     }
 } 
\ No newline at end of file
@@ -63,9 +63,9 @@ public class CourierServiceDemo {
     }
     
     private static void insertCustomer(CourierServiceDB db, long id, String name, String contact) {
-        try {
-            String sql = "INSERT INTO customer (customer_id, name, contact) VALUES (?, ?, ?)";
-            java.sql.PreparedStatement pstmt = db.getConnection().prepareStatement(sql);
+        String sql = "INSERT INTO customer (customer_id, name, contact) VALUES (?, ?, ?)";
+        try (java.sql.Connection conn = db.getConnection();
+             java.sql.PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, id);
             pstmt.setString(2, name);
             pstmt.setString(3, contact);
@@ -76,9 +76,9 @@ public class CourierServiceDemo {
     }
     
     private static void insertLocation(CourierServiceDB db, long id, String name, Long parentId, String pinCode) {
-        try {
-            String sql = "INSERT INTO location (location_id, name, parent_location_id, pinCode) VALUES (?, ?, ?, ?)";
-            java.sql.PreparedStatement pstmt = db.getConnection().prepareStatement(sql);
+        String sql = "INSERT INTO location (location_id, name, parent_location_id, pinCode) VALUES (?, ?, ?, ?)";
+        try (java.sql.Connection conn = db.getConnection();
+             java.sql.PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, id);
             pstmt.setString(2, name);
             if (parentId != null) {
@@ -94,9 +94,9 @@ public class CourierServiceDemo {
     }
     
     private static void insertAgent(CourierServiceDB db, long id, String name, String contacts) {
-        try {
-            String sql = "INSERT INTO agent (agent_id, name, contacts) VALUES (?, ?, ?)";
-            java.sql.PreparedStatement pstmt = db.getConnection().prepareStatement(sql);
+        String sql = "INSERT INTO agent (agent_id, name, contacts) VALUES (?, ?, ?)";
+        try (java.sql.Connection conn = db.getConnection();
+             java.sql.PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setLong(1, id);
             pstmt.setString(2, name);
             pstmt.setString(3, contacts);
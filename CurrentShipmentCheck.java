@@ -0,0 +1,154 @@
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+
+// Consistency check of package.current_shipment_id against the assignment history.
+// A package's pointer must name the shipment of its one open
+// package_shipment_assignment row (removed_at IS NULL), or be NULL when it has none.
+// Walks package in primary-key chunks, each read as one consistent snapshot, and
+// reports every package whose pointer disagrees with the history or that has more
+// than one open assignment.
+//
+// With repair set, a wrong pointer is rewritten from the history. The update is
+// guarded by the pointer value read, so a package moved meanwhile is left alone.
+// Packages with several open assignments are only reported: the history itself is
+// broken and there is no single shipment to point at.
+//
+// CourierServiceDB.bulkLoad repairs with it after loading packages or assignments;
+// it can also be run directly with --url=, --user=, --password= and --repair=true.
+public class CurrentShipmentCheck {
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+    // Problems listed individually; the rest are only counted
+    private static final int MAX_REPORTED = 100;
+
+    private static final String CHUNK_SQL =
+        "SELECT p.package_id, p.current_shipment_id, " +
+        "(SELECT COUNT(*) FROM package_shipment_assignment psa " +
+        " WHERE psa.package_id = p.package_id AND psa.removed_at IS NULL), " +
+        "(SELECT MIN(psa.shipment_id) FROM package_shipment_assignment psa " +
+        " WHERE psa.package_id = p.package_id AND psa.removed_at IS NULL) " +
+        "FROM package p WHERE p.package_id > ? ORDER BY p.package_id LIMIT ?";
+    private static final String REPAIR_SQL =
+        "UPDATE package SET current_shipment_id = ? WHERE package_id = ? AND current_shipment_id <=> ?";
+
+    private final DataSource dataSource;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private long checked;
+    private long repaired;
+
+    public CurrentShipmentCheck(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    // Packages read per chunk
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    // Problems left after the run, one per line; empty when every pointer matches
+    // the history (or was repaired)
+    public List<String> run(boolean repair) {
+        checked = 0;
+        repaired = 0;
+        List<String> problems = new ArrayList<>();
+        long unreported = 0;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement select = conn.prepareStatement(CHUNK_SQL);
+             PreparedStatement update = conn.prepareStatement(REPAIR_SQL)) {
+            conn.setAutoCommit(true);
+            long after = Long.MIN_VALUE;
+            while (true) {
+                select.setLong(1, after);
+                select.setInt(2, chunkSize);
+                int rows = 0;
+                int pending = 0;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                        long packageId = rs.getLong(1);
+                        after = packageId;
+                        Long pointer = rs.getObject(2, Long.class);
+                        int open = rs.getInt(3);
+                        Long expected = open == 1 ? rs.getObject(4, Long.class) : null;
+                        String problem = null;
+                        if (open > 1) {
+                            problem = "Package " + packageId + " has " + open + " open assignments";
+                        } else if (!Objects.equals(pointer, expected)) {
+                            if (repair) {
+                                update.setObject(1, expected, Types.BIGINT);
+                                update.setLong(2, packageId);
+                                update.setObject(3, pointer, Types.BIGINT);
+                                update.addBatch();
+                                pending++;
+                                continue;
+                            }
+                            problem = "Package " + packageId + " points at shipment " + pointer +
+                                      " but its open assignment is " + (expected == null ? "none" : expected);
+                        }
+                        if (problem != null) {
+                            if (problems.size() < MAX_REPORTED) {
+                                problems.add(problem);
+                            } else {
+                                unreported++;
+                            }
+                        }
+                    }
+                }
+                if (pending > 0) {
+                    for (int count : update.executeBatch()) {
+                        // Drivers that cannot report per-row counts still applied the row
+                        repaired += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                    }
+                }
+                checked += rows;
+                if (rows < chunkSize) {
+                    break;
+                }
+            }
+        } catch (SQLException e) {
+            problems.add("Current shipment check failed: " + e.getMessage());
+        }
+        if (unreported > 0) {
+            problems.add("... and " + unreported + " more packages with inconsistent assignments");
+        }
+        return problems;
+    }
+
+    // Packages examined by the last run
+    public long getChecked() {
+        return checked;
+    }
+
+    // Pointers rewritten by the last run
+    public long getRepaired() {
+        return repaired;
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Usage: CurrentShipmentCheck [--url=jdbc:mysql://...] [--user=...] " +
+                                   "[--password=...] [--repair=true]");
+                System.exit(2);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        List<String> problems;
+        CurrentShipmentCheck check;
+        try (ConnectionPool pool = new ConnectionPool(
+                 options.getOrDefault("url", "jdbc:mysql://localhost:3306/courier_bench_10000"),
+                 options.getOrDefault("user", "root"), options.getOrDefault("password", "password"), 1, 2)) {
+            check = new CurrentShipmentCheck(pool);
+            problems = check.run(Boolean.parseBoolean(options.getOrDefault("repair", "false")));
+        }
+        System.out.println("Checked " + check.getChecked() + " packages, repaired " + check.getRepaired());
+        if (problems.isEmpty()) {
+            System.out.println("Current shipment pointers OK");
+            return;
+        }
+        problems.forEach(System.err::println);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,22 @@
+import java.sql.Date;
+import java.util.*;
+
+// Shipment counts and package weight for one origin location on one day
+public record DailyVolume(Date shipmentDate, String originLocation, String originPincode,
+                          long totalShipments, long deliveredShipments, long inTransitShipments,
+                          long pendingShipments, double totalWeightKg) {
+
+    // Legacy row shape returned by CourierServiceDB.getDailyShipmentVolume
+    public Map<String, Object> toMap() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("shipment_date", shipmentDate);
+        row.put("origin_location", originLocation);
+        row.put("origin_pincode", originPincode);
+        row.put("total_shipments", totalShipments);
+        row.put("delivered_shipments", deliveredShipments);
+        row.put("in_transit_shipments", inTransitShipments);
+        row.put("pending_shipments", pendingShipments);
+        row.put("total_weight_kg", totalWeightKg);
+        return row;
+    }
+}
@@ -0,0 +1,116 @@
+import java.sql.*;
+import java.time.LocalDate;
+
+// Incrementally maintained daily_shipment_volume rollup, keyed by
+// (shipment_date, origin_id). Every write that changes a shipment's day, status
+// or package weight applies its delta here inside the same transaction, so the
+// daily volume report reads a bounded number of rollup rows instead of
+// aggregating the full shipment history.
+class DailyVolumeRollup {
+    // New shipments start out pending and are bucketed by the day of their own
+    // created_time, as rebuild does, so a create that straddles midnight lands in
+    // the same bucket either way. Runs after the shipments insert.
+    // Parameters: shipment_id
+    static final String NEW_SHIPMENT_SQL =
+        "INSERT INTO daily_shipment_volume (shipment_date, origin_id, total_shipments, pending_shipments) " +
+        "SELECT DATE(s.created_time), s.origin_id, 1, 1 FROM shipments s WHERE s.shipment_id = ? " +
+        "ON DUPLICATE KEY UPDATE total_shipments = total_shipments + 1, pending_shipments = pending_shipments + 1";
+
+    // Parameters: package_id, sign (+1 or -1), shipment_id
+    static final String PACKAGE_WEIGHT_SQL =
+        "UPDATE daily_shipment_volume v " +
+        "JOIN shipments s ON v.shipment_date = DATE(s.created_time) AND v.origin_id = s.origin_id " +
+        "JOIN package p ON p.package_id = ? " +
+        "SET v.total_weight_kg = v.total_weight_kg + ? * p.weight " +
+        "WHERE s.shipment_id = ?";
+
+    private static final String STATUS_SQL =
+        "UPDATE daily_shipment_volume SET pending_shipments = pending_shipments + ?, " +
+        "in_transit_shipments = in_transit_shipments + ?, delivered_shipments = delivered_shipments + ? " +
+        "WHERE shipment_date = ? AND origin_id = ?";
+
+    private static final String LOCK_SHIPMENT_SQL =
+        "SELECT status, DATE(created_time), origin_id FROM shipments WHERE shipment_id = ? FOR UPDATE";
+
+    private static final String REBUILD_SQL =
+        "INSERT INTO daily_shipment_volume (shipment_date, origin_id, total_shipments, delivered_shipments, " +
+        "in_transit_shipments, pending_shipments, total_weight_kg) " +
+        "SELECT DATE(s.created_time), s.origin_id, COUNT(*), " +
+        "SUM(s.status = 'delivered'), SUM(s.status = 'in_transit'), SUM(s.status = 'pending'), " +
+        "COALESCE(SUM(w.weight), 0) " +
+        "FROM shipments s " +
+        "LEFT JOIN (SELECT psa.shipment_id, SUM(p.weight) AS weight " +
+        "FROM package_shipment_assignment psa JOIN package p ON psa.package_id = p.package_id " +
+        "WHERE psa.removed_at IS NULL GROUP BY psa.shipment_id) w ON w.shipment_id = s.shipment_id " +
+        "WHERE s.created_time >= ? " +
+        "GROUP BY DATE(s.created_time), s.origin_id";
+
+    private DailyVolumeRollup() {
+    }
+
+    static void recordNewShipment(Connection conn, long shipmentId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(NEW_SHIPMENT_SQL)) {
+            pstmt.setLong(1, shipmentId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Locks the shipment row and moves it between status buckets. Must run before the
+    // shipments row is updated, in the same transaction. Returns the previous status,
+    // or null if the shipment does not exist.
+    static String recordStatusChange(Connection conn, long shipmentId, String newStatus) throws SQLException {
+        String oldStatus;
+        Date shipmentDate;
+        long originId;
+        try (PreparedStatement pstmt = conn.prepareStatement(LOCK_SHIPMENT_SQL)) {
+            pstmt.setLong(1, shipmentId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                oldStatus = rs.getString(1);
+                shipmentDate = rs.getDate(2);
+                originId = rs.getLong(3);
+            }
+        }
+        if (!oldStatus.equals(newStatus)) {
+            try (PreparedStatement pstmt = conn.prepareStatement(STATUS_SQL)) {
+                pstmt.setInt(1, delta("pending", oldStatus, newStatus));
+                pstmt.setInt(2, delta("in_transit", oldStatus, newStatus));
+                pstmt.setInt(3, delta("delivered", oldStatus, newStatus));
+                pstmt.setDate(4, shipmentDate);
+                pstmt.setLong(5, originId);
+                pstmt.executeUpdate();
+            }
+        }
+        return oldStatus;
+    }
+
+    // Adds (sign = 1) or removes (sign = -1) a package's weight on a shipment's bucket
+    static void applyPackageWeight(Connection conn, long packageId, long shipmentId, int sign) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(PACKAGE_WEIGHT_SQL)) {
+            pstmt.setLong(1, packageId);
+            pstmt.setInt(2, sign);
+            pstmt.setLong(3, shipmentId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Recompute all buckets from the given day onwards from the base tables. The caller
+    // owns the transaction.
+    static int rebuild(Connection conn, LocalDate since) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "DELETE FROM daily_shipment_volume WHERE shipment_date >= ?")) {
+            pstmt.setDate(1, Date.valueOf(since));
+            pstmt.executeUpdate();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(REBUILD_SQL)) {
+            pstmt.setTimestamp(1, Timestamp.valueOf(since.atStartOfDay()));
+            return pstmt.executeUpdate();
+        }
+    }
+
+    private static int delta(String bucket, String oldStatus, String newStatus) {
+        return (bucket.equals(newStatus) ? 1 : 0) - (bucket.equals(oldStatus) ? 1 : 0);
+    }
+}
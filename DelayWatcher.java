@@ -0,0 +1,363 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
+
+// In-memory index of open shipments ordered by estimated delivery time. A timer
+// thread sleeps until the earliest deadline, moves shipments that pass it to the
+// delayed set and notifies listeners, so the delayed set can be served in delay
+// order without touching the database. CourierServiceDB feeds it its own writes;
+// the index is loaded at startup and resynchronized periodically to pick up
+// writes made by other processes.
+public class DelayWatcher implements AutoCloseable {
+    public static final long DEFAULT_RESYNC_MILLIS = 5 * 60 * 1000L;
+    private static final long RETRY_MILLIS = 30 * 1000L;
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000L;
+
+    // Open shipments (pending or in transit), one row each with the driver of the
+    // latest open assignment
+    private static final String OPEN_SHIPMENTS_SQL =
+        "SELECT s.shipment_id, s.sender_id, s.recipient_id, s.estimated_delivery_time, dsa.driver_id " +
+        "FROM shipments s " +
+        CourierServiceDB.OPEN_ASSIGNMENT_JOIN +
+        "WHERE s.status IN ('pending', 'in_transit') AND s.estimated_delivery_time IS NOT NULL";
+
+    public interface Listener {
+        // Called on the watcher thread once a shipment passes its estimated delivery time
+        void onDelayed(DelayedShipment shipment);
+    }
+
+    // Ordered by deadline, then id; only driverId changes after creation
+    private static final class Tracked implements Comparable<Tracked> {
+        final long shipmentId;
+        final long senderId;
+        final long recipientId;
+        final long dueMillis;
+        long driverId;
+
+        Tracked(long shipmentId, long senderId, long recipientId, long dueMillis, long driverId) {
+            this.shipmentId = shipmentId;
+            this.senderId = senderId;
+            this.recipientId = recipientId;
+            this.dueMillis = dueMillis;
+            this.driverId = driverId;
+        }
+
+        @Override
+        public int compareTo(Tracked other) {
+            int byDue = Long.compare(dueMillis, other.dueMillis);
+            return byDue != 0 ? byDue : Long.compare(shipmentId, other.shipmentId);
+        }
+    }
+
+    private final DataSource dataSource;
+    private final ReferenceDataCache referenceData;
+    private final long resyncMillis;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private Map<Long, Tracked> open = new HashMap<>();
+    private TreeSet<Tracked> upcoming = new TreeSet<>();
+    private TreeSet<Tracked> delayed = new TreeSet<>();
+    // Changes made while a resync is reading the database, replayed onto its result
+    private List<Consumer<DelayWatcher>> journal;
+    private long nextResyncMillis;
+    private boolean closed;
+    private Thread thread;
+    private volatile boolean loaded;
+    // Reloads completed so far; guarded by this
+    private long resyncs;
+
+    public DelayWatcher(DataSource dataSource, ReferenceDataCache referenceData) {
+        this(dataSource, referenceData, DEFAULT_RESYNC_MILLIS);
+    }
+
+    public DelayWatcher(DataSource dataSource, ReferenceDataCache referenceData, long resyncMillis) {
+        this.dataSource = dataSource;
+        this.referenceData = referenceData;
+        this.resyncMillis = resyncMillis;
+    }
+
+    // Loads open shipments and starts the timer thread
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::run, "delay-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Reloads the index on the timer thread without waiting for the next periodic
+    // resync, e.g. after rows were loaded behind CourierServiceDB's back
+    public synchronized void requestResync() {
+        nextResyncMillis = 0;
+        notifyAll();
+    }
+
+    // requestResync() and waits up to timeoutMillis for a reload that started after the
+    // call to finish. Returns false if none finished in time, e.g. because the
+    // database was unreachable.
+    public synchronized boolean resyncAndWait(long timeoutMillis) {
+        // A reload already running may have read the rows before the caller's writes
+        long target = resyncs + (journal != null ? 2 : 1);
+        requestResync();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (resyncs < target) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || closed) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // True once the index has been loaded from the database
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void shipmentCreated(long shipmentId, long senderId, long recipientId, Timestamp estimatedDelivery) {
+        if (estimatedDelivery == null) {
+            return;
+        }
+        long due = estimatedDelivery.getTime();
+        apply(w -> w.track(new Tracked(shipmentId, senderId, recipientId, due, 0)));
+    }
+
+    // Delivered and returned shipments are closed and stop being tracked
+    public void statusChanged(long shipmentId, String status) {
+        if ("delivered".equals(status) || "returned".equals(status)) {
+            apply(w -> w.untrack(shipmentId));
+        }
+    }
+
+    public void driverAssigned(long shipmentId, long driverId) {
+        apply(w -> {
+            Tracked tracked = w.open.get(shipmentId);
+            if (tracked != null) {
+                tracked.driverId = driverId;
+            }
+        });
+    }
+
+    // Open shipments past their estimated delivery time, most delayed first
+    public List<DelayedShipment> getDelayedShipments() {
+        long now = System.currentTimeMillis();
+        List<Tracked> snapshot;
+        long[] drivers;
+        synchronized (this) {
+            snapshot = new ArrayList<>(delayed);
+            // Deadlines the timer thread has not processed yet
+            for (Tracked tracked : upcoming) {
+                if (tracked.dueMillis > now) {
+                    break;
+                }
+                snapshot.add(tracked);
+            }
+            drivers = new long[snapshot.size()];
+            for (int i = 0; i < drivers.length; i++) {
+                drivers[i] = snapshot.get(i).driverId;
+            }
+        }
+        return toDelayedShipments(snapshot, drivers, now);
+    }
+
+    public synchronized int getOpenCount() {
+        return open.size();
+    }
+
+    public synchronized int getDelayedCount() {
+        return delayed.size();
+    }
+
+    // drivers[i] is the driver of tracked.get(i) as read under the lock. Names for the
+    // whole list come from one batched reference lookup.
+    private List<DelayedShipment> toDelayedShipments(List<Tracked> tracked, long[] drivers, long now) {
+        ReferenceDataCache.Batch refs = referenceData.batch();
+        for (int i = 0; i < tracked.size(); i++) {
+            refs.customer(tracked.get(i).senderId);
+            refs.customer(tracked.get(i).recipientId);
+            if (drivers[i] != 0) {
+                refs.driver(drivers[i]);
+            }
+        }
+        refs.resolve();
+        List<DelayedShipment> result = new ArrayList<>(tracked.size());
+        for (int i = 0; i < tracked.size(); i++) {
+            result.add(toDelayedShipment(refs, tracked.get(i), drivers[i], now));
+        }
+        return result;
+    }
+
+    private static DelayedShipment toDelayedShipment(ReferenceDataCache.Batch refs, Tracked tracked, long driverId,
+                                                     long now) {
+        ReferenceDataCache.Driver driver = driverId == 0 ? null : refs.getDriver(driverId);
+        return new DelayedShipment(
+            tracked.shipmentId, refs.customerName(tracked.senderId),
+            refs.customerName(tracked.recipientId), new Timestamp(tracked.dueMillis), null,
+            (now - tracked.dueMillis) / MILLIS_PER_HOUR,
+            driver == null ? null : driver.name(), driver == null ? null : driver.contact());
+    }
+
+    private synchronized void apply(Consumer<DelayWatcher> change) {
+        change.accept(this);
+        if (journal != null) {
+            journal.add(change);
+        }
+    }
+
+    private void track(Tracked tracked) {
+        untrack(tracked.shipmentId);
+        open.put(tracked.shipmentId, tracked);
+        // A shipment created already overdue is reported on the timer thread's next pass
+        upcoming.add(tracked);
+        if (upcoming.first() == tracked) {
+            notifyAll();
+        }
+    }
+
+    private void untrack(long shipmentId) {
+        Tracked tracked = open.remove(shipmentId);
+        if (tracked != null && !upcoming.remove(tracked)) {
+            delayed.remove(tracked);
+        }
+    }
+
+    private void run() {
+        List<Tracked> due = new ArrayList<>();
+        long[] drivers = new long[0];
+        while (true) {
+            boolean resync;
+            long now;
+            synchronized (this) {
+                while (true) {
+                    if (closed) {
+                        return;
+                    }
+                    now = System.currentTimeMillis();
+                    resync = now >= nextResyncMillis;
+                    while (!upcoming.isEmpty() && upcoming.first().dueMillis <= now) {
+                        Tracked tracked = upcoming.pollFirst();
+                        delayed.add(tracked);
+                        due.add(tracked);
+                    }
+                    if (resync || !due.isEmpty()) {
+                        break;
+                    }
+                    long wake = upcoming.isEmpty() ? nextResyncMillis : Math.min(nextResyncMillis, upcoming.first().dueMillis);
+                    try {
+                        wait(Math.max(1, wake - now));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (drivers.length < due.size()) {
+                    drivers = new long[due.size()];
+                }
+                for (int i = 0; i < due.size(); i++) {
+                    drivers[i] = due.get(i).driverId;
+                }
+            }
+            for (DelayedShipment shipment : toDelayedShipments(due, drivers, now)) {
+                notifyListeners(shipment);
+            }
+            due.clear();
+            if (resync) {
+                resync();
+            }
+        }
+    }
+
+    private void notifyListeners(DelayedShipment shipment) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onDelayed(shipment);
+            } catch (RuntimeException e) {
+                System.err.println("Error in delay listener: " + e.getMessage());
+            }
+        }
+    }
+
+    // Reloads open shipments from the database. Writes fed in meanwhile are journaled
+    // and replayed onto the fresh index; shipments already reported as delayed are not
+    // reported again.
+    private void resync() {
+        synchronized (this) {
+            journal = new ArrayList<>();
+        }
+        Map<Long, Tracked> loadedOpen = new HashMap<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(OPEN_SHIPMENTS_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                long shipmentId = rs.getLong(1);
+                long driverId = rs.getLong(5);
+                Tracked tracked = new Tracked(shipmentId, rs.getLong(2), rs.getLong(3),
+                                              rs.getTimestamp(4).getTime(), rs.wasNull() ? 0 : driverId);
+                loadedOpen.put(shipmentId, tracked);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading open shipments: " + e.getMessage());
+            synchronized (this) {
+                journal = null;
+                nextResyncMillis = System.currentTimeMillis() + (loaded ? resyncMillis : RETRY_MILLIS);
+            }
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Map<Long, Tracked> previousOpen = open;
+            TreeSet<Tracked> previousDelayed = delayed;
+            open = loadedOpen;
+            upcoming = new TreeSet<>();
+            delayed = new TreeSet<>();
+            for (Tracked tracked : loadedOpen.values()) {
+                Tracked previous = previousOpen.get(tracked.shipmentId);
+                boolean reported = previous != null && previousDelayed.contains(previous);
+                // On the first load everything already overdue is the current delayed set
+                if (tracked.dueMillis <= now && (reported || !loaded)) {
+                    delayed.add(tracked);
+                } else {
+                    upcoming.add(tracked);
+                }
+            }
+            for (Consumer<DelayWatcher> change : journal) {
+                change.accept(this);
+            }
+            journal = null;
+            loaded = true;
+            nextResyncMillis = now + resyncMillis;
+            resyncs++;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        Thread watcher;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            watcher = thread;
+        }
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+import java.sql.Timestamp;
+import java.util.*;
+
+// An open shipment past its estimated delivery time
+public record DelayedShipment(long shipmentId, String senderName, String recipientName,
+                              Timestamp estimatedDeliveryTime, Timestamp actualDelivery, long delayHours,
+                              String driverName, String driverContact) {
+
+    // Legacy row shape returned by CourierServiceDB.getDelayedShipments
+    public Map<String, Object> toMap() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("shipment_id", shipmentId);
+        row.put("sender_name", senderName);
+        row.put("recipient_name", recipientName);
+        row.put("estimated_delivery_time", estimatedDeliveryTime);
+        row.put("actual_delivery", actualDelivery);
+        row.put("delay_hours", delayHours);
+        row.put("driver_name", driverName);
+        row.put("driver_contact", driverContact);
+        return row;
+    }
+}
@@ -0,0 +1,375 @@
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import javax.sql.DataSource;
+
+// Bulk driver assignment. Loads every driver's remaining capacity (limit minus
+// active_load, the count persist reserves against) and current location, plans a
+// batch of pending shipments in one pass in memory and writes the whole plan in one
+// batched transaction, instead of one assignShipmentToDriver round trip per shipment.
+//
+// Planning takes shipments by earliest estimated delivery and gives each one to the
+// nearest driver with capacity left: a driver at the origin or below it, else below
+// the origin's parent, and so on up to the root hub, then any driver at all.
+// Drivers at the same distance are chosen by most remaining capacity, which spreads
+// the load. A driver's location is the end location of their latest assignment;
+// drivers without one are only used when no located driver has capacity.
+//
+// Drivers are held in tour order of their location (see LocationHierarchy.Tour),
+// so the drivers below any hub are one contiguous range of slots, and a max
+// segment tree over the slots' remaining capacity finds the best driver in a range
+// in O(log drivers). All per-driver state is in primitive arrays.
+public class DispatchEngine {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    // One planned assignment; the leg runs from the shipment's origin to its destination
+    public record Assignment(long shipmentId, long driverId, long startLocationId, long endLocationId,
+                             Timestamp estimatedDelivery) {
+    }
+
+    // Assignments in planning order and shipments no driver had capacity for
+    public record Plan(List<Assignment> assignments, List<Long> unassigned) {
+    }
+
+    // Remaining capacity and latest end location of every driver
+    private static final String DRIVERS_SQL =
+        "SELECT d.driver_id, d.`limit` - d.active_load, " +
+        "(SELECT dsa.end_location_id FROM driver_shipment_assignment dsa " +
+        "WHERE dsa.driver_id = d.driver_id ORDER BY dsa.assignment_id DESC LIMIT 1) " +
+        "FROM driver d";
+
+    // Pending shipments without an open driver assignment, most urgent first
+    private static final String PENDING_SQL =
+        "SELECT s.shipment_id, s.origin_id, s.destination_id, s.estimated_delivery_time " +
+        "FROM shipments s " +
+        "WHERE s.status = 'pending' AND NOT EXISTS (SELECT 1 FROM driver_shipment_assignment dsa " +
+        "WHERE dsa.shipment_id = s.shipment_id AND dsa.delivered = FALSE) " +
+        "ORDER BY s.estimated_delivery_time LIMIT ?";
+
+    private final DataSource dataSource;
+    private final LocationHierarchy hierarchy;
+    private final IdGenerator idGenerator;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    public DispatchEngine(DataSource dataSource, LocationHierarchy hierarchy, IdGenerator idGenerator) {
+        this.dataSource = dataSource;
+        this.hierarchy = hierarchy;
+        this.idGenerator = idGenerator;
+    }
+
+    // Statements per JDBC batch when writing a plan
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    // Plans up to maxShipments pending shipments against current driver capacity
+    public Plan plan(int maxShipments) throws SQLException {
+        LocationHierarchy.Tour tour = hierarchy.tour();
+        Drivers drivers;
+        List<Object[]> pending = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection()) {
+            drivers = loadDrivers(conn, tour);
+            try (PreparedStatement pstmt = conn.prepareStatement(PENDING_SQL)) {
+                pstmt.setInt(1, maxShipments);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        pending.add(new Object[] { rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getTimestamp(4) });
+                    }
+                }
+            }
+        }
+
+        List<Assignment> assignments = new ArrayList<>(pending.size());
+        List<Long> unassigned = new ArrayList<>();
+        for (Object[] shipment : pending) {
+            long shipmentId = (Long) shipment[0];
+            long originId = (Long) shipment[1];
+            int slot = drivers.nearest(tour, originId);
+            if (slot < 0) {
+                unassigned.add(shipmentId);
+                continue;
+            }
+            drivers.take(slot);
+            assignments.add(new Assignment(shipmentId, drivers.ids[slot], originId, (Long) shipment[2],
+                                           (Timestamp) shipment[3]));
+        }
+        return new Plan(assignments, unassigned);
+    }
+
+    private static Drivers loadDrivers(Connection conn, LocationHierarchy.Tour tour) throws SQLException {
+        List<long[]> rows = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(DRIVERS_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                long capacity = Math.max(0, rs.getLong(2));
+                long location = rs.getLong(3);
+                int position = rs.wasNull() ? -1 : tour.enter(location);
+                // Unlocated drivers sort after every tour position
+                rows.add(new long[] { rs.getLong(1), capacity, position < 0 ? Integer.MAX_VALUE : position });
+            }
+        }
+        rows.sort(Comparator.comparingLong((long[] row) -> row[2]).thenComparingLong(row -> row[0]));
+        return new Drivers(rows);
+    }
+
+    // Drivers in tour order with a max segment tree over their remaining capacity
+    private static final class Drivers {
+        final long[] ids;
+        // Tour position of each slot's location, ascending
+        final int[] positions;
+        final int leaves;
+        // tree[leaves + slot] is the slot's remaining capacity; inner nodes hold the max of their children
+        final int[] tree;
+
+        Drivers(List<long[]> rows) {
+            int n = rows.size();
+            ids = new long[n];
+            positions = new int[n];
+            int size = 1;
+            while (size < n) {
+                size <<= 1;
+            }
+            leaves = size;
+            tree = new int[2 * size];
+            for (int i = 0; i < n; i++) {
+                long[] row = rows.get(i);
+                ids[i] = row[0];
+                tree[size + i] = (int) Math.min(row[1], Integer.MAX_VALUE);
+                positions[i] = (int) row[2];
+            }
+            for (int node = size - 1; node > 0; node--) {
+                tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+
+        // Slot of the nearest driver with capacity left, or -1
+        int nearest(LocationHierarchy.Tour tour, long originId) {
+            int from = -1;
+            int to = -1;
+            for (long location = originId; location >= 0; location = tour.parent(location)) {
+                int enter = tour.enter(location);
+                if (enter < 0) {
+                    break;
+                }
+                int lo = lowerBound(enter);
+                int hi = lowerBound(tour.exit(location));
+                // A level without drivers beyond the previous level's adds nothing
+                if (lo == from && hi == to) {
+                    continue;
+                }
+                from = lo;
+                to = hi;
+                int slot = best(lo, hi);
+                if (slot >= 0) {
+                    return slot;
+                }
+            }
+            return best(0, ids.length);
+        }
+
+        void take(int slot) {
+            int node = leaves + slot;
+            tree[node]--;
+            for (node >>= 1; node > 0; node >>= 1) {
+                tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+
+        // First slot whose position is >= position
+        private int lowerBound(int position) {
+            int lo = 0;
+            int hi = positions.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (positions[mid] < position) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Slot in [from, to) with the most remaining capacity (the first on ties), or -1 if none has any
+        private int best(int from, int to) {
+            int bestNode = -1;
+            int bestValue = 0;
+            // The range splits into O(log n) canonical nodes; keep the leftmost with the highest value
+            int[] right = new int[64];
+            int rightCount = 0;
+            for (int l = from + leaves, r = to + leaves; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    if (tree[l] > bestValue) {
+                        bestValue = tree[l];
+                        bestNode = l;
+                    }
+                    l++;
+                }
+                if ((r & 1) == 1) {
+                    right[rightCount++] = --r;
+                }
+            }
+            for (int i = rightCount - 1; i >= 0; i--) {
+                if (tree[right[i]] > bestValue) {
+                    bestValue = tree[right[i]];
+                    bestNode = right[i];
+                }
+            }
+            if (bestNode < 0) {
+                return -1;
+            }
+            // Descend to the leftmost leaf holding the maximum
+            while (bestNode < leaves) {
+                bestNode = tree[2 * bestNode] == bestValue ? 2 * bestNode : 2 * bestNode + 1;
+            }
+            return bestNode - leaves;
+        }
+    }
+
+    // Writes the plan in the caller's transaction, which the caller commits and
+    // retries on deadlock (CourierServiceDB.dispatchPendingShipments). Driver rows are
+    // locked before shipment rows, the order assignShipmentToDriver uses, so the two
+    // cannot deadlock each other. Each driver's planned count is reserved with one
+    // conditional UPDATE, and a driver whose active_load no longer has room loses all
+    // of their planned assignments. The planned shipments are then locked, and any
+    // that stopped being pending or were assigned since planning are skipped and
+    // their reservation given back. Failures are reported by their index in
+    // plan.assignments().
+    public BatchResult persist(Connection conn, Plan plan, LocalDateTime estimatedPickup) throws SQLException {
+        List<Assignment> assignments = plan.assignments();
+        BatchResult result = new BatchResult(assignments.size());
+        if (assignments.isEmpty()) {
+            return result;
+        }
+        // Reserve per driver, in driver order so concurrent runs lock rows in the same order
+        Map<Long, Integer> perDriver = new TreeMap<>();
+        for (Assignment assignment : assignments) {
+            perDriver.merge(assignment.driverId(), 1, Integer::sum);
+        }
+        Set<Long> reserved = new HashSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "UPDATE driver SET active_load = active_load + ? " +
+                 "WHERE driver_id = ? AND active_load + ? <= `limit`")) {
+            List<Long> batch = new ArrayList<>();
+            for (Map.Entry<Long, Integer> entry : perDriver.entrySet()) {
+                pstmt.setInt(1, entry.getValue());
+                pstmt.setLong(2, entry.getKey());
+                pstmt.setInt(3, entry.getValue());
+                pstmt.addBatch();
+                batch.add(entry.getKey());
+                if (batch.size() == batchSize) {
+                    collectReserved(pstmt.executeBatch(), batch, reserved);
+                }
+            }
+            collectReserved(pstmt.executeBatch(), batch, reserved);
+        }
+
+        Set<Long> open = lockOpenShipments(conn, assignments);
+
+        // Give back the slots reserved for shipments that are no longer open
+        Map<Long, Integer> unused = new TreeMap<>();
+        for (Assignment assignment : assignments) {
+            if (!open.contains(assignment.shipmentId()) && reserved.contains(assignment.driverId())) {
+                unused.merge(assignment.driverId(), 1, Integer::sum);
+            }
+        }
+        if (!unused.isEmpty()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                     "UPDATE driver SET active_load = GREATEST(active_load - ?, 0) WHERE driver_id = ?")) {
+                int batched = 0;
+                for (Map.Entry<Long, Integer> entry : unused.entrySet()) {
+                    pstmt.setInt(1, entry.getValue());
+                    pstmt.setLong(2, entry.getKey());
+                    pstmt.addBatch();
+                    if (++batched % batchSize == 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+            }
+        }
+
+        try (PreparedStatement assign = conn.prepareStatement(
+                 "INSERT INTO driver_shipment_assignment (assignment_id, driver_id, shipment_id, " +
+                 "start_location_id, end_location_id, estimated_pickup_time, estimated_delivery_time) " +
+                 "VALUES (?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement event = conn.prepareStatement(ShipmentOutbox.INSERT_SQL)) {
+            Timestamp pickup = Timestamp.valueOf(estimatedPickup);
+            int batched = 0;
+            for (int i = 0; i < assignments.size(); i++) {
+                Assignment a = assignments.get(i);
+                if (!open.contains(a.shipmentId())) {
+                    result.addFailure(i, a.shipmentId(), "Shipment is no longer pending or already assigned");
+                    continue;
+                }
+                if (!reserved.contains(a.driverId())) {
+                    result.addFailure(i, a.shipmentId(), "Driver " + a.driverId() + " has reached maximum capacity");
+                    continue;
+                }
+                assign.setLong(1, idGenerator.nextId());
+                assign.setLong(2, a.driverId());
+                assign.setLong(3, a.shipmentId());
+                assign.setLong(4, a.startLocationId());
+                assign.setLong(5, a.endLocationId());
+                assign.setTimestamp(6, pickup);
+                assign.setTimestamp(7, a.estimatedDelivery());
+                assign.addBatch();
+                ShipmentOutbox.bindDriverAssigned(event, a.shipmentId(), a.driverId());
+                event.addBatch();
+                if (++batched % batchSize == 0) {
+                    assign.executeBatch();
+                    event.executeBatch();
+                }
+            }
+            assign.executeBatch();
+            event.executeBatch();
+            result.addSucceeded(batched);
+        }
+        return result;
+    }
+
+    private static void collectReserved(int[] counts, List<Long> batch, Set<Long> reserved) {
+        for (int i = 0; i < counts.length; i++) {
+            // SUCCESS_NO_INFO counts as applied; a zero means the capacity check failed
+            if (counts[i] != 0) {
+                reserved.add(batch.get(i));
+            }
+        }
+        batch.clear();
+    }
+
+    // Locks the planned shipments, in id order, and returns those still pending without an open assignment
+    private Set<Long> lockOpenShipments(Connection conn, List<Assignment> assignments) throws SQLException {
+        long[] ids = new long[assignments.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = assignments.get(i).shipmentId();
+        }
+        Arrays.sort(ids);
+        Set<Long> open = new HashSet<>(ids.length * 2);
+        for (int from = 0; from < ids.length; from += batchSize) {
+            int to = Math.min(from + batchSize, ids.length);
+            StringBuilder sql = new StringBuilder(
+                "SELECT s.shipment_id FROM shipments s WHERE s.status = 'pending' AND s.shipment_id IN (");
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "?" : ", ?");
+            }
+            sql.append(") AND NOT EXISTS (SELECT 1 FROM driver_shipment_assignment dsa " +
+                       "WHERE dsa.shipment_id = s.shipment_id AND dsa.delivered = FALSE) " +
+                       "ORDER BY s.shipment_id FOR UPDATE OF s");
+            try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+                for (int i = from; i < to; i++) {
+                    pstmt.setLong(i - from + 1, ids[i]);
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        open.add(rs.getLong(1));
+                    }
+                }
+            }
+        }
+        return open;
+    }
+}
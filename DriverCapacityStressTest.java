@@ -0,0 +1,110 @@
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Concurrency stress check for assignShipmentToDriver: many threads race to
+// assign more shipments than a driver can take, then the open assignments are
+// counted to prove the driver's limit was never exceeded. Exits non-zero on failure.
+public class DriverCapacityStressTest {
+    private static final long DRIVER_ID = 9001;
+    private static final int DRIVER_LIMIT = 5;
+    private static final long FIRST_SHIPMENT_ID = 900_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int shipments = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        CourierServiceDB db = new CourierServiceDB();
+        try {
+            db.createSchema();
+            setUp(db, shipments);
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger accepted = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < shipments; i++) {
+                long shipmentId = FIRST_SHIPMENT_ID + i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    if (db.assignShipmentToDriver(DRIVER_ID, shipmentId, 1, 2,
+                                                  LocalDateTime.now().plusHours(1), LocalDateTime.now().plusDays(1))) {
+                        accepted.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            long openAssignments = countOpenAssignments(db);
+            long activeLoad = queryLong(db, "SELECT active_load FROM driver WHERE driver_id = ?");
+            System.out.println("Threads: " + threads + ", attempts: " + shipments +
+                               ", accepted: " + accepted.get() + ", open assignments: " + openAssignments +
+                               ", active_load: " + activeLoad + ", limit: " + DRIVER_LIMIT);
+
+            boolean passed = openAssignments <= DRIVER_LIMIT && accepted.get() <= DRIVER_LIMIT
+                             && activeLoad == openAssignments;
+            System.out.println(passed ? "PASS: driver limit held" : "FAIL: driver limit exceeded");
+            if (!passed) {
+                System.exit(1);
+            }
+        } finally {
+            tearDown(db, shipments);
+            db.close();
+        }
+    }
+
+    private static void setUp(CourierServiceDB db, int shipments) throws SQLException {
+        tearDown(db, shipments);
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT IGNORE INTO customer (customer_id, name, contact) VALUES (1, 'Stress Sender', 'n/a')");
+            stmt.execute("INSERT IGNORE INTO location (location_id, name, parent_location_id, pinCode) VALUES (1, 'Stress Hub', NULL, '00000')");
+            stmt.execute("INSERT IGNORE INTO location (location_id, name, parent_location_id, pinCode) VALUES (2, 'Stress Sub Hub', 1, '00001')");
+        }
+        db.registerDriver(DRIVER_ID, "Stress Driver", "STRESS-" + DRIVER_ID, "n/a", DRIVER_LIMIT);
+        for (int i = 0; i < shipments; i++) {
+            db.createShipment(FIRST_SHIPMENT_ID + i, 1, 1, 1, 2, LocalDateTime.now().plusDays(2));
+        }
+    }
+
+    private static void tearDown(CourierServiceDB db, int shipments) throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                     "DELETE FROM driver_shipment_assignment WHERE driver_id = ?")) {
+                pstmt.setLong(1, DRIVER_ID);
+                pstmt.executeUpdate();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM driver WHERE driver_id = ?")) {
+                pstmt.setLong(1, DRIVER_ID);
+                pstmt.executeUpdate();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                     "DELETE FROM shipments WHERE shipment_id BETWEEN ? AND ?")) {
+                pstmt.setLong(1, FIRST_SHIPMENT_ID);
+                pstmt.setLong(2, FIRST_SHIPMENT_ID + shipments - 1);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static long countOpenAssignments(CourierServiceDB db) throws SQLException {
+        return queryLong(db, "SELECT COUNT(*) FROM driver_shipment_assignment WHERE driver_id = ? AND delivered = FALSE");
+    }
+
+    private static long queryLong(CourierServiceDB db, String sql) throws SQLException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, DRIVER_ID);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+}
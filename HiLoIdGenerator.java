@@ -0,0 +1,109 @@
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+// Hi/lo allocator: reserves blocks of blockSize IDs from the id_sequence table and
+// hands them out from memory. Only one database round trip is made per block, and
+// processes sharing the table never receive overlapping blocks.
+//
+// Ids are usually requested inside a transaction that already holds a connection,
+// so blocks must be reserved on a dedicated DataSource, not on the pool those
+// transactions borrow from: with a shared pool, a refill can wait for a connection
+// held by the very threads blocked on the refill. The url constructor opens a
+// single-connection pool of its own for this.
+public class HiLoIdGenerator implements IdGenerator, AutoCloseable {
+    private final DataSource dataSource;
+    // Pool opened by the url constructor; null when the DataSource belongs to the caller
+    private final ConnectionPool ownPool;
+    private final String sequenceName;
+    private final int blockSize;
+    private volatile Block block = new Block(0, 0);
+
+    // dataSource must be dedicated to reserving blocks (see above)
+    public HiLoIdGenerator(DataSource dataSource, String sequenceName, int blockSize) {
+        this(dataSource, null, sequenceName, blockSize);
+    }
+
+    // Reserves blocks on its own connection to url, closed by close()
+    public HiLoIdGenerator(String url, String user, String password, String sequenceName, int blockSize) {
+        this(null, new ConnectionPool(url, user, password, 0, 1), sequenceName, blockSize);
+    }
+
+    private HiLoIdGenerator(DataSource dataSource, ConnectionPool ownPool, String sequenceName, int blockSize) {
+        if (blockSize < 1) {
+            if (ownPool != null) {
+                ownPool.close();
+            }
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.dataSource = ownPool != null ? ownPool : dataSource;
+        this.ownPool = ownPool;
+        this.sequenceName = sequenceName;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public long nextId() throws SQLException {
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return id;
+            }
+            refill(current);
+        }
+    }
+
+    private synchronized void refill(Block exhausted) throws SQLException {
+        if (block != exhausted) {
+            // Another thread already installed a fresh block
+            return;
+        }
+        long hi = reserveHi();
+        block = new Block(hi * blockSize, hi * blockSize + blockSize);
+    }
+
+    // Atomically claim the next hi value; LAST_INSERT_ID(expr) returns it on this connection
+    private long reserveHi() throws SQLException {
+        String insertSql = "INSERT IGNORE INTO id_sequence (name, next_hi) VALUES (?, 1)";
+        String claimSql = "UPDATE id_sequence SET next_hi = LAST_INSERT_ID(next_hi) + 1 WHERE name = ?";
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(claimSql)) {
+                pstmt.setString(1, sequenceName);
+                if (pstmt.executeUpdate() == 0) {
+                    // First use of this sequence: create the row and claim again
+                    try (PreparedStatement insert = conn.prepareStatement(insertSql)) {
+                        insert.setString(1, sequenceName);
+                        insert.executeUpdate();
+                    }
+                    pstmt.executeUpdate();
+                }
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT LAST_INSERT_ID()")) {
+                if (!rs.next()) {
+                    throw new SQLException("Could not reserve ID block for sequence " + sequenceName);
+                }
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownPool != null) {
+            ownPool.close();
+        }
+    }
+
+    // Half-open range [next, end) of IDs owned by this process
+    private static final class Block {
+        final AtomicLong next;
+        final long end;
+
+        Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
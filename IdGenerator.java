@@ -0,0 +1,7 @@
+import java.sql.SQLException;
+
+// Source of unique primary keys for tables without AUTO_INCREMENT
+// (status_logs.log_id, driver_shipment_assignment.assignment_id)
+public interface IdGenerator {
+    long nextId() throws SQLException;
+}
@@ -0,0 +1,233 @@
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+
+// In-memory Euler-tour index over the location tree (location.parent_location_id).
+// Every location gets an entry/exit position from one depth-first walk, so
+// "is A an ancestor of B" is two integer comparisons and the subtree of any hub
+// is one contiguous range of the tour order. The index is an immutable snapshot
+// that refresh() rebuilds from the database; lookups of unknown locations trigger
+// one refresh so newly inserted hubs are picked up. A re-parented location is
+// still a known id, so a snapshot older than maxAgeMillis is also rebuilt on the
+// next lookup, and code that writes location rows should call invalidate() (or
+// CourierServiceDB.invalidateLocation) for the change to show up at once.
+public class LocationHierarchy {
+    public static final long DEFAULT_MAX_AGE_MILLIS = 5 * 60 * 1000L;
+    // Minimum gap between refreshes triggered by lookups of unknown locations
+    private static final long AUTO_REFRESH_INTERVAL_MILLIS = 1000;
+
+    private final DataSource dataSource;
+    private final long maxAgeMillis;
+    private volatile Snapshot snapshot;
+    private volatile long lastRefreshMillis;
+
+    public LocationHierarchy(DataSource dataSource) {
+        this(dataSource, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    public LocationHierarchy(DataSource dataSource, long maxAgeMillis) {
+        this.dataSource = dataSource;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    // Drops the snapshot so the next lookup reloads the tree; call after inserting,
+    // re-parenting or deleting locations
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    // Reload the location tree from the database
+    public boolean refresh() {
+        lastRefreshMillis = System.currentTimeMillis();
+        String sql = "SELECT location_id, parent_location_id FROM location";
+        List<long[]> rows = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                long parent = rs.getLong(2);
+                rows.add(new long[] { rs.getLong(1), rs.wasNull() ? -1 : parent });
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading location hierarchy: " + e.getMessage());
+            return false;
+        }
+        snapshot = new Snapshot(rows);
+        return true;
+    }
+
+    // True if ancestorId is locationId itself or one of its ancestors
+    public boolean isAncestor(long ancestorId, long locationId) {
+        Snapshot current = snapshotFor(ancestorId, locationId);
+        Integer a = current.index.get(ancestorId);
+        Integer b = current.index.get(locationId);
+        return a != null && b != null && current.enter[a] <= current.enter[b] && current.exit[b] <= current.exit[a];
+    }
+
+    // The location and all locations below it, in depth-first order
+    public long[] subtree(long rootId) {
+        Snapshot current = snapshotFor(rootId, rootId);
+        Integer root = current.index.get(rootId);
+        if (root == null) {
+            return new long[0];
+        }
+        return Arrays.copyOfRange(current.tour, current.enter[root], current.exit[root]);
+    }
+
+    // Number of edges between the location and its root hub, or -1 if unknown
+    public int depth(long locationId) {
+        Snapshot current = snapshotFor(locationId, locationId);
+        Integer node = current.index.get(locationId);
+        return node == null ? -1 : current.depth[node];
+    }
+
+    // Parent of the location, or -1 for root hubs and unknown locations
+    public long parent(long locationId) {
+        Snapshot current = snapshotFor(locationId, locationId);
+        Integer node = current.index.get(locationId);
+        return node == null ? -1 : current.parent[node];
+    }
+
+    // The current snapshot as a tour, for callers that index their own data by
+    // location in bulk. Unlike the lookups above it never refreshes on its own, so
+    // every answer comes from the same version of the tree.
+    public Tour tour() {
+        Snapshot current = snapshot;
+        if (current == null || isExpired()) {
+            refresh();
+            current = snapshot;
+        }
+        return new Tour(current == null ? Snapshot.EMPTY : current);
+    }
+
+    // Depth-first positions of one snapshot: the subtree of a location occupies the
+    // positions [enter, exit)
+    public static final class Tour {
+        private final Snapshot snapshot;
+
+        private Tour(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public int size() {
+            return snapshot.tour.length;
+        }
+
+        // Position of the location, or -1 if unknown
+        public int enter(long locationId) {
+            Integer node = snapshot.index.get(locationId);
+            return node == null ? -1 : snapshot.enter[node];
+        }
+
+        // End of the location's subtree range, or -1 if unknown
+        public int exit(long locationId) {
+            Integer node = snapshot.index.get(locationId);
+            return node == null ? -1 : snapshot.exit[node];
+        }
+
+        // Parent of the location, or -1 for root hubs and unknown locations
+        public long parent(long locationId) {
+            Integer node = snapshot.index.get(locationId);
+            return node == null ? -1 : snapshot.parent[node];
+        }
+    }
+
+    private Snapshot snapshotFor(long first, long second) {
+        Snapshot current = snapshot;
+        boolean known = current != null && current.index.containsKey(first) && current.index.containsKey(second);
+        if (current == null || isExpired()
+            || !known && System.currentTimeMillis() - lastRefreshMillis >= AUTO_REFRESH_INTERVAL_MILLIS) {
+            refresh();
+            current = snapshot;
+        }
+        return current == null ? Snapshot.EMPTY : current;
+    }
+
+    private boolean isExpired() {
+        return System.currentTimeMillis() - lastRefreshMillis >= maxAgeMillis;
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(List.of());
+
+        final Map<Long, Integer> index = new HashMap<>();
+        final long[] parent;
+        final int[] depth;
+        // enter[n] is n's position in tour; its subtree occupies tour[enter[n], exit[n])
+        final int[] enter;
+        final int[] exit;
+        final long[] tour;
+
+        Snapshot(List<long[]> rows) {
+            int n = rows.size();
+            parent = new long[n];
+            depth = new int[n];
+            enter = new int[n];
+            exit = new int[n];
+            tour = new long[n];
+            long[] ids = new long[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = rows.get(i)[0];
+                parent[i] = rows.get(i)[1];
+                index.put(ids[i], i);
+            }
+
+            // Child lists as a linked structure over arrays
+            int[] firstChild = new int[n];
+            int[] nextSibling = new int[n];
+            Arrays.fill(firstChild, -1);
+            List<Integer> roots = new ArrayList<>();
+            for (int i = n - 1; i >= 0; i--) {
+                Integer p = parent[i] < 0 ? null : index.get(parent[i]);
+                if (p == null || p == i) {
+                    // Dangling parent references are treated as roots
+                    parent[i] = -1;
+                    roots.add(i);
+                } else {
+                    nextSibling[i] = firstChild[p];
+                    firstChild[p] = i;
+                }
+            }
+
+            // Iterative depth-first walk; nodes never reached from a root sit on a cycle
+            boolean[] visited = new boolean[n];
+            int[] stack = new int[n];
+            int[] cursor = new int[n];
+            int position = 0;
+            for (int r = roots.size() - 1; r >= 0; r--) {
+                int top = 0;
+                int root = roots.get(r);
+                stack[0] = root;
+                cursor[root] = firstChild[root];
+                visited[root] = true;
+                enter[root] = position;
+                tour[position++] = ids[root];
+                while (top >= 0) {
+                    int node = stack[top];
+                    int child = cursor[node];
+                    if (child < 0) {
+                        exit[node] = position;
+                        top--;
+                        continue;
+                    }
+                    cursor[node] = nextSibling[child];
+                    if (visited[child]) {
+                        continue;
+                    }
+                    visited[child] = true;
+                    depth[child] = depth[node] + 1;
+                    cursor[child] = firstChild[child];
+                    enter[child] = position;
+                    tour[position++] = ids[child];
+                    stack[++top] = child;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (!visited[i]) {
+                    System.err.println("Location " + ids[i] + " is part of a parent_location_id cycle; ignored");
+                    index.remove(ids[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,4 @@
+// One package of a manifest, together with the shipment it is assigned to
+public record NewPackage(long packageId, double weight, String description,
+                         long shipmentId, long agentId) {
+}
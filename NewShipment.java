@@ -0,0 +1,6 @@
+import java.time.LocalDateTime;
+
+// One row of a shipment manifest for batch ingestion
+public record NewShipment(long shipmentId, long senderId, long recipientId,
+                          long originId, long destinationId, LocalDateTime estimatedDelivery) {
+}
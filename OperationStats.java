@@ -0,0 +1,92 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram and counters for one CourierServiceDB operation. record() only
+// touches preallocated counters, so instrumented calls allocate nothing unless a
+// JFR recording has the operation event enabled.
+public class OperationStats implements CourierMetrics.OperationMXBean {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Start time to pass to record()
+    long start() {
+        return System.nanoTime();
+    }
+
+    void record(long startNanos, long rowCount, boolean success) {
+        long elapsed = System.nanoTime() - startNanos;
+        latency.recordNanos(elapsed);
+        rows.add(rowCount);
+        if (!success) {
+            failures.increment();
+        }
+        CourierMetrics.emitOperationEvent(name, rowCount, success, elapsed);
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latency.getMeanMicros();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latency.percentileMicros(50);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latency.percentileMicros(99);
+    }
+
+    @Override
+    public long getP999Micros() {
+        return latency.percentileMicros(99.9);
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latency.getMaxMicros();
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        failures.reset();
+        retries.reset();
+        rows.reset();
+    }
+}
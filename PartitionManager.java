@@ -0,0 +1,469 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.sql.DataSource;
+
+// Monthly RANGE partitions for the append-only log tables. maintain() keeps
+// partitions created MONTHS_AHEAD months in advance, and partitions that fall out
+// of the retention window are exported to one gzip file each and then dropped.
+// Archived rows can still be scanned on demand. Month boundaries are UTC.
+//
+// Archive files are tab-separated with a header line, backslash escapes and \N
+// for NULL, so a partition can be restored with
+// LOAD DATA LOCAL INFILE ... IGNORE 1 LINES after gunzip.
+public class PartitionManager implements AutoCloseable {
+    public static final int DEFAULT_MONTHS_AHEAD = 3;
+    public static final int DEFAULT_RETENTION_MONTHS = 12;
+    private static final String FUTURE_PARTITION = "p_future";
+    // Named lock that keeps two processes from reorganizing or dropping partitions at once
+    private static final String LOCK_NAME = "courier_log_partitions";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    // An append-only table partitioned by month on a TIMESTAMP column
+    public enum LogTable {
+        STATUS_LOGS("status_logs", "timestamp",
+                    "log_id", "shipment_id", "location_id", "agent_id", "timestamp", "status", "notes"),
+        PACKAGE_MOVEMENT_LOG("package_movement_log", "moved_at",
+                             "log_id", "package_id", "from_shipment_id", "to_shipment_id", "moved_at",
+                             "moved_by_agent_id", "movement_reason", "notes");
+
+        private final String table;
+        private final String timeColumn;
+        private final String[] columns;
+
+        LogTable(String table, String timeColumn, String... columns) {
+            this.table = table;
+            this.timeColumn = timeColumn;
+            this.columns = columns;
+        }
+
+        public String tableName() {
+            return table;
+        }
+
+        // Index of a column in archived rows
+        public int column(String name) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(name)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("No column " + name + " in " + table);
+        }
+
+        // Partitioning clause with one partition per month from first through last and
+        // p_future above them. Partitioned InnoDB tables cannot have foreign keys, and
+        // the time column must be part of the primary key.
+        String partitionClause(YearMonth first, YearMonth last) {
+            StringBuilder clause = new StringBuilder(" PARTITION BY RANGE (UNIX_TIMESTAMP(" + timeColumn + ")) (");
+            for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+                clause.append(monthPartition(month)).append(", ");
+            }
+            return clause.append("PARTITION ").append(FUTURE_PARTITION).append(" VALUES LESS THAN MAXVALUE)").toString();
+        }
+    }
+
+    private record Partition(String name, long lessThan) {
+        boolean isFuture() {
+            return lessThan == Long.MAX_VALUE;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final Path archiveDir;
+    private volatile int monthsAhead = DEFAULT_MONTHS_AHEAD;
+    private volatile int retentionMonths = DEFAULT_RETENTION_MONTHS;
+    private ScheduledExecutorService scheduler;
+
+    public PartitionManager(DataSource dataSource, Path archiveDir) {
+        this.dataSource = dataSource;
+        this.archiveDir = archiveDir;
+    }
+
+    public void setMonthsAhead(int monthsAhead) {
+        this.monthsAhead = monthsAhead;
+    }
+
+    // Whole months kept in the database before the current one
+    public void setRetentionMonths(int retentionMonths) {
+        this.retentionMonths = retentionMonths;
+    }
+
+    public Path getArchiveDir() {
+        return archiveDir;
+    }
+
+    // Runs maintain() every period, first after one period has passed
+    public synchronized void schedule(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "partition-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::maintain, period, period, unit);
+    }
+
+    // Start of the oldest month that lookups treat as recent (the previous month);
+    // reads bounded below by it touch at most the current and previous partitions
+    public static Instant recentBoundary() {
+        return monthStart(currentMonth().minusMonths(1));
+    }
+
+    // Partitions unpartitioned log tables created by older schemas, then maintains them
+    public synchronized boolean ensurePartitioned() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            acquireLock(conn);
+            try {
+                for (LogTable table : LogTable.values()) {
+                    List<Partition> partitions = partitions(conn, table);
+                    if (partitions != null && partitions.isEmpty()) {
+                        convert(conn, stmt, table);
+                    }
+                }
+                maintain(conn, stmt);
+            } finally {
+                releaseLock(conn);
+            }
+            return true;
+        } catch (SQLException | IOException e) {
+            System.err.println("Error partitioning log tables: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void convert(Connection conn, Statement stmt, LogTable table) throws SQLException {
+        List<String> foreignKeys = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "SELECT CONSTRAINT_NAME FROM information_schema.TABLE_CONSTRAINTS " +
+                 "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND CONSTRAINT_TYPE = 'FOREIGN KEY'")) {
+            pstmt.setString(1, table.table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    foreignKeys.add(rs.getString(1));
+                }
+            }
+        }
+        for (String foreignKey : foreignKeys) {
+            stmt.execute("ALTER TABLE " + table.table + " DROP FOREIGN KEY " + foreignKey);
+        }
+        stmt.execute("ALTER TABLE " + table.table +
+                     " MODIFY " + table.timeColumn + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                     " DROP PRIMARY KEY, ADD PRIMARY KEY (log_id, " + table.timeColumn + ")");
+        stmt.execute("ALTER TABLE " + table.table +
+                     table.partitionClause(firstMonth(stmt, table), currentMonth().plusMonths(monthsAhead)));
+        System.out.println("Partitioned " + table.table + " by month");
+    }
+
+    // Creates partitions ahead of time and archives expired ones. Holds a named lock
+    // so that processes sharing the database do not reorganize or drop partitions
+    // concurrently.
+    public synchronized boolean maintain() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            acquireLock(conn);
+            try {
+                maintain(conn, stmt);
+            } finally {
+                releaseLock(conn);
+            }
+            return true;
+        } catch (SQLException | IOException e) {
+            System.err.println("Error maintaining log partitions: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void maintain(Connection conn, Statement stmt) throws SQLException, IOException {
+        for (LogTable table : LogTable.values()) {
+            List<Partition> partitions = partitions(conn, table);
+            if (partitions == null || partitions.isEmpty()) {
+                continue;
+            }
+            addMonthsAhead(stmt, table, partitions);
+            archiveExpired(conn, stmt, table, partitions);
+        }
+    }
+
+    private static void acquireLock(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another process to finish partition maintenance");
+                }
+            }
+        }
+    }
+
+    private static void releaseLock(Connection conn) {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.executeQuery().close();
+        } catch (SQLException e) {
+            // The lock is released with the session anyway
+        }
+    }
+
+    // Range partitions in order; empty if the table is not partitioned, null if it does not exist
+    private List<Partition> partitions(Connection conn, LogTable table) throws SQLException {
+        String sql = "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? ORDER BY PARTITION_ORDINAL_POSITION";
+        List<Partition> partitions = new ArrayList<>();
+        boolean exists = false;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table.table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    exists = true;
+                    String name = rs.getString(1);
+                    if (name != null) {
+                        String bound = rs.getString(2);
+                        partitions.add(new Partition(name, "MAXVALUE".equals(bound) ? Long.MAX_VALUE : Long.parseLong(bound)));
+                    }
+                }
+            }
+        }
+        return exists ? partitions : null;
+    }
+
+    private void addMonthsAhead(Statement stmt, LogTable table, List<Partition> partitions) throws SQLException {
+        long highest = Long.MIN_VALUE;
+        boolean hasFuture = false;
+        for (Partition partition : partitions) {
+            if (partition.isFuture()) {
+                hasFuture = true;
+            } else {
+                highest = Math.max(highest, partition.lessThan());
+            }
+        }
+        StringBuilder added = new StringBuilder();
+        // Rows already in p_future go to their own months rather than the current one:
+        // start at the oldest row, or right after the highest month partition if
+        // maintenance has not run for a while
+        YearMonth month = highest == Long.MIN_VALUE ? firstMonth(stmt, table)
+                        : YearMonth.from(Instant.ofEpochSecond(highest).atZone(ZoneOffset.UTC));
+        if (month.isAfter(currentMonth())) {
+            month = currentMonth();
+        }
+        YearMonth last = currentMonth().plusMonths(monthsAhead);
+        for (; !month.isAfter(last); month = month.plusMonths(1)) {
+            long lessThan = monthStart(month.plusMonths(1)).getEpochSecond();
+            if (lessThan > highest) {
+                added.append(added.length() == 0 ? "" : ", ").append(monthPartition(month));
+            }
+        }
+        if (added.length() == 0) {
+            return;
+        }
+        if (hasFuture) {
+            stmt.execute("ALTER TABLE " + table.table + " REORGANIZE PARTITION " + FUTURE_PARTITION + " INTO (" +
+                         added + ", PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN MAXVALUE)");
+        } else {
+            stmt.execute("ALTER TABLE " + table.table + " ADD PARTITION (" + added + ")");
+        }
+    }
+
+    // Month of the oldest row, or the current month if the table has no older rows.
+    // Existing history gets one partition per month, so it is archived month by month.
+    private static YearMonth firstMonth(Statement stmt, LogTable table) throws SQLException {
+        YearMonth current = currentMonth();
+        try (ResultSet rs = stmt.executeQuery("SELECT MIN(" + table.timeColumn + ") FROM " + table.table)) {
+            Timestamp oldest = rs.next() ? rs.getTimestamp(1) : null;
+            if (oldest == null) {
+                return current;
+            }
+            YearMonth month = YearMonth.from(oldest.toInstant().atZone(ZoneOffset.UTC));
+            return month.isBefore(current) ? month : current;
+        }
+    }
+
+    private void archiveExpired(Connection conn, Statement stmt, LogTable table,
+                                List<Partition> partitions) throws SQLException, IOException {
+        long cutoff = monthStart(currentMonth().minusMonths(retentionMonths)).getEpochSecond();
+        for (Partition partition : partitions) {
+            if (partition.isFuture() || partition.lessThan() > cutoff) {
+                continue;
+            }
+            long rows = archive(conn, table, partition.name());
+            // The file is durable before the rows go, so a crash in between only repeats the export
+            stmt.execute("ALTER TABLE " + table.table + " DROP PARTITION " + partition.name());
+            System.out.println("Archived " + rows + " rows of " + table.table + " partition " + partition.name());
+        }
+    }
+
+    private long archive(Connection conn, LogTable table, String partition) throws SQLException, IOException {
+        Path dir = archiveDir.resolve(table.table);
+        Files.createDirectories(dir);
+        Path target = dir.resolve(archiveFileName(table, partition));
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        String sql = "SELECT " + String.join(", ", table.columns) + " FROM " + table.table +
+                    " PARTITION (" + partition + ")";
+        long rows = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = pstmt.executeQuery();
+                 FileOutputStream file = new FileOutputStream(temp.toFile())) {
+                GZIPOutputStream gzip = new GZIPOutputStream(file);
+                Writer out = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8));
+                out.write(String.join("\t", table.columns));
+                out.write('\n');
+                while (rs.next()) {
+                    for (int c = 1; c <= table.columns.length; c++) {
+                        if (c > 1) {
+                            out.write('\t');
+                        }
+                        writeField(out, rs.getString(c));
+                    }
+                    out.write('\n');
+                    rows++;
+                }
+                out.flush();
+                gzip.finish();
+                file.getFD().sync();
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    private static void writeField(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("\\N");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': out.write("\\\\"); break;
+                case '\t': out.write("\\t"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                default: out.write(c);
+            }
+        }
+    }
+
+    // End of the newest archived month, or null if nothing has been archived;
+    // rows written at or after it are never in the archive
+    public Instant archivedThrough(LogTable table) {
+        List<Path> files = archiveFiles(table);
+        if (files.isEmpty()) {
+            return null;
+        }
+        return monthStart(monthOf(table, files.get(0)).plusMonths(1));
+    }
+
+    // Streams archived rows whose column equals value, newest partition first.
+    // Every archive file of the table is decompressed, so this is for occasional lookups.
+    public long scanArchive(LogTable table, String column, String value, Consumer<String[]> consumer) {
+        int index = table.column(column);
+        long matched = 0;
+        for (Path file : archiveFiles(table)) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                     new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+                in.readLine();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length == table.columns.length && value.equals(unescape(fields[index]))) {
+                        for (int i = 0; i < fields.length; i++) {
+                            fields[i] = unescape(fields[i]);
+                        }
+                        consumer.accept(fields);
+                        matched++;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading archive " + file + ": " + e.getMessage());
+            }
+        }
+        return matched;
+    }
+
+    private static String unescape(String field) {
+        if (field.equals("\\N")) {
+            return null;
+        }
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Monthly archive files, newest first
+    private List<Path> archiveFiles(LogTable table) {
+        Path dir = archiveDir.resolve(table.table);
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        String prefix = table.table + "-p";
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, table.table + "-p??????.tsv.gz")) {
+            for (Path entry : entries) {
+                files.add(entry);
+            }
+        } catch (IOException e) {
+            System.err.println("Error listing archive " + dir + ": " + e.getMessage());
+        }
+        files.sort(Comparator.comparing((Path p) -> p.getFileName().toString()).reversed());
+        files.removeIf(p -> !Character.isDigit(p.getFileName().toString().charAt(prefix.length())));
+        return files;
+    }
+
+    private static String archiveFileName(LogTable table, String partition) {
+        return table.table + "-" + partition + ".tsv.gz";
+    }
+
+    private static YearMonth monthOf(LogTable table, Path file) {
+        String digits = file.getFileName().toString().substring(table.table.length() + 2, table.table.length() + 8);
+        return YearMonth.of(Integer.parseInt(digits.substring(0, 4)), Integer.parseInt(digits.substring(4)));
+    }
+
+    private static String partitionName(YearMonth month) {
+        return String.format("p%04d%02d", month.getYear(), month.getMonthValue());
+    }
+
+    // Partition definition holding the rows of one month
+    private static String monthPartition(YearMonth month) {
+        return "PARTITION " + partitionName(month) + " VALUES LESS THAN (" +
+               monthStart(month.plusMonths(1)).getEpochSecond() + ")";
+    }
+
+    private static YearMonth currentMonth() {
+        return YearMonth.now(ZoneOffset.UTC);
+    }
+
+    private static Instant monthStart(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+import java.sql.Timestamp;
+import java.util.*;
+
+// A shipment assigned to a driver and not yet picked up
+public record PendingShipment(long shipmentId, String senderName, String recipientName,
+                              String originLocation, String destinationLocation,
+                              Timestamp estimatedDeliveryTime, Timestamp assignedAt,
+                              Timestamp estimatedPickupTime) {
+
+    // Legacy row shape returned by CourierServiceDB.getPendingShipmentsForDriver
+    public Map<String, Object> toMap() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("shipment_id", shipmentId);
+        row.put("sender_name", senderName);
+        row.put("recipient_name", recipientName);
+        row.put("origin_location", originLocation);
+        row.put("destination_location", destinationLocation);
+        row.put("estimated_delivery_time", estimatedDeliveryTime);
+        row.put("assigned_at", assignedAt);
+        row.put("estimated_pickup_time", estimatedPickupTime);
+        return row;
+    }
+}
@@ -0,0 +1,210 @@
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Supplier;
+
+// Query-plan regression check. Runs each CourierServiceDB operation once against a
+// seeded database, collects the statements it issues through the statement cache
+// and EXPLAINs every SELECT, UPDATE and DELETE with the bind values it actually
+// used. An operation fails the check when one of its statements reads a table with
+// a full table or full index scan (EXPLAIN type ALL or index) estimated at
+// MIN_SCAN_ROWS rows or more, so small reference tables may still be scanned.
+//
+// Only meaningful at benchmark scale: on a near-empty database every plan is a
+// scan. BenchmarkMain runs it against each seeded dataset before benchmarking;
+// it can also be run directly with --url=, --user= and --password=.
+// Writes a shipment and a package (ids from node MAX_NODE_ID) into the database.
+public class QueryPlanCheck {
+    public static final long MIN_SCAN_ROWS = 1000;
+    private static final String NOTES = "Query plan check";
+
+    // Tables whose statistics are refreshed first so the optimizer sees the seeded sizes
+    private static final String[] ANALYZED_TABLES = {
+        "shipments", "package", "package_shipment_assignment", "driver_shipment_assignment",
+        "status_logs", "package_movement_log", "daily_shipment_volume", "driver"
+    };
+
+    private final CourierServiceDB db;
+    private final IdGenerator idGenerator = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID);
+    // Operation -> SQL -> binds of its first execution, in execution order
+    private final Map<String, Map<String, Object[]>> statements = new LinkedHashMap<>();
+    private final List<String> problems = new ArrayList<>();
+    private Thread checkThread;
+    private volatile String currentOperation;
+
+    public QueryPlanCheck(CourierServiceDB db) {
+        this.db = db;
+    }
+
+    // Problems found, one per line; empty when every plan is acceptable
+    public List<String> run() {
+        problems.clear();
+        statements.clear();
+        checkThread = Thread.currentThread();
+        SlowQueryLog slowQueryLog = db.getSlowQueryLog();
+        slowQueryLog.setStatementListener(this::captured);
+        try {
+            analyzeTables();
+            runOperations();
+            explainAll();
+        } catch (SQLException e) {
+            problems.add("Query plan check failed: " + e.getMessage());
+        } finally {
+            slowQueryLog.setStatementListener(null);
+            currentOperation = null;
+        }
+        return new ArrayList<>(problems);
+    }
+
+    private void captured(String sql, Object[] binds) {
+        String operation = currentOperation;
+        // Statements from background threads (delay watcher, log writer) belong to no operation
+        if (operation != null && Thread.currentThread() == checkThread) {
+            statements.computeIfAbsent(operation, k -> new LinkedHashMap<>()).putIfAbsent(sql, binds);
+        }
+    }
+
+    private void analyzeTables() throws SQLException {
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String table : ANALYZED_TABLES) {
+                stmt.execute("ANALYZE TABLE " + table);
+            }
+        }
+    }
+
+    private void runOperations() throws SQLException {
+        long existingShipment;
+        long sender;
+        long recipient;
+        long origin;
+        long driver;
+        long agent;
+        long rootLocation;
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery(
+                     "SELECT shipment_id, sender_id, recipient_id, origin_id FROM shipments ORDER BY shipment_id LIMIT 1")) {
+                if (!rs.next()) {
+                    throw new SQLException("the database has no shipments; seed it first");
+                }
+                existingShipment = rs.getLong(1);
+                sender = rs.getLong(2);
+                recipient = rs.getLong(3);
+                origin = rs.getLong(4);
+            }
+            driver = firstId(stmt, "SELECT driver_id FROM driver WHERE active_load < `limit` LIMIT 1", "driver with capacity");
+            agent = firstId(stmt, "SELECT agent_id FROM agent LIMIT 1", "agent");
+            rootLocation = firstId(stmt, "SELECT location_id FROM location WHERE parent_location_id IS NULL LIMIT 1",
+                                   "root location");
+        }
+        long shipment = idGenerator.nextId();
+        long packageId = idGenerator.nextId();
+        LocalDateTime now = LocalDateTime.now();
+
+        check("createShipment", () -> db.createShipment(shipment, sender, recipient, origin, origin, now.plusDays(3)));
+        check("addPackageToShipment", () -> db.addPackageToShipment(packageId, 1.0, NOTES, shipment, agent));
+        check("assignShipmentToDriver", () -> db.assignShipmentToDriver(driver, shipment, origin, origin,
+                                                                        now, now.plusDays(1)));
+        check("updateShipmentStatus", () -> db.updateShipmentStatus(shipment, "in_transit", agent, NOTES));
+        // A movement reason, which the move maps to the assignment's removal reason
+        check("movePackageBetweenShipments", () -> db.movePackageBetweenShipments(packageId, shipment, existingShipment,
+                                                                                  agent, "reassignment", NOTES));
+        // Also fails the check if the move left the package where it was
+        check("findCurrentShipment", () -> db.findCurrentShipment(packageId) == existingShipment);
+        check("findCurrentShipments", () -> db.findCurrentShipments(List.of(packageId)));
+        // Delivery also releases the driver's slot
+        check("updateShipmentStatus", () -> db.updateShipmentStatus(shipment, "delivered", agent, NOTES));
+        check("findShipmentLog", () -> db.findShipmentLog(existingShipment));
+        check("findPendingShipmentsForDriver", () -> db.findPendingShipmentsForDriver(driver));
+        // First page, then a keyset page after it
+        check("findDelayedShipmentsPage", () -> {
+            List<DelayedShipment> page = db.findDelayedShipmentsPage(null, 50);
+            return page.isEmpty() ? page : db.findDelayedShipmentsPage(page.get(page.size() - 1), 50);
+        });
+        check("findDailyShipmentVolume", db::findDailyShipmentVolume);
+        check("findSubtreeShipmentVolume", () -> db.findSubtreeShipmentVolume(rootLocation));
+        check("findSubtreePendingShipments", () -> db.findSubtreePendingShipments(rootLocation));
+        check("findSubtreeDelayedShipments", () -> db.findSubtreeDelayedShipments(rootLocation));
+    }
+
+    private static long firstId(Statement stmt, String sql, String what) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next()) {
+                throw new SQLException("the database has no " + what + "; seed it first");
+            }
+            return rs.getLong(1);
+        }
+    }
+
+    private void check(String operation, Supplier<Object> call) {
+        currentOperation = operation;
+        try {
+            if (Boolean.FALSE.equals(call.get())) {
+                problems.add(operation + ": the operation failed, so its plans were not all checked");
+            }
+        } finally {
+            currentOperation = null;
+        }
+    }
+
+    private void explainAll() throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            for (Map.Entry<String, Map<String, Object[]>> operation : statements.entrySet()) {
+                for (Map.Entry<String, Object[]> statement : operation.getValue().entrySet()) {
+                    explain(conn, operation.getKey(), statement.getKey(), statement.getValue());
+                }
+            }
+        }
+    }
+
+    private void explain(Connection conn, String operation, String sql, Object[] binds) throws SQLException {
+        String verb = sql.stripLeading();
+        verb = verb.substring(0, Math.min(6, verb.length())).toUpperCase();
+        if (!verb.equals("SELECT") && !verb.equals("UPDATE") && !verb.equals("DELETE")) {
+            return;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN FORMAT=TRADITIONAL " + sql)) {
+            for (int i = 0; i < binds.length; i++) {
+                pstmt.setObject(i + 1, binds[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String type = rs.getString("type");
+                    long rows = rs.getLong("rows");
+                    if (("ALL".equals(type) || "index".equals(type)) && rows >= MIN_SCAN_ROWS) {
+                        problems.add(operation + ": full " + ("ALL".equals(type) ? "table" : "index") + " scan of " +
+                                     rs.getString("table") + " (~" + rows + " rows) in " + sql);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Usage: QueryPlanCheck [--url=jdbc:mysql://...] [--user=...] [--password=...]");
+                System.exit(2);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        CourierServiceDB db = new CourierServiceDB(new ConnectionPool(
+            options.getOrDefault("url", "jdbc:mysql://localhost:3306/courier_bench_10000"),
+            options.getOrDefault("user", "root"), options.getOrDefault("password", "password"), 1, 4));
+        List<String> problems;
+        try {
+            problems = new QueryPlanCheck(db).run();
+        } finally {
+            db.close();
+        }
+        if (problems.isEmpty()) {
+            System.out.println("Query plans OK: no hot query scans a large table");
+            return;
+        }
+        problems.forEach(System.err::println);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,311 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Routes CourierServiceDB's reads between the primary and a set of replica pools.
+// Writes always use the primary. Reads go to the healthy replica with the fewest
+// borrowed connections, round-robin among ties; with no healthy replica they go
+// to the primary.
+//
+// A health check polls every replica's replication status and takes replicas
+// whose SQL thread has stopped or that lag more than maxLagMillis out of
+// rotation until they recover; a replica that fails to hand out a connection is
+// ejected immediately.
+//
+// Read-your-writes: when a ReadSession is bound, reads carrying its token use a
+// replica only once it has applied the token's GTID set, checked on the borrowed
+// connection and optionally waited for up to catchUpTimeoutMillis; otherwise the
+// read goes to the primary. Without GTIDs (gtid_mode OFF) the session reads from
+// the primary for maxLagMillis after its last write.
+public class ReadRouter implements AutoCloseable {
+    public static final long DEFAULT_MAX_LAG_MILLIS = 5000;
+    public static final long DEFAULT_HEALTH_CHECK_MILLIS = 2000;
+
+    private static final class Replica {
+        final ConnectionPool pool;
+        final AtomicLong reads = new AtomicLong();
+        volatile boolean healthy = true;
+        volatile long lagMillis = -1;
+        volatile String lastError;
+
+        Replica(ConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    private final ConnectionPool primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+    private volatile long maxLagMillis = DEFAULT_MAX_LAG_MILLIS;
+    private volatile long catchUpTimeoutMillis;
+    // Null until the primary's gtid_mode has been read
+    private volatile Boolean gtidEnabled;
+
+    private final AtomicLong primaryReads = new AtomicLong();
+    private final AtomicLong consistencyFallbacks = new AtomicLong();
+    private final AtomicLong ejections = new AtomicLong();
+
+    public ReadRouter(ConnectionPool primary, List<ConnectionPool> replicaPools) {
+        this(primary, replicaPools, DEFAULT_HEALTH_CHECK_MILLIS);
+    }
+
+    public ReadRouter(ConnectionPool primary, List<ConnectionPool> replicaPools, long healthCheckMillis) {
+        this.primary = primary;
+        for (ConnectionPool pool : replicaPools) {
+            replicas.add(new Replica(pool));
+        }
+        if (replicas.isEmpty()) {
+            healthChecker = null;
+            return;
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "read-router-health");
+            t.setDaemon(true);
+            return t;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    // Replicas lagging further are taken out of rotation; also how long a session
+    // without GTIDs keeps reading from the primary after a write
+    public void setMaxLagMillis(long maxLagMillis) {
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    // How long a read waits for a replica to apply the session's last write before
+    // going to the primary; 0 checks once without waiting
+    public void setCatchUpTimeoutMillis(long catchUpTimeoutMillis) {
+        this.catchUpTimeoutMillis = catchUpTimeoutMillis;
+    }
+
+    // Connection for a read, honoring the current thread's ReadSession
+    public Connection getReadConnection() throws SQLException {
+        if (replicas.isEmpty()) {
+            return primary.getConnection();
+        }
+        ReadSession session = ReadSession.current();
+        ReadSession.Token token = session == null ? null : session.getToken();
+        if (token != null && token.gtidSet() == null) {
+            if (System.currentTimeMillis() - token.writtenAtMillis() < maxLagMillis) {
+                consistencyFallbacks.incrementAndGet();
+                return readFromPrimary();
+            }
+            token = null;
+        }
+        for (Replica replica = pick(); replica != null; replica = pick()) {
+            Connection conn;
+            try {
+                conn = replica.pool.getConnection();
+            } catch (SQLException e) {
+                eject(replica, e.getMessage());
+                continue;
+            }
+            boolean caughtUp;
+            try {
+                caughtUp = token == null || hasApplied(conn, token.gtidSet());
+            } catch (SQLException e) {
+                conn.close();
+                eject(replica, e.getMessage());
+                continue;
+            }
+            if (caughtUp) {
+                replica.reads.incrementAndGet();
+                return conn;
+            }
+            conn.close();
+            consistencyFallbacks.incrementAndGet();
+            break;
+        }
+        return readFromPrimary();
+    }
+
+    // Aborts the connections thread holds on the primary and on every replica
+    public int abortConnectionsOf(Thread thread) {
+        int aborted = primary.abortConnectionsOf(thread);
+        for (Replica replica : replicas) {
+            aborted += replica.pool.abortConnectionsOf(thread);
+        }
+        return aborted;
+    }
+
+    private Connection readFromPrimary() throws SQLException {
+        primaryReads.incrementAndGet();
+        return primary.getConnection();
+    }
+
+    // Records the consistency token of a write just committed on conn in the current
+    // thread's session. Costs a round trip, so only sessions with replicas pay it.
+    public void recordWrite(Connection conn) {
+        ReadSession session = ReadSession.current();
+        if (session == null || replicas.isEmpty()) {
+            return;
+        }
+        String gtidSet = null;
+        try {
+            if (isGtidEnabled(conn)) {
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT @@GLOBAL.gtid_executed")) {
+                    rs.next();
+                    gtidSet = rs.getString(1);
+                }
+            }
+        } catch (SQLException e) {
+            // A token without a GTID set still routes the session's reads to the primary for a while
+            System.err.println("Error reading the primary's GTID position: " + e.getMessage());
+        }
+        session.advance(new ReadSession.Token(gtidSet, System.currentTimeMillis()));
+    }
+
+    private boolean isGtidEnabled(Connection conn) throws SQLException {
+        Boolean enabled = gtidEnabled;
+        if (enabled == null) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT @@GLOBAL.gtid_mode")) {
+                enabled = rs.next() && "ON".equalsIgnoreCase(rs.getString(1));
+            }
+            gtidEnabled = enabled;
+        }
+        return enabled;
+    }
+
+    private boolean hasApplied(Connection conn, String gtidSet) throws SQLException {
+        long timeout = catchUpTimeoutMillis;
+        // WAIT_FOR_EXECUTED_GTID_SET returns 0 once the set is applied and 1 on timeout
+        String sql = timeout > 0 ? "SELECT WAIT_FOR_EXECUTED_GTID_SET(?, ?) = 0"
+                                 : "SELECT GTID_SUBSET(?, @@GLOBAL.gtid_executed)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, gtidSet);
+            if (timeout > 0) {
+                pstmt.setDouble(2, timeout / 1000.0);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    // Healthy replica with the fewest borrowed connections, or null
+    private Replica pick() {
+        int size = replicas.size();
+        int offset = Math.floorMod(nextReplica.getAndIncrement(), size);
+        Replica best = null;
+        int bestActive = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((offset + i) % size);
+            if (!replica.healthy) {
+                continue;
+            }
+            int active = replica.pool.getActiveConnections();
+            if (active < bestActive) {
+                best = replica;
+                bestActive = active;
+            }
+        }
+        return best;
+    }
+
+    private void eject(Replica replica, String reason) {
+        replica.lastError = reason;
+        if (replica.healthy) {
+            replica.healthy = false;
+            ejections.incrementAndGet();
+            System.err.println("Replica " + replica.pool.getUrl() + " taken out of rotation: " + reason);
+        }
+    }
+
+    private void checkHealth() {
+        for (Replica replica : replicas) {
+            String problem;
+            try (Connection conn = replica.pool.getConnection()) {
+                problem = replicationProblem(conn, replica);
+            } catch (SQLException e) {
+                problem = e.getMessage();
+            }
+            if (problem != null) {
+                eject(replica, problem);
+            } else if (!replica.healthy) {
+                replica.lastError = null;
+                replica.healthy = true;
+                System.out.println("Replica " + replica.pool.getUrl() + " back in rotation");
+            }
+        }
+    }
+
+    // Why the replica should not serve reads, or null if it is fit to
+    private String replicationProblem(Connection conn, Replica replica) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = replicaStatus(stmt)) {
+            if (!rs.next()) {
+                return "not replicating";
+            }
+            if (!"Yes".equalsIgnoreCase(column(rs, "Replica_SQL_Running", "Slave_SQL_Running"))) {
+                return "replication SQL thread stopped";
+            }
+            String lag = column(rs, "Seconds_Behind_Source", "Seconds_Behind_Master");
+            if (lag == null) {
+                return "replication lag unknown (I/O thread stopped)";
+            }
+            replica.lagMillis = Long.parseLong(lag) * 1000;
+            if (replica.lagMillis > maxLagMillis) {
+                return "replication lag " + lag + " s exceeds " + maxLagMillis + " ms";
+            }
+            return null;
+        }
+    }
+
+    // SHOW REPLICA STATUS needs MySQL 8.0.22; older servers only know SHOW SLAVE STATUS
+    private static ResultSet replicaStatus(Statement stmt) throws SQLException {
+        try {
+            return stmt.executeQuery("SHOW REPLICA STATUS");
+        } catch (SQLSyntaxErrorException e) {
+            return stmt.executeQuery("SHOW SLAVE STATUS");
+        }
+    }
+
+    private static String column(ResultSet rs, String name, String legacyName) throws SQLException {
+        try {
+            return rs.getString(rs.findColumn(name));
+        } catch (SQLException e) {
+            return rs.getString(rs.findColumn(legacyName));
+        }
+    }
+
+    // Routing counters and per-replica health
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("primary_reads", primaryReads.get());
+        metrics.put("consistency_fallbacks", consistencyFallbacks.get());
+        metrics.put("ejections", ejections.get());
+        List<Map<String, Object>> replicaMetrics = new ArrayList<>();
+        for (Replica replica : replicas) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("url", replica.pool.getUrl());
+            entry.put("healthy", replica.healthy);
+            entry.put("lag_ms", replica.lagMillis);
+            entry.put("reads", replica.reads.get());
+            entry.put("active_connections", replica.pool.getActiveConnections());
+            entry.put("last_error", replica.lastError);
+            replicaMetrics.add(entry);
+        }
+        metrics.put("replicas", replicaMetrics);
+        return metrics;
+    }
+
+    // Stops health checks and closes the replica pools; the primary belongs to the caller
+    @Override
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+}
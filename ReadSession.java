@@ -0,0 +1,59 @@
+// Read-your-writes context of one client session. While a session is bound to the
+// current thread, CourierServiceDB records a consistency token after each write and
+// ReadRouter only serves the session's reads from a replica that has applied it,
+// falling back to the primary otherwise. Unbound reads may be served by any
+// healthy replica.
+//
+//   ReadSession session = ...;   // kept with the client's session, e.g. per user
+//   try (ReadSession.Scope scope = session.bind()) {
+//       db.updateShipmentStatus(...);
+//       db.getShipmentStatusAndLog(...);   // sees the update
+//   }
+public final class ReadSession {
+    // Primary's executed GTID set after the write, or null when GTIDs are off, in
+    // which case the session reads from the primary for the replica lag bound
+    public record Token(String gtidSet, long writtenAtMillis) {
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final ThreadLocal<ReadSession> CURRENT = new ThreadLocal<>();
+
+    private Token token;
+
+    public synchronized Token getToken() {
+        return token;
+    }
+
+    // Restores a token saved elsewhere, e.g. carried between application servers
+    public synchronized void setToken(Token token) {
+        this.token = token;
+    }
+
+    // Keeps the newest token; GTID sets read after later commits contain earlier ones
+    synchronized void advance(Token written) {
+        if (token == null || written.writtenAtMillis() >= token.writtenAtMillis()) {
+            token = written;
+        }
+    }
+
+    // Makes this the current thread's session until the scope is closed
+    public Scope bind() {
+        return bind(this);
+    }
+
+    // Binds session (null for none) to the current thread, restoring the previous binding on close
+    public static Scope bind(ReadSession session) {
+        ReadSession previous = CURRENT.get();
+        CURRENT.set(session);
+        return () -> CURRENT.set(previous);
+    }
+
+    // Session bound to the current thread, or null
+    public static ReadSession current() {
+        return CURRENT.get();
+    }
+}
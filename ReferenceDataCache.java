@@ -0,0 +1,390 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+// In-process read-through cache for the slowly changing reference tables
+// (customer, location, agent, driver). Each table is a bounded LRU region whose
+// entries expire after a TTL, shortened by up to TTL_JITTER so entries loaded
+// together do not all expire together. Ids that have no row are cached as misses
+// for at most NEGATIVE_TTL_MILLIS. Misses are loaded from the database on demand,
+// warmUp() bulk-loads every table at startup, and writers call the invalidate
+// methods so the next read reloads the row.
+//
+// A miss borrows a connection, so never look up while holding one from the same
+// pool: read the ids into a Batch, release the connection, then resolve() the
+// batch, which loads all of its misses with one IN query per table.
+public class ReferenceDataCache {
+    public record Customer(long customerId, String name, String contact) {
+    }
+
+    public record Location(long locationId, String name, Long parentLocationId, String pinCode) {
+    }
+
+    public record Agent(long agentId, String name, String contacts) {
+    }
+
+    // Capacity (limit) is cached; the driver's live active_load is not
+    public record Driver(long driverId, String name, String licenseNumber, String contact, long limit) {
+    }
+
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L;
+    public static final long NEGATIVE_TTL_MILLIS = 60 * 1000L;
+    // Fraction of the TTL by which each entry's expiry is randomly brought forward
+    private static final double TTL_JITTER = 0.2;
+    // Ids per IN list when loading a batch's misses
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final DataSource dataSource;
+    private final Region<Customer> customers;
+    private final Region<Location> locations;
+    private final Region<Agent> agents;
+    private final Region<Driver> drivers;
+
+    public ReferenceDataCache(DataSource dataSource) {
+        this(dataSource, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    public ReferenceDataCache(DataSource dataSource, int maxEntriesPerTable, long ttlMillis) {
+        this.dataSource = dataSource;
+        this.customers = new Region<>("customer", "SELECT customer_id, name, contact FROM customer",
+            "customer_id", maxEntriesPerTable, ttlMillis,
+            rs -> new Customer(rs.getLong(1), rs.getString(2), rs.getString(3)));
+        this.locations = new Region<>("location", "SELECT location_id, name, parent_location_id, pinCode FROM location",
+            "location_id", maxEntriesPerTable, ttlMillis,
+            rs -> {
+                long parent = rs.getLong(3);
+                return new Location(rs.getLong(1), rs.getString(2), rs.wasNull() ? null : parent, rs.getString(4));
+            });
+        this.agents = new Region<>("agent", "SELECT agent_id, name, contacts FROM agent",
+            "agent_id", maxEntriesPerTable, ttlMillis,
+            rs -> new Agent(rs.getLong(1), rs.getString(2), rs.getString(3)));
+        this.drivers = new Region<>("driver", "SELECT driver_id, name, license_number, contact, `limit` FROM driver",
+            "driver_id", maxEntriesPerTable, ttlMillis,
+            rs -> new Driver(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getLong(5)));
+    }
+
+    // Bulk-load every reference table, up to each region's capacity
+    public void warmUp() {
+        for (Region<?> region : regions()) {
+            try {
+                region.loadAll();
+            } catch (SQLException e) {
+                System.err.println("Reference data warm-up skipped for " + region.table + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public Customer getCustomer(long customerId) {
+        return customers.get(customerId);
+    }
+
+    public Location getLocation(long locationId) {
+        return locations.get(locationId);
+    }
+
+    public Agent getAgent(long agentId) {
+        return agents.get(agentId);
+    }
+
+    public Driver getDriver(long driverId) {
+        return drivers.get(driverId);
+    }
+
+    // Name lookups for result mapping; null if the row does not exist
+    public String customerName(long customerId) {
+        Customer customer = customers.get(customerId);
+        return customer == null ? null : customer.name();
+    }
+
+    public String agentName(long agentId) {
+        Agent agent = agents.get(agentId);
+        return agent == null ? null : agent.name();
+    }
+
+    // Collects the reference ids a result needs; see the class comment
+    public Batch batch() {
+        return new Batch();
+    }
+
+    public final class Batch {
+        private final Set<Long> customerIds = new HashSet<>();
+        private final Set<Long> locationIds = new HashSet<>();
+        private final Set<Long> agentIds = new HashSet<>();
+        private final Set<Long> driverIds = new HashSet<>();
+        private Map<Long, Customer> customerRows = Map.of();
+        private Map<Long, Location> locationRows = Map.of();
+        private Map<Long, Agent> agentRows = Map.of();
+        private Map<Long, Driver> driverRows = Map.of();
+
+        private Batch() {
+        }
+
+        // Registration returns the id so it can be read and registered in one step
+        public long customer(long customerId) {
+            customerIds.add(customerId);
+            return customerId;
+        }
+
+        public long location(long locationId) {
+            locationIds.add(locationId);
+            return locationId;
+        }
+
+        public long agent(long agentId) {
+            agentIds.add(agentId);
+            return agentId;
+        }
+
+        public long driver(long driverId) {
+            driverIds.add(driverId);
+            return driverId;
+        }
+
+        // Looks up every registered id, loading the misses; call with no connection held
+        public Batch resolve() {
+            customerRows = customers.getAll(customerIds);
+            locationRows = locations.getAll(locationIds);
+            agentRows = agents.getAll(agentIds);
+            driverRows = drivers.getAll(driverIds);
+            return this;
+        }
+
+        // Lookups after resolve(); null for ids without a row
+        public Customer getCustomer(long customerId) {
+            return customerRows.get(customerId);
+        }
+
+        public Location getLocation(Long locationId) {
+            return locationId == null ? null : locationRows.get(locationId);
+        }
+
+        public Agent getAgent(Long agentId) {
+            return agentId == null ? null : agentRows.get(agentId);
+        }
+
+        public Driver getDriver(Long driverId) {
+            return driverId == null ? null : driverRows.get(driverId);
+        }
+
+        public String customerName(long customerId) {
+            Customer customer = getCustomer(customerId);
+            return customer == null ? null : customer.name();
+        }
+
+        public String locationName(Long locationId) {
+            Location location = getLocation(locationId);
+            return location == null ? null : location.name();
+        }
+
+        public String agentName(Long agentId) {
+            Agent agent = getAgent(agentId);
+            return agent == null ? null : agent.name();
+        }
+    }
+
+    public void invalidateCustomer(long customerId) {
+        customers.invalidate(customerId);
+    }
+
+    public void invalidateLocation(long locationId) {
+        locations.invalidate(locationId);
+    }
+
+    public void invalidateAgent(long agentId) {
+        agents.invalidate(agentId);
+    }
+
+    public void invalidateDriver(long driverId) {
+        drivers.invalidate(driverId);
+    }
+
+    public void invalidateAll() {
+        for (Region<?> region : regions()) {
+            region.clear();
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Region<?> region : regions()) {
+            metrics.put(region.table + "_entries", region.size());
+            metrics.put(region.table + "_hits", region.hits.get());
+            metrics.put(region.table + "_misses", region.misses.get());
+        }
+        return metrics;
+    }
+
+    private List<Region<?>> regions() {
+        return List.of(customers, locations, agents, drivers);
+    }
+
+    // Maps one reference row, reading columns by position
+    private interface Mapper<V> {
+        V map(ResultSet rs) throws SQLException;
+    }
+
+    private final class Region<V> {
+        private final String table;
+        private final String selectAllSql;
+        private final String selectOneSql;
+        private final String keyColumn;
+        private final int maxEntries;
+        private final long ttlMillis;
+        private final Mapper<V> mapper;
+        private final LinkedHashMap<Long, Entry<V>> entries;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        // Bumped by every invalidation; a load that started under an older generation
+        // may have read a row from before the invalidating write, and is not cached
+        private long generation;
+
+        Region(String table, String selectAllSql, String keyColumn, int maxEntries, long ttlMillis, Mapper<V> mapper) {
+            this.table = table;
+            this.selectAllSql = selectAllSql;
+            this.selectOneSql = selectAllSql + " WHERE " + keyColumn + " = ?";
+            this.keyColumn = keyColumn;
+            this.maxEntries = maxEntries;
+            this.ttlMillis = ttlMillis;
+            this.mapper = mapper;
+            this.entries = new LinkedHashMap<Long, Entry<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry<V>> eldest) {
+                    return size() > Region.this.maxEntries;
+                }
+            };
+        }
+
+        V get(long id) {
+            Entry<V> cached = getIfFresh(id);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.value();
+            }
+            misses.incrementAndGet();
+            long loadedAt = generation();
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(selectOneSql)) {
+                pstmt.setLong(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    V value = rs.next() ? mapper.map(rs) : null;
+                    put(id, value, loadedAt);
+                    return value;
+                }
+            } catch (SQLException e) {
+                System.err.println("Error loading " + table + " " + id + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        // The rows of the given ids that exist. Misses are loaded on one connection in
+        // IN lists of LOAD_BATCH_SIZE; ids still without a row are cached as misses.
+        Map<Long, V> getAll(Collection<Long> ids) {
+            Map<Long, V> found = new HashMap<>(ids.size() * 2);
+            List<Long> missing = new ArrayList<>();
+            for (long id : ids) {
+                Entry<V> cached = getIfFresh(id);
+                if (cached == null) {
+                    missing.add(id);
+                } else if (cached.value() != null) {
+                    found.put(id, cached.value());
+                }
+            }
+            hits.addAndGet(ids.size() - missing.size());
+            if (missing.isEmpty()) {
+                return found;
+            }
+            misses.addAndGet(missing.size());
+            long loadedAt = generation();
+            try (Connection conn = dataSource.getConnection()) {
+                for (int from = 0; from < missing.size(); from += LOAD_BATCH_SIZE) {
+                    List<Long> chunk = missing.subList(from, Math.min(from + LOAD_BATCH_SIZE, missing.size()));
+                    String sql = selectAllSql + " WHERE " + keyColumn + " IN (" +
+                                 String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            pstmt.setLong(i + 1, chunk.get(i));
+                        }
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            while (rs.next()) {
+                                V value = mapper.map(rs);
+                                long id = rs.getLong(1);
+                                found.put(id, value);
+                                put(id, value, loadedAt);
+                            }
+                        }
+                    }
+                    for (long id : chunk) {
+                        if (!found.containsKey(id)) {
+                            put(id, null, loadedAt);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Error loading " + missing.size() + " " + table + " rows: " + e.getMessage());
+            }
+            return found;
+        }
+
+        void loadAll() throws SQLException {
+            long loadedAt = generation();
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(selectAllSql + " LIMIT " + maxEntries);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    put(rs.getLong(1), mapper.map(rs), loadedAt);
+                }
+            }
+        }
+
+        // The cached entry, whose value is null for a cached miss; null if not cached or expired
+        private synchronized Entry<V> getIfFresh(long id) {
+            Entry<V> entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() > entry.expiresAt()) {
+                entries.remove(id);
+                return null;
+            }
+            return entry;
+        }
+
+        private synchronized long generation() {
+            return generation;
+        }
+
+        // Caches a value loaded under generation loadedAt, unless an invalidation came
+        // in since. A null value caches the id as having no row.
+        private void put(long id, V value, long loadedAt) {
+            long ttl = value == null ? Math.min(ttlMillis, NEGATIVE_TTL_MILLIS) : ttlMillis;
+            long jitter = (long) (ttl * TTL_JITTER * ThreadLocalRandom.current().nextDouble());
+            Entry<V> entry = new Entry<>(value, System.currentTimeMillis() + ttl - jitter);
+            synchronized (this) {
+                if (generation == loadedAt) {
+                    entries.put(id, entry);
+                }
+            }
+        }
+
+        synchronized void invalidate(long id) {
+            generation++;
+            entries.remove(id);
+        }
+
+        synchronized void clear() {
+            generation++;
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    // A null value is a cached miss
+    private record Entry<V>(V value, long expiresAt) {
+    }
+}
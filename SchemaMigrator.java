@@ -0,0 +1,487 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import javax.sql.DataSource;
+
+// Versioned schema migrations. Each migration is an ordered list of steps whose
+// text is checksummed; applied versions are recorded in schema_migrations and
+// never rerun. A migration whose checksum no longer matches the recorded one
+// stops the run, so released migrations must not be edited - add a new version
+// instead. MySQL commits DDL implicitly, so steps are written to be safe to
+// repeat and a migration is only recorded once all of its steps have succeeded.
+// improved_courier_schema.sql mirrors the schema at the latest version.
+public class SchemaMigrator {
+    // Named lock that keeps two processes from migrating the same database at once
+    private static final String LOCK_NAME = "courier_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    // One step of a migration; text() is what the checksum covers
+    public interface Step {
+        String text();
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private interface Work {
+        void run(Connection conn) throws SQLException;
+    }
+
+    public record Migration(int version, String description, List<Step> steps) {
+        public String checksum() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (Step step : steps) {
+                    digest.update(step.text().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '\n');
+                }
+                return HexFormat.of().formatHex(digest.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+        new Migration(1, "Baseline schema", List.of(
+            // Customer table
+            sql("CREATE TABLE IF NOT EXISTS customer (" +
+                "customer_id BIGINT PRIMARY KEY," +
+                "name VARCHAR(100) NOT NULL," +
+                "contact VARCHAR(50) NOT NULL" +
+                ")"),
+
+            // Location table
+            sql("CREATE TABLE IF NOT EXISTS location (" +
+                "location_id BIGINT PRIMARY KEY," +
+                "name VARCHAR(100) NOT NULL," +
+                "parent_location_id BIGINT NULL," +
+                "pinCode VARCHAR(20) NOT NULL," +
+                "FOREIGN KEY (parent_location_id) REFERENCES location(location_id)" +
+                ")"),
+
+            // Agent table
+            sql("CREATE TABLE IF NOT EXISTS agent (" +
+                "agent_id BIGINT PRIMARY KEY," +
+                "name VARCHAR(100) NOT NULL," +
+                "contacts VARCHAR(100) NOT NULL" +
+                ")"),
+
+            // Driver table
+            sql("CREATE TABLE IF NOT EXISTS driver (" +
+                "driver_id BIGINT PRIMARY KEY," +
+                "name VARCHAR(100) NOT NULL," +
+                "license_number VARCHAR(50) UNIQUE NOT NULL," +
+                "contact VARCHAR(50) NOT NULL," +
+                "`limit` BIGINT DEFAULT 5," +
+                "active_load BIGINT NOT NULL DEFAULT 0" +
+                ")"),
+
+            // Shipments table
+            sql("CREATE TABLE IF NOT EXISTS shipments (" +
+                "shipment_id BIGINT PRIMARY KEY," +
+                "sender_id BIGINT NOT NULL," +
+                "recipient_id BIGINT NOT NULL," +
+                "origin_id BIGINT NOT NULL," +
+                "destination_id BIGINT NOT NULL," +
+                "status ENUM('pending', 'in_transit', 'delivered', 'returned') DEFAULT 'pending'," +
+                "created_time DATETIME DEFAULT CURRENT_TIMESTAMP," +
+                "estimated_delivery_time DATETIME," +
+                "actual_delivery DATETIME NULL," +
+                "FOREIGN KEY (sender_id) REFERENCES customer(customer_id)," +
+                "FOREIGN KEY (recipient_id) REFERENCES customer(customer_id)," +
+                "FOREIGN KEY (origin_id) REFERENCES location(location_id)," +
+                "FOREIGN KEY (destination_id) REFERENCES location(location_id)" +
+                ")"),
+
+            // Package table
+            sql("CREATE TABLE IF NOT EXISTS package (" +
+                "package_id BIGINT PRIMARY KEY," +
+                "weight DECIMAL(8,2) NOT NULL," +
+                "description VARCHAR(500) NOT NULL," +
+                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                "is_active BOOLEAN DEFAULT TRUE" +
+                ")"),
+
+            // Package shipment assignment table
+            sql("CREATE TABLE IF NOT EXISTS package_shipment_assignment (" +
+                "assignment_id BIGINT PRIMARY KEY AUTO_INCREMENT," +
+                "package_id BIGINT NOT NULL," +
+                "shipment_id BIGINT NOT NULL," +
+                "assigned_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                "removed_at TIMESTAMP NULL," +
+                "assigned_by_agent_id BIGINT," +
+                "removal_reason ENUM('reassigned', 'damaged', 'lost', 'returned', 'other') NULL," +
+                "notes TEXT," +
+                "FOREIGN KEY (package_id) REFERENCES package(package_id)," +
+                "FOREIGN KEY (shipment_id) REFERENCES shipments(shipment_id)," +
+                "FOREIGN KEY (assigned_by_agent_id) REFERENCES agent(agent_id)" +
+                ")"),
+
+            // Driver shipment assignment table
+            sql("CREATE TABLE IF NOT EXISTS driver_shipment_assignment (" +
+                "assignment_id BIGINT PRIMARY KEY," +
+                "driver_id BIGINT NOT NULL," +
+                "shipment_id BIGINT NOT NULL," +
+                "start_location_id BIGINT NOT NULL," +
+                "end_location_id BIGINT NOT NULL," +
+                "delivered BOOLEAN DEFAULT FALSE," +
+                "assigned_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                "estimated_pickup_time DATETIME," +
+                "actual_pickup_time DATETIME NULL," +
+                "estimated_delivery_time DATETIME," +
+                "actual_delivery_time DATETIME NULL," +
+                "FOREIGN KEY (driver_id) REFERENCES driver(driver_id)," +
+                "FOREIGN KEY (shipment_id) REFERENCES shipments(shipment_id)," +
+                "FOREIGN KEY (start_location_id) REFERENCES location(location_id)," +
+                "FOREIGN KEY (end_location_id) REFERENCES location(location_id)" +
+                ")"),
+
+            // Status logs table, partitioned by month (no foreign keys on partitioned tables)
+            sql("CREATE TABLE IF NOT EXISTS status_logs (" +
+                "log_id BIGINT NOT NULL," +
+                "shipment_id BIGINT NOT NULL," +
+                "location_id BIGINT," +
+                "agent_id BIGINT," +
+                "timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "status ENUM('pending', 'in_transit', 'delivered', 'returned') NOT NULL," +
+                "notes TEXT," +
+                "PRIMARY KEY (log_id, timestamp)," +
+                "KEY idx_status_logs_shipment (shipment_id, timestamp)" +
+                ")" + " PARTITION BY RANGE (UNIX_TIMESTAMP(timestamp)) (PARTITION p_future VALUES LESS THAN MAXVALUE)"),
+
+            // Package movement log table, partitioned by month
+            sql("CREATE TABLE IF NOT EXISTS package_movement_log (" +
+                "log_id BIGINT NOT NULL AUTO_INCREMENT," +
+                "package_id BIGINT NOT NULL," +
+                "from_shipment_id BIGINT NULL," +
+                "to_shipment_id BIGINT NULL," +
+                "moved_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "moved_by_agent_id BIGINT," +
+                "movement_reason ENUM('reassignment', 'consolidation', 'split_shipment', 'damage', 'customer_request', 'other')," +
+                "notes TEXT," +
+                "PRIMARY KEY (log_id, moved_at)" +
+                ")" + " PARTITION BY RANGE (UNIX_TIMESTAMP(moved_at)) (PARTITION p_future VALUES LESS THAN MAXVALUE)"),
+
+            // ID sequence table for HiLoIdGenerator
+            sql("CREATE TABLE IF NOT EXISTS id_sequence (" +
+                "name VARCHAR(64) PRIMARY KEY," +
+                "next_hi BIGINT NOT NULL" +
+                ")"),
+
+            // Daily volume rollup table
+            sql("CREATE TABLE IF NOT EXISTS daily_shipment_volume (" +
+                "shipment_date DATE NOT NULL," +
+                "origin_id BIGINT NOT NULL," +
+                "total_shipments BIGINT NOT NULL DEFAULT 0," +
+                "delivered_shipments BIGINT NOT NULL DEFAULT 0," +
+                "in_transit_shipments BIGINT NOT NULL DEFAULT 0," +
+                "pending_shipments BIGINT NOT NULL DEFAULT 0," +
+                "total_weight_kg DECIMAL(14,2) NOT NULL DEFAULT 0," +
+                "PRIMARY KEY (shipment_date, origin_id)," +
+                "FOREIGN KEY (origin_id) REFERENCES location(location_id)" +
+                ")"),
+
+            // Driver tables created before active_load existed
+            addColumn("driver", "active_load", "BIGINT NOT NULL DEFAULT 0",
+                      "UPDATE driver d SET d.active_load = " +
+                      "(SELECT COUNT(*) FROM driver_shipment_assignment dsa " +
+                      "WHERE dsa.driver_id = d.driver_id AND dsa.delivered = FALSE)"),
+
+            createIndex("idx_package_shipment_assignment_package", "package_shipment_assignment", "package_id"),
+            createIndex("idx_package_shipment_assignment_shipment", "package_shipment_assignment", "shipment_id"),
+            createIndex("idx_package_shipment_assignment_active", "package_shipment_assignment", "package_id, removed_at"),
+            createIndex("idx_package_movement_log_package", "package_movement_log", "package_id"),
+            createIndex("idx_package_movement_log_timestamp", "package_movement_log", "moved_at"),
+            createIndex("idx_status_logs_shipment", "status_logs", "shipment_id, timestamp"),
+            createIndex("idx_shipments_status", "shipments", "status"),
+            createIndex("idx_shipments_estimated_delivery", "shipments", "estimated_delivery_time"),
+            createIndex("idx_driver_assignment_driver_delivered", "driver_shipment_assignment", "driver_id, delivered"),
+
+            // Populate the daily volume rollup on databases that predate it
+            custom("populate daily_shipment_volume from shipments", conn -> {
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT 1 FROM daily_shipment_volume LIMIT 1")) {
+                    if (!rs.next()) {
+                        DailyVolumeRollup.rebuild(conn, LocalDate.of(1000, 1, 1));
+                    }
+                }
+            })
+        )),
+
+        new Migration(2, "Indexes for hot lookups and joins", List.of(
+            // Open-assignment lookups by shipment: delayed-shipment join, delivery release
+            createIndex("idx_driver_assignment_shipment", "driver_shipment_assignment", "shipment_id, delivered"),
+            // Rollup rebuilds and per-day, per-origin scans
+            createIndex("idx_shipments_created_origin", "shipments", "created_time, origin_id"),
+            // Open shipments past their deadline; the status prefix keeps delivered history out of the range
+            createIndex("idx_shipments_status_estimated_delivery", "shipments", "status, estimated_delivery_time"),
+            // Covered by the composite index above
+            dropIndex("idx_shipments_status", "shipments")
+        )),
+
+        new Migration(3, "Bulk load checkpoints", List.of(
+            // Records loaded per source file, committed with the rows themselves
+            sql("CREATE TABLE IF NOT EXISTS bulk_load_checkpoints (" +
+                "table_name VARCHAR(64) NOT NULL," +
+                "source_file VARCHAR(255) NOT NULL," +
+                "fingerprint VARCHAR(64) NOT NULL," +
+                "records_loaded BIGINT NOT NULL DEFAULT 0," +
+                "completed BOOLEAN NOT NULL DEFAULT FALSE," +
+                "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP," +
+                "PRIMARY KEY (table_name, source_file)" +
+                ")")
+        )),
+
+        new Migration(4, "Shipment event outbox", List.of(
+            // Written in the transaction of the change; the auto-increment id is the delivery order
+            sql("CREATE TABLE IF NOT EXISTS shipment_events (" +
+                "event_id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                "shipment_id BIGINT NOT NULL," +
+                "event_type ENUM('status_changed', 'driver_assigned', 'package_added', 'package_removed') NOT NULL," +
+                "status VARCHAR(20) NULL," +
+                "driver_id BIGINT NULL," +
+                "package_id BIGINT NULL," +
+                "related_shipment_id BIGINT NULL," +
+                "agent_id BIGINT NULL," +
+                "notes TEXT," +
+                "created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)," +
+                "KEY idx_shipment_events_created (created_at)" +
+                ")"),
+            // Last event each subscriber has processed
+            sql("CREATE TABLE IF NOT EXISTS shipment_event_offsets (" +
+                "subscriber VARCHAR(128) PRIMARY KEY," +
+                "last_event_id BIGINT NOT NULL," +
+                "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+                ")")
+        )),
+
+        new Migration(5, "Current shipment pointer on package", List.of(
+            // Shipment of the package's open assignment, maintained with package_shipment_assignment
+            addColumn("package", "current_shipment_id", "BIGINT NULL",
+                      "UPDATE package p JOIN package_shipment_assignment psa " +
+                      "ON psa.package_id = p.package_id AND psa.removed_at IS NULL " +
+                      "SET p.current_shipment_id = psa.shipment_id")
+        )),
+
+        new Migration(6, "Driver limit not null", List.of(
+            // Every capacity guard compares active_load with `limit`; a NULL limit failed them all
+            sql("UPDATE driver SET `limit` = 5 WHERE `limit` IS NULL"),
+            sql("ALTER TABLE driver MODIFY `limit` BIGINT NOT NULL DEFAULT 5")
+        ))
+    );
+
+    private final DataSource dataSource;
+
+    public SchemaMigrator(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public static List<Migration> migrations() {
+        return MIGRATIONS;
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
+
+    // Applies pending migrations in version order and returns how many were applied.
+    // Fails without applying anything if an applied migration's checksum changed.
+    public int migrate() throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(true);
+            acquireLock(conn);
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                                 "version INT PRIMARY KEY," +
+                                 "description VARCHAR(200) NOT NULL," +
+                                 "checksum CHAR(64) NOT NULL," +
+                                 "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                                 "execution_millis BIGINT NOT NULL" +
+                                 ")");
+                }
+                Map<Integer, String> applied = appliedChecksums(conn);
+                for (Migration migration : MIGRATIONS) {
+                    String recorded = applied.get(migration.version());
+                    if (recorded != null && !recorded.equals(migration.checksum())) {
+                        throw new SQLException("Migration " + migration.version() + " (" + migration.description() +
+                                               ") was changed after it was applied: recorded checksum " + recorded +
+                                               ", current " + migration.checksum());
+                    }
+                }
+                for (Integer version : applied.keySet()) {
+                    if (version > latestVersion()) {
+                        System.err.println("Database is at schema version " + version +
+                                           ", newer than this build's " + latestVersion());
+                    }
+                }
+                int count = 0;
+                for (Migration migration : MIGRATIONS) {
+                    if (!applied.containsKey(migration.version())) {
+                        apply(conn, migration);
+                        count++;
+                    }
+                }
+                return count;
+            } finally {
+                releaseLock(conn);
+            }
+        }
+    }
+
+    private void apply(Connection conn, Migration migration) throws SQLException {
+        long start = System.currentTimeMillis();
+        for (Step step : migration.steps()) {
+            try {
+                step.apply(conn);
+            } catch (SQLException e) {
+                throw new SQLException("Migration " + migration.version() + " failed at: " + step.text() +
+                                       ": " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT INTO schema_migrations (version, description, checksum, execution_millis) VALUES (?, ?, ?, ?)")) {
+            pstmt.setInt(1, migration.version());
+            pstmt.setString(2, migration.description());
+            pstmt.setString(3, migration.checksum());
+            pstmt.setLong(4, elapsed);
+            pstmt.executeUpdate();
+        }
+        System.out.println("Applied schema migration " + migration.version() + ": " + migration.description() +
+                           " (" + elapsed + " ms)");
+    }
+
+    private static Map<Integer, String> appliedChecksums(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new TreeMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_migrations")) {
+            while (rs.next()) {
+                applied.put(rs.getInt(1), rs.getString(2));
+            }
+        }
+        return applied;
+    }
+
+    // Version, description and time of every applied migration
+    public List<Map<String, Object>> getAppliedMigrations() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                 "SELECT version, description, applied_at, execution_millis FROM schema_migrations ORDER BY version")) {
+            while (rs.next()) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("version", rs.getInt(1));
+                row.put("description", rs.getString(2));
+                row.put("applied_at", rs.getTimestamp(3));
+                row.put("execution_millis", rs.getLong(4));
+                result.add(row);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading schema migrations: " + e.getMessage());
+        }
+        return result;
+    }
+
+    private static void acquireLock(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another process to finish migrating the schema");
+                }
+            }
+        }
+    }
+
+    private static void releaseLock(Connection conn) {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.executeQuery().close();
+        } catch (SQLException e) {
+            // The lock is released with the session anyway
+        }
+    }
+
+    private static Step sql(String sql) {
+        return custom(sql, conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(sql);
+            }
+        });
+    }
+
+    // MySQL has no CREATE INDEX IF NOT EXISTS, so the catalog is checked first
+    private static Step createIndex(String name, String table, String columns) {
+        return custom("CREATE INDEX " + name + " ON " + table + "(" + columns + ")", conn -> {
+            if (!indexExists(conn, table, name)) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE INDEX " + name + " ON " + table + "(" + columns + ")");
+                }
+            }
+        });
+    }
+
+    private static Step dropIndex(String name, String table) {
+        return custom("DROP INDEX " + name + " ON " + table, conn -> {
+            if (indexExists(conn, table, name)) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("DROP INDEX " + name + " ON " + table);
+                }
+            }
+        });
+    }
+
+    // Adds the column if missing and then runs backfillSql to populate it
+    private static Step addColumn(String table, String column, String definition, String backfillSql) {
+        return custom("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition + "; " + backfillSql, conn -> {
+            if (columnExists(conn, table, column)) {
+                return;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+                stmt.executeUpdate(backfillSql);
+            }
+        });
+    }
+
+    private static Step custom(String text, Work work) {
+        return new Step() {
+            @Override
+            public String text() {
+                return text;
+            }
+
+            @Override
+            public void apply(Connection conn) throws SQLException {
+                work.run(conn);
+            }
+        };
+    }
+
+    private static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        return catalogHas(conn, "SELECT 1 FROM information_schema.STATISTICS " +
+                                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ? LIMIT 1",
+                          table, index);
+    }
+
+    private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        return catalogHas(conn, "SELECT 1 FROM information_schema.COLUMNS " +
+                                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?",
+                          table, column);
+    }
+
+    private static boolean catalogHas(Connection conn, String sql, String table, String name) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Maps shipments to shards and runs work across them for ShardedCourierService.
+// Each shard is a full CourierServiceDB over its own database.
+//
+// SHIPMENT_ID mode hashes the shipment id, so any process can route without
+// lookups. REGION mode places a new shipment on the shard of its origin's region,
+// the root hub above the origin in the location tree; regions without an explicit
+// assignment are hashed. Region-placed shipments are then found through an
+// in-process directory that is filled on creation and, on a miss, by probing every
+// shard in parallel.
+public class ShardRouter implements AutoCloseable {
+    public enum Mode { SHIPMENT_ID, REGION }
+
+    // Directory entries kept before the directory is cleared and refilled by probes
+    private static final int DIRECTORY_CAPACITY = 1_000_000;
+
+    private final List<CourierServiceDB> shards;
+    private final Mode mode;
+    private final Map<Long, Integer> regionShards = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> directory = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    public ShardRouter(List<CourierServiceDB> shards, Mode mode) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+        this.mode = mode;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-scatter-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    public CourierServiceDB shard(int index) {
+        return shards.get(index);
+    }
+
+    public List<CourierServiceDB> shards() {
+        return shards;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // REGION mode: new shipments whose origin lies under this root hub go to the shard
+    public void assignRegion(long regionLocationId, int shard) {
+        Objects.checkIndex(shard, shards.size());
+        regionShards.put(regionLocationId, shard);
+    }
+
+    // Stable bucket for a key; the mix spreads sequential and Snowflake ids evenly
+    public static int bucket(long key, int buckets) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) Math.floorMod(key, (long) buckets);
+    }
+
+    // Shard a new shipment is created on
+    public int shardForNewShipment(long shipmentId, long originId) {
+        if (mode == Mode.SHIPMENT_ID) {
+            return bucket(shipmentId, shards.size());
+        }
+        long region = regionOf(originId);
+        int shard = regionShards.getOrDefault(region, bucket(region, shards.size()));
+        remember(shipmentId, shard);
+        return shard;
+    }
+
+    // Shard holding an existing shipment, or -1 if no shard has it
+    public int shardForShipment(long shipmentId) {
+        if (mode == Mode.SHIPMENT_ID) {
+            return bucket(shipmentId, shards.size());
+        }
+        Integer known = directory.get(shipmentId);
+        if (known != null) {
+            return known;
+        }
+        List<Boolean> found = scatter(db -> hasShipment(db, shipmentId));
+        int shard = found.indexOf(Boolean.TRUE);
+        if (shard >= 0) {
+            remember(shipmentId, shard);
+        }
+        return shard;
+    }
+
+    // Shard whose driver row holds the driver's authoritative active_load
+    public int homeShardOfDriver(long driverId) {
+        return bucket(driverId, shards.size());
+    }
+
+    private void remember(long shipmentId, int shard) {
+        if (directory.size() >= DIRECTORY_CAPACITY) {
+            directory.clear();
+        }
+        directory.put(shipmentId, shard);
+    }
+
+    // Root hub above the location; locations are replicated, so any shard's tree will do
+    private long regionOf(long locationId) {
+        LocationHierarchy hierarchy = shards.get(0).getLocationHierarchy();
+        long region = locationId;
+        for (long parent = hierarchy.parent(region); parent >= 0; parent = hierarchy.parent(region)) {
+            region = parent;
+        }
+        return region;
+    }
+
+    private static boolean hasShipment(CourierServiceDB db, long shipmentId) {
+        try (Connection conn = db.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM shipments WHERE shipment_id = ?")) {
+            pstmt.setLong(1, shipmentId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error locating shipment " + shipmentId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Runs work on every shard in parallel and returns the results in shard order
+    public <T> List<T> scatter(Function<CourierServiceDB, T> work) {
+        return scatterByIndex(shard -> work.apply(shards.get(shard)));
+    }
+
+    // As scatter, for work that needs the shard's index
+    public <T> List<T> scatterByIndex(IntFunction<T> work) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = i;
+            futures.add(CompletableFuture.supplyAsync(() -> work.apply(shard), executor));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        return results;
+    }
+
+    // Merges streams that are each sorted by order into one sorted stream, pulling
+    // one element at a time from each source; closing it closes every source
+    public static <T> Stream<T> mergeSorted(List<Stream<T>> sources, Comparator<? super T> order) {
+        List<Iterator<T>> iterators = new ArrayList<>(sources.size());
+        for (Stream<T> source : sources) {
+            iterators.add(source.iterator());
+        }
+        // Heads of the sources, by position, so ties keep shard order
+        PriorityQueue<Map.Entry<T, Integer>> heads = new PriorityQueue<>(Math.max(1, sources.size()),
+            Map.Entry.<T, Integer>comparingByKey(order).thenComparing(Map.Entry.comparingByValue()));
+        boolean[] primed = new boolean[1];
+        Spliterator<T> merged = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (!primed[0]) {
+                    primed[0] = true;
+                    for (int i = 0; i < iterators.size(); i++) {
+                        advance(i);
+                    }
+                }
+                Map.Entry<T, Integer> head = heads.poll();
+                if (head == null) {
+                    return false;
+                }
+                advance(head.getValue());
+                action.accept(head.getKey());
+                return true;
+            }
+
+            private void advance(int source) {
+                Iterator<T> iterator = iterators.get(source);
+                if (iterator.hasNext()) {
+                    heads.add(new AbstractMap.SimpleImmutableEntry<>(iterator.next(), source));
+                }
+            }
+        };
+        return StreamSupport.stream(merged, false).onClose(() -> {
+            RuntimeException failure = null;
+            for (Stream<T> source : sources) {
+                try {
+                    source.close();
+                } catch (RuntimeException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,820 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// CourierServiceDB spread over N databases. A shipment and its shipment-scoped
+// rows (packages, package and driver assignments, status and movement logs, the
+// rollup buckets of its origin) live on the shard ShardRouter places it on, so
+// every per-shipment operation runs on a single CourierServiceDB. Reference tables
+// (customer, location, agent, driver) are replicated to every shard.
+//
+// Reports that span shipments run on all shards in parallel and merge the
+// per-shard results in the order the single-database queries return them.
+//
+// A driver's capacity is counted on its home shard: that shard's driver.active_load
+// covers the driver's open assignments on every shard, while the other shards'
+// copies only count their own. Cross-shard bookkeeping is not atomic; after a crash
+// reconcileDriverLoad recomputes the counts.
+//
+// Configured like CourierServiceDB with the comma-separated courier.db.shardUrls
+// and courier.db.shardMode (SHIPMENT_ID or REGION).
+public class ShardedCourierService implements AutoCloseable {
+    private static final String SHARD_URLS = System.getProperty("courier.db.shardUrls", "");
+    private static final String SHARD_MODE = System.getProperty("courier.db.shardMode", "SHIPMENT_ID");
+    private static final String USER = System.getProperty("courier.db.user", "root");
+    private static final String PASS = System.getProperty("courier.db.password", "password");
+    private static final long NODE_ID = Long.getLong("courier.nodeId", 0L);
+
+    private static final int POOL_MIN_SIZE = 2;
+    private static final int POOL_MAX_SIZE = 10;
+
+    private static final String OPEN_ASSIGNMENT_DRIVERS_SQL =
+        "SELECT driver_id FROM driver_shipment_assignment WHERE shipment_id = ? AND delivered = FALSE";
+    private static final String RESERVE_DRIVER_SQL =
+        "UPDATE driver SET active_load = active_load + 1 WHERE driver_id = ? AND active_load < `limit`";
+    private static final String RELEASE_DRIVER_SQL =
+        "UPDATE driver SET active_load = GREATEST(active_load - 1, 0) WHERE driver_id = ?";
+
+    private final ShardRouter router;
+
+    public ShardedCourierService() {
+        this(shardPools(), ShardRouter.Mode.valueOf(SHARD_MODE));
+    }
+
+    // One CourierServiceDB per pool; they share a generator so generated keys are unique across shards
+    public ShardedCourierService(List<ConnectionPool> shardPools, ShardRouter.Mode mode) {
+        this(new ShardRouter(shards(shardPools, new SnowflakeIdGenerator(NODE_ID)), mode));
+    }
+
+    // Shards built by the caller, e.g. with replica pools for read routing
+    public ShardedCourierService(ShardRouter router) {
+        this.router = router;
+    }
+
+    private static List<ConnectionPool> shardPools() {
+        List<ConnectionPool> pools = new ArrayList<>();
+        for (String url : SHARD_URLS.split(",")) {
+            if (!url.isBlank()) {
+                pools.add(new ConnectionPool(url.trim(), USER, PASS, POOL_MIN_SIZE, POOL_MAX_SIZE));
+            }
+        }
+        if (pools.isEmpty()) {
+            throw new IllegalStateException("courier.db.shardUrls lists no shards");
+        }
+        return pools;
+    }
+
+    private static List<CourierServiceDB> shards(List<ConnectionPool> pools, IdGenerator idGenerator) {
+        List<CourierServiceDB> shards = new ArrayList<>();
+        for (ConnectionPool pool : pools) {
+            shards.add(new CourierServiceDB(pool, idGenerator));
+        }
+        return shards;
+    }
+
+    public ShardRouter getRouter() {
+        return router;
+    }
+
+    // Create or upgrade the schema on every shard
+    public void createSchema() {
+        router.scatter(db -> {
+            db.createSchema();
+            return null;
+        });
+    }
+
+    // Write to a replicated reference table on every shard, e.g. to add a customer
+    // or location, and drop the shards' cached copies. True if every shard applied it.
+    // Shards apply the write independently, so after a partial failure some shards
+    // have it and others do not; sql must therefore be idempotent (an upsert such as
+    // INSERT ... ON DUPLICATE KEY UPDATE, or an UPDATE/DELETE by key) so that
+    // retrying the same call converges.
+    public boolean executeOnAllShards(String sql, Object... params) {
+        List<Boolean> applied = router.scatterByIndex(shard -> {
+            CourierServiceDB db = router.shard(shard);
+            try (Connection conn = db.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < params.length; i++) {
+                    pstmt.setObject(i + 1, params[i]);
+                }
+                pstmt.executeUpdate();
+                return true;
+            } catch (SQLException e) {
+                System.err.println("Error writing reference data on shard " + shard + ": " + e.getMessage());
+                return false;
+            } finally {
+                db.getReferenceData().invalidateAll();
+                db.getLocationHierarchy().refresh();
+            }
+        });
+        return !applied.contains(Boolean.FALSE);
+    }
+
+    // Function 1, on the shard the router places the shipment on
+    public boolean createShipment(long shipmentId, long senderId, long recipientId,
+                                  long originId, long destinationId, LocalDateTime estimatedDelivery) {
+        return router.shard(router.shardForNewShipment(shipmentId, originId))
+                     .createShipment(shipmentId, senderId, recipientId, originId, destinationId, estimatedDelivery);
+    }
+
+    // Function 2, on the shipment's shard
+    public boolean addPackageToShipment(long packageId, double weight, String description,
+                                        long shipmentId, long agentId) {
+        CourierServiceDB shard = shardOf(shipmentId);
+        return shard != null && shard.addPackageToShipment(packageId, weight, description, shipmentId, agentId);
+    }
+
+    // Batch variant of Function 1: the manifest is split by shard and the parts run in parallel
+    public BatchResult createShipments(List<NewShipment> shipments) {
+        int[] shardOfRow = new int[shipments.size()];
+        for (int i = 0; i < shipments.size(); i++) {
+            NewShipment s = shipments.get(i);
+            shardOfRow[i] = router.shardForNewShipment(s.shipmentId(), s.originId());
+        }
+        return scatterBatch(shipments, shardOfRow, NewShipment::shipmentId, CourierServiceDB::createShipments);
+    }
+
+    // Batch variant of Function 2, split by the shard of each package's shipment
+    public BatchResult addPackagesToShipments(List<NewPackage> packages) {
+        int[] shardOfRow = new int[packages.size()];
+        for (int i = 0; i < packages.size(); i++) {
+            shardOfRow[i] = router.shardForShipment(packages.get(i).shipmentId());
+        }
+        return scatterBatch(packages, shardOfRow, NewPackage::packageId, CourierServiceDB::addPackagesToShipments);
+    }
+
+    // Runs each shard's rows as one batch and reports failures by their position in rows;
+    // rows of unknown shipments (shard -1) fail without being sent anywhere
+    private <T> BatchResult scatterBatch(List<T> rows, int[] shardOfRow, ToLongFunction<T> idOf,
+                                         BiFunction<CourierServiceDB, List<T>, BatchResult> batch) {
+        List<List<Integer>> positions = new ArrayList<>();
+        for (int i = 0; i < router.size(); i++) {
+            positions.add(new ArrayList<>());
+        }
+        BatchResult result = new BatchResult(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            if (shardOfRow[i] < 0) {
+                result.addFailure(i, idOf.applyAsLong(rows.get(i)), "Unknown shipment");
+            } else {
+                positions.get(shardOfRow[i]).add(i);
+            }
+        }
+        List<BatchResult> results = router.scatterByIndex(shard -> {
+            List<Integer> mine = positions.get(shard);
+            if (mine.isEmpty()) {
+                return null;
+            }
+            List<T> part = new ArrayList<>(mine.size());
+            for (int position : mine) {
+                part.add(rows.get(position));
+            }
+            return batch.apply(router.shard(shard), part);
+        });
+        for (int shard = 0; shard < results.size(); shard++) {
+            BatchResult part = results.get(shard);
+            if (part == null) {
+                continue;
+            }
+            result.addSucceeded(part.getSucceeded());
+            for (BatchResult.Failure failure : part.getFailures()) {
+                result.addFailure(positions.get(shard).get(failure.index()), failure.id(), failure.message());
+            }
+        }
+        return result;
+    }
+
+    // Function 3, on the shipment's shard. Delivering also frees the slot counted on
+    // the driver's home shard when that is another shard.
+    public boolean updateShipmentStatus(long shipmentId, String status, long agentId, String notes) {
+        int shard = router.shardForShipment(shipmentId);
+        if (shard < 0) {
+            System.err.println("Error updating shipment status: unknown shipment " + shipmentId);
+            return false;
+        }
+        CourierServiceDB db = router.shard(shard);
+        List<Long> drivers = "delivered".equals(status) ? openAssignmentDrivers(db, shipmentId) : List.of();
+        if (!db.updateShipmentStatus(shipmentId, status, agentId, notes)) {
+            return false;
+        }
+        for (long driverId : drivers) {
+            int home = router.homeShardOfDriver(driverId);
+            if (home != shard) {
+                updateDriverLoad(router.shard(home), RELEASE_DRIVER_SQL, driverId);
+            }
+        }
+        return true;
+    }
+
+    private static List<Long> openAssignmentDrivers(CourierServiceDB db, long shipmentId) {
+        List<Long> drivers = new ArrayList<>();
+        try (Connection conn = db.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(OPEN_ASSIGNMENT_DRIVERS_SQL)) {
+            pstmt.setLong(1, shipmentId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    drivers.add(rs.getLong(1));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading driver assignments: " + e.getMessage());
+        }
+        return drivers;
+    }
+
+    // True if the statement changed the driver's row
+    private static boolean updateDriverLoad(CourierServiceDB db, String sql, long driverId) {
+        try (Connection conn = db.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, driverId);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("Error updating driver load: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Function 4: drivers are reference data and registered on every shard. A shard
+    // that already has this driver with the same details counts as registered, so
+    // retrying after a partial failure converges instead of hitting duplicate keys
+    // on the shards that succeeded.
+    public boolean registerDriver(long driverId, String name, String licenseNumber, String contact, int limit) {
+        return !router.scatter(db -> isRegistered(db, driverId, name, licenseNumber, contact, limit) ||
+                                     db.registerDriver(driverId, name, licenseNumber, contact, limit))
+                      .contains(Boolean.FALSE);
+    }
+
+    private static boolean isRegistered(CourierServiceDB db, long driverId, String name, String licenseNumber,
+                                        String contact, int limit) {
+        try (Connection conn = db.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "SELECT 1 FROM driver WHERE driver_id = ? AND name <=> ? AND license_number <=> ? " +
+                 "AND contact <=> ? AND `limit` = ?")) {
+            pstmt.setLong(1, driverId);
+            pstmt.setString(2, name);
+            pstmt.setString(3, licenseNumber);
+            pstmt.setString(4, contact);
+            pstmt.setInt(5, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error checking driver registration: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Function 5. The assignment is written on the shipment's shard; when the driver's
+    // home shard is another one, a slot is reserved there first with the same
+    // conditional UPDATE and given back if the assignment fails.
+    public boolean assignShipmentToDriver(long driverId, long shipmentId, long startLocationId,
+                                          long endLocationId, LocalDateTime estimatedPickup,
+                                          LocalDateTime estimatedDelivery) {
+        int shard = router.shardForShipment(shipmentId);
+        if (shard < 0) {
+            System.err.println("Error assigning shipment to driver: unknown shipment " + shipmentId);
+            return false;
+        }
+        int home = router.homeShardOfDriver(driverId);
+        if (home != shard) {
+            if (!updateDriverLoad(router.shard(home), RESERVE_DRIVER_SQL, driverId)) {
+                System.err.println("Driver has reached maximum capacity");
+                return false;
+            }
+        }
+        boolean assigned = router.shard(shard).assignShipmentToDriver(driverId, shipmentId, startLocationId,
+                                                                      endLocationId, estimatedPickup, estimatedDelivery);
+        if (!assigned && home != shard) {
+            updateDriverLoad(router.shard(home), RELEASE_DRIVER_SQL, driverId);
+        }
+        return assigned;
+    }
+
+    // Recompute active_load everywhere: each shard counts its own open assignments,
+    // then every home shard gets its drivers' totals over all shards
+    public boolean reconcileDriverLoad() {
+        if (router.scatter(CourierServiceDB::reconcileDriverLoad).contains(Boolean.FALSE)) {
+            return false;
+        }
+        String countSql = "SELECT driver_id, COUNT(*) FROM driver_shipment_assignment " +
+                         "WHERE delivered = FALSE GROUP BY driver_id";
+        List<Map<Long, Long>> counts = router.scatter(db -> {
+            Map<Long, Long> open = new HashMap<>();
+            try (Connection conn = db.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(countSql);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    open.put(rs.getLong(1), rs.getLong(2));
+                }
+                return open;
+            } catch (SQLException e) {
+                System.err.println("Error counting driver assignments: " + e.getMessage());
+                return null;
+            }
+        });
+        if (counts.contains(null)) {
+            return false;
+        }
+        Map<Long, Long> totals = new HashMap<>();
+        for (Map<Long, Long> shardCounts : counts) {
+            shardCounts.forEach((driverId, open) -> totals.merge(driverId, open, Long::sum));
+        }
+        List<Boolean> written = router.scatterByIndex(shard -> {
+            try (Connection conn = router.shard(shard).getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(
+                     "UPDATE driver SET active_load = ? WHERE driver_id = ?")) {
+                for (Map.Entry<Long, Long> total : totals.entrySet()) {
+                    if (router.homeShardOfDriver(total.getKey()) == shard) {
+                        pstmt.setLong(1, total.getValue());
+                        pstmt.setLong(2, total.getKey());
+                        pstmt.addBatch();
+                    }
+                }
+                pstmt.executeBatch();
+                return true;
+            } catch (SQLException e) {
+                System.err.println("Error reconciling driver load: " + e.getMessage());
+                return false;
+            }
+        });
+        return !written.contains(Boolean.FALSE);
+    }
+
+    // Function 6. Within one shard this is CourierServiceDB's single transaction.
+    // Across shards the package is first claimed on the source shard: its row is
+    // locked and the release is written there but not committed. The package is then
+    // copied and assigned on the target shard, the target commits, and the source
+    // commits last. A move that fails before the target commits changes nothing. If
+    // the source commit itself fails, the target's half is undone, so the package
+    // stays on exactly one shipment. The released source row stays behind with a
+    // NULL current_shipment_id.
+    public boolean movePackageBetweenShipments(long packageId, long fromShipmentId, long toShipmentId,
+                                               long agentId, String reason, String notes) {
+        String removalReason = CourierServiceDB.removalReason(reason);
+        if (removalReason == null) {
+            System.err.println("Error moving package: unknown movement reason " + reason +
+                               ", expected one of " + CourierServiceDB.MOVEMENT_REASONS);
+            return false;
+        }
+        int from = router.shardForShipment(fromShipmentId);
+        int to = router.shardForShipment(toShipmentId);
+        if (from < 0 || to < 0) {
+            System.err.println("Error moving package: unknown shipment " + (from < 0 ? fromShipmentId : toShipmentId));
+            return false;
+        }
+        if (from == to) {
+            return router.shard(from).movePackageBetweenShipments(packageId, fromShipmentId, toShipmentId,
+                                                                  agentId, reason, notes);
+        }
+        String packageSql = "SELECT weight, description, created_at, is_active FROM package " +
+                           "WHERE package_id = ? AND current_shipment_id = ? FOR UPDATE";
+        // The package may have been on this shard before; its old row is reused
+        String copySql = "INSERT INTO package (package_id, weight, description, created_at, is_active, " +
+                        "current_shipment_id) VALUES (?, ?, ?, ?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE current_shipment_id = VALUES(current_shipment_id)";
+        String releaseSql = "UPDATE package SET current_shipment_id = NULL " +
+                           "WHERE package_id = ? AND current_shipment_id = ?";
+        String assignSql = "INSERT INTO package_shipment_assignment (package_id, shipment_id, assigned_by_agent_id) " +
+                          "VALUES (?, ?, ?)";
+        String removeSql = "UPDATE package_shipment_assignment SET removed_at = NOW(), removal_reason = ? " +
+                          "WHERE package_id = ? AND shipment_id = ? AND removed_at IS NULL";
+        String logSql = "INSERT INTO package_movement_log (package_id, from_shipment_id, to_shipment_id, " +
+                       "moved_by_agent_id, movement_reason, notes) VALUES (?, ?, ?, ?, ?, ?)";
+
+        try (Connection source = router.shard(from).getConnection()) {
+            source.setAutoCommit(false);
+
+            // Claim and release the package on the source shard, uncommitted
+            Object[] pkg = new Object[4];
+            try {
+                try (PreparedStatement pstmt = source.prepareStatement(packageSql)) {
+                    pstmt.setLong(1, packageId);
+                    pstmt.setLong(2, fromShipmentId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (!rs.next()) {
+                            source.rollback();
+                            System.err.println("Package " + packageId + " is not assigned to shipment " + fromShipmentId);
+                            return false;
+                        }
+                        pkg[0] = rs.getBigDecimal(1);
+                        pkg[1] = rs.getString(2);
+                        pkg[2] = rs.getTimestamp(3);
+                        pkg[3] = rs.getBoolean(4);
+                    }
+                }
+                try (PreparedStatement pstmt = source.prepareStatement(releaseSql)) {
+                    pstmt.setLong(1, packageId);
+                    pstmt.setLong(2, fromShipmentId);
+                    if (pstmt.executeUpdate() != 1) {
+                        throw new SQLException("package " + packageId + " left shipment " + fromShipmentId);
+                    }
+                }
+                try (PreparedStatement pstmt = source.prepareStatement(removeSql)) {
+                    pstmt.setString(1, removalReason);
+                    pstmt.setLong(2, packageId);
+                    pstmt.setLong(3, fromShipmentId);
+                    if (pstmt.executeUpdate() == 0) {
+                        throw new SQLException("package " + packageId + " has no open assignment to shipment " +
+                                               fromShipmentId);
+                    }
+                }
+                logMovement(source, logSql, packageId, fromShipmentId, toShipmentId, agentId, reason, notes);
+                DailyVolumeRollup.applyPackageWeight(source, packageId, fromShipmentId, -1);
+                ShipmentOutbox.packageRemoved(source, packageId, fromShipmentId, toShipmentId, agentId, notes);
+            } catch (SQLException e) {
+                source.rollback();
+                System.err.println("Error moving package: " + e.getMessage());
+                return false;
+            }
+
+            // Copy and assign it on the target shard
+            long logId;
+            try (Connection target = router.shard(to).getConnection()) {
+                target.setAutoCommit(false);
+                try {
+                    try (PreparedStatement pstmt = target.prepareStatement(copySql)) {
+                        pstmt.setLong(1, packageId);
+                        for (int i = 0; i < pkg.length; i++) {
+                            pstmt.setObject(i + 2, pkg[i]);
+                        }
+                        pstmt.setLong(6, toShipmentId);
+                        pstmt.executeUpdate();
+                    }
+                    try (PreparedStatement pstmt = target.prepareStatement(assignSql)) {
+                        pstmt.setLong(1, packageId);
+                        pstmt.setLong(2, toShipmentId);
+                        pstmt.setLong(3, agentId);
+                        pstmt.executeUpdate();
+                    }
+                    logId = logMovement(target, logSql, packageId, fromShipmentId, toShipmentId, agentId, reason, notes);
+                    DailyVolumeRollup.applyPackageWeight(target, packageId, toShipmentId, 1);
+                    ShipmentOutbox.packageAdded(target, packageId, toShipmentId, fromShipmentId, agentId, notes);
+                    target.commit();
+                } catch (SQLException e) {
+                    target.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                source.rollback();
+                System.err.println("Error moving package: " + e.getMessage());
+                return false;
+            }
+
+            // Commit the release; the target's half is undone if that fails
+            try {
+                source.commit();
+            } catch (SQLException e) {
+                System.err.println("Error releasing moved package " + packageId + " from shipment " +
+                                   fromShipmentId + ": " + e.getMessage());
+                boolean moved = undoCopy(from, to, packageId, fromShipmentId, toShipmentId, agentId, logId);
+                router.shard(to).getEventTailer().wakeUp();
+                return moved;
+            }
+            router.shard(to).getEventTailer().wakeUp();
+            router.shard(from).getEventTailer().wakeUp();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error moving package: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Called when the source shard's commit failed after the target's succeeded. A
+    // failed commit may still have gone through, so the source is checked first: if
+    // it still holds the package, the copy, assignment, movement log row and rollup on
+    // the target are reverted and a package_removed event cancels the package_added
+    // one. Returns whether the package ended up moved.
+    private boolean undoCopy(int from, int to, long packageId, long fromShipmentId, long toShipmentId,
+                             long agentId, long logId) {
+        try (Connection conn = router.shard(from).getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "SELECT 1 FROM package WHERE package_id = ? AND current_shipment_id = ?")) {
+            pstmt.setLong(1, packageId);
+            pstmt.setLong(2, fromShipmentId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    // The release was committed after all
+                    router.shard(from).getEventTailer().wakeUp();
+                    return true;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Package " + packageId + " may be on both shipments " + fromShipmentId +
+                               " and " + toShipmentId + ": " + e.getMessage());
+            return false;
+        }
+        try (Connection conn = router.shard(to).getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                         "UPDATE package SET current_shipment_id = NULL WHERE package_id = ? AND current_shipment_id = ?")) {
+                    pstmt.setLong(1, packageId);
+                    pstmt.setLong(2, toShipmentId);
+                    if (pstmt.executeUpdate() != 1) {
+                        throw new SQLException("package " + packageId + " already left shipment " + toShipmentId);
+                    }
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                         "DELETE FROM package_shipment_assignment WHERE package_id = ? AND shipment_id = ? " +
+                         "AND removed_at IS NULL")) {
+                    pstmt.setLong(1, packageId);
+                    pstmt.setLong(2, toShipmentId);
+                    pstmt.executeUpdate();
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                         "DELETE FROM package_movement_log WHERE log_id = ?")) {
+                    pstmt.setLong(1, logId);
+                    pstmt.executeUpdate();
+                }
+                DailyVolumeRollup.applyPackageWeight(conn, packageId, toShipmentId, -1);
+                ShipmentOutbox.packageRemoved(conn, packageId, toShipmentId, fromShipmentId, agentId,
+                                              "Move to shipment " + toShipmentId + " rolled back");
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Error undoing move of package " + packageId + ", it is on both shipments " +
+                               fromShipmentId + " and " + toShipmentId + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    // Both shards keep the movement in their audit trail; returns the new log_id
+    private static long logMovement(Connection conn, String logSql, long packageId, long fromShipmentId,
+                                    long toShipmentId, long agentId, String reason, String notes) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(logSql, Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setLong(1, packageId);
+            pstmt.setLong(2, fromShipmentId);
+            pstmt.setLong(3, toShipmentId);
+            pstmt.setLong(4, agentId);
+            pstmt.setString(5, reason);
+            pstmt.setString(6, notes);
+            pstmt.executeUpdate();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                return keys.next() ? keys.getLong(1) : -1;
+            }
+        }
+    }
+
+    // Subscribes under the same name on every shard. A shipment's events arrive in
+    // order, since they all come from its shard, but shards deliver independently
+    // and concurrently, so the subscriber must be thread-safe.
+    public boolean subscribeToShipmentEvents(String name, boolean fromBeginning,
+                                             ShipmentEventTailer.Subscriber subscriber) {
+        boolean subscribed = true;
+        for (CourierServiceDB shard : router.shards()) {
+            subscribed &= shard.subscribeToShipmentEvents(name, fromBeginning, subscriber);
+        }
+        return subscribed;
+    }
+
+    // A package's shard is not known from its id, so every shard is asked. Only the
+    // shard holding the open assignment has the pointer set.
+    public long findCurrentShipment(long packageId) {
+        for (long shipmentId : router.scatter(db -> db.findCurrentShipment(packageId))) {
+            if (shipmentId >= 0) {
+                return shipmentId;
+            }
+        }
+        return -1;
+    }
+
+    // Each shard answers for the packages on its shipments. A package caught between
+    // the two halves of a cross-shard move is reported on either shipment.
+    public Map<Long, Long> findCurrentShipments(Collection<Long> packageIds) {
+        Map<Long, Long> result = new HashMap<>();
+        for (Map<Long, Long> shard : router.scatter(db -> db.findCurrentShipments(packageIds))) {
+            result.putAll(shard);
+        }
+        return result;
+    }
+
+    public boolean checkCurrentShipments(boolean repair) {
+        return !router.scatter(db -> db.checkCurrentShipments(repair)).contains(Boolean.FALSE);
+    }
+
+    // Function 7, on the shipment's shard
+    public List<ShipmentLogEntry> findShipmentLog(long shipmentId, boolean includeArchive) {
+        CourierServiceDB shard = shardOf(shipmentId);
+        return shard == null ? new ArrayList<>() : shard.findShipmentLog(shipmentId, includeArchive);
+    }
+
+    public List<Map<String, Object>> getShipmentStatusAndLog(long shipmentId) {
+        return toMaps(findShipmentLog(shipmentId, false), ShipmentLogEntry::toMap);
+    }
+
+    // Function 8: the driver's assignments may be on any shard; oldest assignment first
+    public List<PendingShipment> findPendingShipmentsForDriver(long driverId) {
+        return mergeLists(router.scatter(db -> db.findPendingShipmentsForDriver(driverId)),
+                          Comparator.comparing(PendingShipment::assignedAt));
+    }
+
+    public List<Map<String, Object>> getPendingShipmentsForDriver(long driverId) {
+        return toMaps(findPendingShipmentsForDriver(driverId), PendingShipment::toMap);
+    }
+
+    // Function 9 over all shards, most delayed first
+    public List<DelayedShipment> findDelayedShipments() {
+        return mergeLists(router.scatter(CourierServiceDB::findDelayedShipments), MOST_DELAYED_FIRST);
+    }
+
+    public List<Map<String, Object>> getDelayedShipments() {
+        return toMaps(findDelayedShipments(), DelayedShipment::toMap);
+    }
+
+    // Streaming variant of Function 9: every shard streams its rows and the merge holds
+    // one row per shard. Close the stream to release the shards' connections.
+    public Stream<DelayedShipment> delayedShipmentStream() {
+        return ShardRouter.mergeSorted(router.scatter(CourierServiceDB::delayedShipmentStream), MOST_DELAYED_FIRST);
+    }
+
+    public long streamDelayedShipments(Consumer<DelayedShipment> consumer) {
+        return drain(delayedShipmentStream(), consumer);
+    }
+
+    // Keyset-paginated variant of Function 9. Every shard returns its own next page
+    // after the cursor; the first pageSize rows of their merge are the global page.
+    public List<DelayedShipment> findDelayedShipmentsPage(DelayedShipment after, int pageSize) {
+        Comparator<DelayedShipment> keyset = Comparator.comparing(DelayedShipment::estimatedDeliveryTime)
+                                                       .thenComparingLong(DelayedShipment::shipmentId);
+        List<DelayedShipment> merged = mergeLists(router.scatter(db -> db.findDelayedShipmentsPage(after, pageSize)),
+                                                  keyset);
+        return new ArrayList<>(merged.subList(0, Math.min(pageSize, merged.size())));
+    }
+
+    private static final Comparator<DelayedShipment> MOST_DELAYED_FIRST =
+        Comparator.comparingLong(DelayedShipment::delayHours).reversed();
+
+    // Function 10 over all shards
+    public List<DailyVolume> findDailyShipmentVolume() {
+        try (Stream<DailyVolume> volume = dailyShipmentVolumeStream()) {
+            return volume.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    public List<Map<String, Object>> getDailyShipmentVolume() {
+        return toMaps(findDailyShipmentVolume(), DailyVolume::toMap);
+    }
+
+    // Streaming variant of Function 10. Shards are merged by day, newest first, and
+    // one day is buffered at a time: an origin served from several shards (in REGION
+    // mode a region can move shards) is summed, and the day's origins are ordered by
+    // volume like the single-database query. Origins are matched by name and pin code,
+    // which is all the report carries.
+    public Stream<DailyVolume> dailyShipmentVolumeStream() {
+        Stream<DailyVolume> byDay = ShardRouter.mergeSorted(router.scatter(CourierServiceDB::dailyShipmentVolumeStream),
+                                                            NEWEST_DAY_FIRST);
+        return perDay(byDay, day -> {
+            Map<List<String>, DailyVolume> byOrigin = new LinkedHashMap<>();
+            for (DailyVolume volume : day) {
+                byOrigin.merge(Arrays.asList(volume.originLocation(), volume.originPincode()), volume,
+                               (a, b) -> sum(a, b, a.originLocation(), a.originPincode()));
+            }
+            List<DailyVolume> combined = new ArrayList<>(byOrigin.values());
+            combined.sort(Comparator.comparingLong(DailyVolume::totalShipments).reversed());
+            return combined;
+        });
+    }
+
+    public long streamDailyShipmentVolume(Consumer<DailyVolume> consumer) {
+        return drain(dailyShipmentVolumeStream(), consumer);
+    }
+
+    public boolean rebuildDailyVolumeRollup() {
+        return !router.scatter(CourierServiceDB::rebuildDailyVolumeRollup).contains(Boolean.FALSE);
+    }
+
+    public boolean rebuildDailyVolumeRollup(LocalDate since) {
+        return !router.scatter(db -> db.rebuildDailyVolumeRollup(since)).contains(Boolean.FALSE);
+    }
+
+    // Subtree variant of Function 10: every shard's per-day totals for the hub, summed per day
+    public List<DailyVolume> findSubtreeShipmentVolume(long rootLocationId) {
+        List<Stream<DailyVolume>> shards = new ArrayList<>();
+        for (List<DailyVolume> shard : router.scatter(db -> db.findSubtreeShipmentVolume(rootLocationId))) {
+            shards.add(shard.stream());
+        }
+        try (Stream<DailyVolume> volume = perDay(ShardRouter.mergeSorted(shards, NEWEST_DAY_FIRST), day -> {
+            DailyVolume total = day.get(0);
+            for (int i = 1; i < day.size(); i++) {
+                total = sum(total, day.get(i), total.originLocation(), total.originPincode());
+            }
+            return List.of(total);
+        })) {
+            return volume.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    // Pending shipments below the hub on every shard, oldest first
+    public List<ShipmentSummary> findSubtreePendingShipments(long rootLocationId) {
+        return mergeLists(router.scatter(db -> db.findSubtreePendingShipments(rootLocationId)),
+                          Comparator.comparing(ShipmentSummary::createdTime));
+    }
+
+    // Delayed shipments below the hub on every shard, most delayed first
+    public List<DelayedShipment> findSubtreeDelayedShipments(long rootLocationId) {
+        return mergeLists(router.scatter(db -> db.findSubtreeDelayedShipments(rootLocationId)), MOST_DELAYED_FIRST);
+    }
+
+    private static final Comparator<DailyVolume> NEWEST_DAY_FIRST =
+        Comparator.comparing(DailyVolume::shipmentDate).reversed();
+
+    private static DailyVolume sum(DailyVolume a, DailyVolume b, String originLocation, String originPincode) {
+        return new DailyVolume(a.shipmentDate(), originLocation, originPincode,
+                               a.totalShipments() + b.totalShipments(),
+                               a.deliveredShipments() + b.deliveredShipments(),
+                               a.inTransitShipments() + b.inTransitShipments(),
+                               a.pendingShipments() + b.pendingShipments(),
+                               a.totalWeightKg() + b.totalWeightKg());
+    }
+
+    // Regroups a stream ordered by day into each day's rows as rewritten by combine
+    private static Stream<DailyVolume> perDay(Stream<DailyVolume> byDay,
+                                              Function<List<DailyVolume>, List<DailyVolume>> combine) {
+        Iterator<DailyVolume> rows = byDay.iterator();
+        Deque<DailyVolume> ready = new ArrayDeque<>();
+        DailyVolume[] pending = new DailyVolume[1];
+        Spliterator<DailyVolume> days = new Spliterators.AbstractSpliterator<DailyVolume>(Long.MAX_VALUE,
+                                                                                          Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super DailyVolume> action) {
+                if (ready.isEmpty()) {
+                    DailyVolume first = pending[0] != null ? pending[0] : rows.hasNext() ? rows.next() : null;
+                    pending[0] = null;
+                    if (first == null) {
+                        return false;
+                    }
+                    List<DailyVolume> day = new ArrayList<>();
+                    day.add(first);
+                    while (rows.hasNext()) {
+                        DailyVolume next = rows.next();
+                        if (!next.shipmentDate().equals(first.shipmentDate())) {
+                            pending[0] = next;
+                            break;
+                        }
+                        day.add(next);
+                    }
+                    ready.addAll(combine.apply(day));
+                }
+                action.accept(ready.poll());
+                return true;
+            }
+        };
+        return StreamSupport.stream(days, false).onClose(byDay::close);
+    }
+
+    private static <T> List<T> mergeLists(List<List<T>> shards, Comparator<? super T> order) {
+        List<Stream<T>> sources = new ArrayList<>(shards.size());
+        for (List<T> shard : shards) {
+            sources.add(shard.stream());
+        }
+        return ShardRouter.mergeSorted(sources, order).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private static <T> long drain(Stream<T> stream, Consumer<T> consumer) {
+        long rows = 0;
+        try (stream) {
+            for (Iterator<T> it = stream.iterator(); it.hasNext(); rows++) {
+                consumer.accept(it.next());
+            }
+        }
+        return rows;
+    }
+
+    private static <T> List<Map<String, Object>> toMaps(List<T> rows, Function<T, Map<String, Object>> toMap) {
+        List<Map<String, Object>> maps = new ArrayList<>(rows.size());
+        for (T row : rows) {
+            maps.add(toMap.apply(row));
+        }
+        return maps;
+    }
+
+    // Shard holding the shipment, or null (reported) if none does
+    private CourierServiceDB shardOf(long shipmentId) {
+        int shard = router.shardForShipment(shipmentId);
+        if (shard < 0) {
+            System.err.println("Unknown shipment " + shipmentId);
+            return null;
+        }
+        return router.shard(shard);
+    }
+
+    // Closes the router and every shard
+    @Override
+    public void close() {
+        router.close();
+        for (CourierServiceDB shard : router.shards()) {
+            shard.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.sql.Timestamp;
+import java.util.*;
+
+// One change to a shipment, as written to the shipment_events outbox. Which of the
+// optional fields are set depends on the type:
+//   STATUS_CHANGED   status, agentId, notes
+//   DRIVER_ASSIGNED  driverId
+//   PACKAGE_ADDED    packageId, agentId, notes; relatedShipmentId is where it came from
+//   PACKAGE_REMOVED  packageId, agentId, notes; relatedShipmentId is where it went
+public record ShipmentEvent(long eventId, long shipmentId, Type type, String status, Long driverId,
+                            Long packageId, Long relatedShipmentId, Long agentId, String notes,
+                            Timestamp createdAt) {
+
+    public enum Type {
+        STATUS_CHANGED, DRIVER_ASSIGNED, PACKAGE_ADDED, PACKAGE_REMOVED;
+
+        // Value of the event_type column
+        public String columnValue() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Type fromColumn(String value) {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("event_id", eventId);
+        row.put("shipment_id", shipmentId);
+        row.put("event_type", type.columnValue());
+        row.put("status", status);
+        row.put("driver_id", driverId);
+        row.put("package_id", packageId);
+        row.put("related_shipment_id", relatedShipmentId);
+        row.put("agent_id", agentId);
+        row.put("notes", notes);
+        row.put("created_at", createdAt);
+        return row;
+    }
+}
@@ -0,0 +1,364 @@
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+
+// Pushes shipment_events to registered subscribers, replacing polling of
+// getShipmentStatusAndLog. One tailer thread reads the outbox in event_id order
+// and hands each subscriber batches of up to batchSize events. A subscriber's
+// offset (its last processed event) is stored in shipment_event_offsets only after
+// its onEvents call returns, so delivery is at-least-once: after a failure or a
+// restart the uncommitted batch is delivered again. A subscriber that throws is
+// retried with exponential backoff from the same offset; the others carry on.
+//
+// Event ids are allocated at insert time but become visible at commit, so a gap in
+// the ids may be a transaction that has not committed yet. Delivery stops at a gap
+// until it fills or has been open for gapTimeoutMillis (a rolled-back transaction
+// leaves a permanent one); events of a transaction that stays open longer than
+// that can be skipped.
+//
+// Offsets are per subscriber name, so each name should be consumed by one process
+// at a time. Events are kept for retentionMillis, after which even a subscriber
+// that has not read them loses them.
+public class ShipmentEventTailer implements AutoCloseable {
+    // Receives events in event_id order; throwing makes the batch be delivered again
+    public interface Subscriber {
+        void onEvents(List<ShipmentEvent> events) throws Exception;
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_POLL_MILLIS = 200;
+    public static final long DEFAULT_GAP_TIMEOUT_MILLIS = 10_000;
+    public static final long DEFAULT_RETENTION_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 30_000;
+    private static final long PURGE_INTERVAL_MILLIS = 10 * 60 * 1000;
+    private static final int PURGE_CHUNK_SIZE = 10_000;
+
+    private static final String FETCH_SQL =
+        "SELECT event_id, shipment_id, event_type, status, driver_id, package_id, related_shipment_id, " +
+        "agent_id, notes, created_at FROM shipment_events WHERE event_id > ? ORDER BY event_id LIMIT ?";
+    private static final String COMMIT_OFFSET_SQL =
+        "INSERT INTO shipment_event_offsets (subscriber, last_event_id) VALUES (?, ?) " +
+        "ON DUPLICATE KEY UPDATE last_event_id = GREATEST(last_event_id, VALUES(last_event_id))";
+
+    private static final class Subscription {
+        final String name;
+        final Subscriber subscriber;
+        // Written by the tailer thread only; volatile for getMetrics
+        volatile long offset;
+        volatile long delivered;
+        volatile long failures;
+        volatile String lastError;
+        long retryAtMillis;
+        long backoffMillis;
+
+        Subscription(String name, Subscriber subscriber, long offset) {
+            this.name = name;
+            this.subscriber = subscriber;
+            this.offset = offset;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final int batchSize;
+    private final long pollMillis;
+    private final long gapTimeoutMillis;
+    private final long retentionMillis;
+
+    private final Map<String, Subscription> subscriptions = new LinkedHashMap<>();
+    // Tailer thread only: when each gap, keyed by the id of the event after it, was first seen
+    private final Map<Long, Long> gapsSeen = new HashMap<>();
+    // Tailer thread only: step between consecutive auto-increment ids, read on first use
+    private long idStep;
+    private long nextPurgeMillis;
+    private boolean woken;
+    private boolean closed;
+    private Thread thread;
+
+    public ShipmentEventTailer(DataSource dataSource) {
+        this(dataSource, DEFAULT_BATCH_SIZE, DEFAULT_POLL_MILLIS, DEFAULT_GAP_TIMEOUT_MILLIS, DEFAULT_RETENTION_MILLIS);
+    }
+
+    public ShipmentEventTailer(DataSource dataSource, int batchSize, long pollMillis, long gapTimeoutMillis,
+                               long retentionMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.pollMillis = pollMillis;
+        this.gapTimeoutMillis = gapTimeoutMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    // Registers a subscriber under a durable name and starts the tailer thread. A
+    // name seen before resumes after its stored offset; a new name starts with the
+    // oldest retained event if fromBeginning is set and with the next new event otherwise.
+    public void subscribe(String name, boolean fromBeginning, Subscriber subscriber) throws SQLException {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Event tailer is closed");
+            }
+            if (subscriptions.containsKey(name)) {
+                throw new IllegalArgumentException("Already subscribed: " + name);
+            }
+        }
+        long offset = storedOffset(name, fromBeginning);
+        synchronized (this) {
+            if (subscriptions.putIfAbsent(name, new Subscription(name, subscriber, offset)) != null) {
+                throw new IllegalArgumentException("Already subscribed: " + name);
+            }
+            if (thread == null) {
+                thread = new Thread(this::run, "shipment-event-tailer");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            woken = true;
+            notifyAll();
+        }
+    }
+
+    // Stops delivering to the subscriber; its stored offset is kept for a later subscribe
+    public synchronized boolean unsubscribe(String name) {
+        return subscriptions.remove(name) != null;
+    }
+
+    // Reads the outbox now instead of at the next poll, e.g. right after a commit that wrote events
+    public synchronized void wakeUp() {
+        if (thread != null) {
+            woken = true;
+            notifyAll();
+        }
+    }
+
+    private long storedOffset(String name, boolean fromBeginning) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                     "SELECT last_event_id FROM shipment_event_offsets WHERE subscriber = ?")) {
+                pstmt.setString(1, name);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getLong(1);
+                    }
+                }
+            }
+            long offset = 0;
+            if (!fromBeginning) {
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(event_id), 0) FROM shipment_events")) {
+                    rs.next();
+                    offset = rs.getLong(1);
+                }
+            }
+            commitOffset(conn, name, offset);
+            return offset;
+        }
+    }
+
+    private static void commitOffset(Connection conn, String name, long offset) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(COMMIT_OFFSET_SQL)) {
+            pstmt.setString(1, name);
+            pstmt.setLong(2, offset);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Subscription> due = new ArrayList<>();
+            long now;
+            long lowestOffset = Long.MAX_VALUE;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                woken = false;
+                now = System.currentTimeMillis();
+                for (Subscription subscription : subscriptions.values()) {
+                    lowestOffset = Math.min(lowestOffset, subscription.offset);
+                    if (subscription.retryAtMillis <= now) {
+                        due.add(subscription);
+                    }
+                }
+            }
+            // Gaps behind every subscriber are no longer needed
+            long behindAll = lowestOffset;
+            gapsSeen.keySet().removeIf(next -> next <= behindAll);
+            boolean more = false;
+            try {
+                more = deliver(due, now);
+                if (now >= nextPurgeMillis) {
+                    purge();
+                    nextPurgeMillis = now + PURGE_INTERVAL_MILLIS;
+                }
+            } catch (SQLException e) {
+                System.err.println("Error reading shipment events: " + e.getMessage());
+            }
+            if (more) {
+                continue;
+            }
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + pollMillis;
+                while (!woken && !closed) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // One round of delivery. Subscribers at the same offset share one read, which is
+    // the usual case once they have caught up. True if some subscriber got a full
+    // batch and more events are probably waiting.
+    private boolean deliver(List<Subscription> due, long now) throws SQLException {
+        if (due.isEmpty()) {
+            return false;
+        }
+        Map<Long, List<Subscription>> byOffset = new TreeMap<>();
+        for (Subscription subscription : due) {
+            byOffset.computeIfAbsent(subscription.offset, k -> new ArrayList<>()).add(subscription);
+        }
+        boolean more = false;
+        try (Connection conn = dataSource.getConnection()) {
+            if (idStep == 0) {
+                idStep = autoIncrementStep(conn);
+            }
+            for (Map.Entry<Long, List<Subscription>> group : byOffset.entrySet()) {
+                List<ShipmentEvent> events = settled(fetch(conn, group.getKey()), group.getKey(), now);
+                if (events.isEmpty()) {
+                    continue;
+                }
+                more |= events.size() == batchSize;
+                long last = events.get(events.size() - 1).eventId();
+                List<ShipmentEvent> batch = Collections.unmodifiableList(events);
+                for (Subscription subscription : group.getValue()) {
+                    deliverTo(conn, subscription, batch, last, now);
+                }
+            }
+        }
+        return more;
+    }
+
+    private void deliverTo(Connection conn, Subscription subscription, List<ShipmentEvent> batch, long last, long now) {
+        try {
+            subscription.subscriber.onEvents(batch);
+        } catch (Exception e) {
+            subscription.failures++;
+            subscription.lastError = e.getMessage();
+            subscription.backoffMillis = subscription.backoffMillis == 0 ? pollMillis
+                : Math.min(subscription.backoffMillis * 2, MAX_RETRY_BACKOFF_MILLIS);
+            subscription.retryAtMillis = now + subscription.backoffMillis;
+            System.err.println("Shipment event subscriber " + subscription.name + " failed, retrying in " +
+                               subscription.backoffMillis + " ms: " + e.getMessage());
+            return;
+        }
+        subscription.offset = last;
+        subscription.delivered += batch.size();
+        subscription.backoffMillis = 0;
+        subscription.lastError = null;
+        try {
+            commitOffset(conn, subscription.name, last);
+        } catch (SQLException e) {
+            // The batch is delivered again after a restart
+            System.err.println("Error storing offset of shipment event subscriber " + subscription.name +
+                               ": " + e.getMessage());
+        }
+    }
+
+    private List<ShipmentEvent> fetch(Connection conn, long offset) throws SQLException {
+        List<ShipmentEvent> events = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(FETCH_SQL)) {
+            pstmt.setLong(1, offset);
+            pstmt.setInt(2, batchSize);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    events.add(new ShipmentEvent(
+                        rs.getLong(1), rs.getLong(2), ShipmentEvent.Type.fromColumn(rs.getString(3)), rs.getString(4),
+                        rs.getObject(5, Long.class), rs.getObject(6, Long.class), rs.getObject(7, Long.class),
+                        rs.getObject(8, Long.class), rs.getString(9), rs.getTimestamp(10)));
+                }
+            }
+        }
+        return events;
+    }
+
+    // The events before the first gap that may still be filled by a pending commit
+    private List<ShipmentEvent> settled(List<ShipmentEvent> events, long offset, long now) {
+        long previous = offset;
+        for (int i = 0; i < events.size(); i++) {
+            long id = events.get(i).eventId();
+            if (id > previous + idStep) {
+                long firstSeen = gapsSeen.computeIfAbsent(id, k -> now);
+                if (now - firstSeen < gapTimeoutMillis) {
+                    return events.subList(0, i);
+                }
+            }
+            previous = id;
+        }
+        return events;
+    }
+
+    private static long autoIncrementStep(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT @@SESSION.auto_increment_increment")) {
+            return rs.next() ? Math.max(1, rs.getLong(1)) : 1;
+        }
+    }
+
+    // Deletes events older than the retention period in chunks, so no single
+    // statement holds locks on a large range
+    private void purge() throws SQLException {
+        long deleted = 0;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "DELETE FROM shipment_events WHERE created_at < ? ORDER BY event_id LIMIT " + PURGE_CHUNK_SIZE)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis() - retentionMillis));
+            int rows;
+            do {
+                rows = pstmt.executeUpdate();
+                deleted += rows;
+            } while (rows == PURGE_CHUNK_SIZE && !isClosed());
+        }
+        if (deleted > 0) {
+            System.out.println("Purged " + deleted + " shipment events older than the retention period");
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // Offset and delivery counters of every subscriber
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Subscription subscription : subscriptions.values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("offset", subscription.offset);
+            entry.put("delivered", subscription.delivered);
+            entry.put("failures", subscription.failures);
+            entry.put("last_error", subscription.lastError);
+            metrics.put(subscription.name, entry);
+        }
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        Thread tailer;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            tailer = thread;
+        }
+        if (tailer != null) {
+            tailer.interrupt();
+        }
+    }
+}
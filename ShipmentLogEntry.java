@@ -0,0 +1,24 @@
+import java.sql.Timestamp;
+import java.util.*;
+
+// One row of a shipment's status history, with the shipment's current status
+public record ShipmentLogEntry(long shipmentId, String currentStatus, Timestamp estimatedDeliveryTime,
+                               Timestamp actualDelivery, String logStatus, Timestamp logTimestamp,
+                               String locationName, String pinCode, String agentName, String notes) {
+
+    // Legacy row shape returned by CourierServiceDB.getShipmentStatusAndLog
+    public Map<String, Object> toMap() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("shipment_id", shipmentId);
+        row.put("current_status", currentStatus);
+        row.put("estimated_delivery_time", estimatedDeliveryTime);
+        row.put("actual_delivery", actualDelivery);
+        row.put("log_status", logStatus);
+        row.put("log_timestamp", logTimestamp);
+        row.put("location_name", locationName);
+        row.put("pinCode", pinCode);
+        row.put("agent_name", agentName);
+        row.put("notes", notes);
+        return row;
+    }
+}
@@ -0,0 +1,61 @@
+import java.sql.*;
+
+// Writes shipment change events to the shipment_events outbox. Every call runs on
+// the connection of the change it describes, inside its transaction, so an event
+// exists exactly when the change committed. ShipmentEventTailer delivers them.
+class ShipmentOutbox {
+    static final String INSERT_SQL =
+        "INSERT INTO shipment_events (shipment_id, event_type, status, driver_id, package_id, " +
+        "related_shipment_id, agent_id, notes) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private ShipmentOutbox() {
+    }
+
+    static void statusChanged(Connection conn, long shipmentId, String status, long agentId, String notes)
+            throws SQLException {
+        insert(conn, shipmentId, ShipmentEvent.Type.STATUS_CHANGED, status, null, null, null, agentId, notes);
+    }
+
+    static void driverAssigned(Connection conn, long shipmentId, long driverId) throws SQLException {
+        insert(conn, shipmentId, ShipmentEvent.Type.DRIVER_ASSIGNED, null, driverId, null, null, null, null);
+    }
+
+    // Batch form of driverAssigned: prepare INSERT_SQL once, then bind and addBatch per event
+    static void bindDriverAssigned(PreparedStatement pstmt, long shipmentId, long driverId) throws SQLException {
+        bind(pstmt, shipmentId, ShipmentEvent.Type.DRIVER_ASSIGNED, null, driverId, null, null, null, null);
+    }
+
+    static void packageAdded(Connection conn, long packageId, long toShipmentId, long fromShipmentId,
+                             long agentId, String notes) throws SQLException {
+        insert(conn, toShipmentId, ShipmentEvent.Type.PACKAGE_ADDED, null, null, packageId, fromShipmentId,
+               agentId, notes);
+    }
+
+    static void packageRemoved(Connection conn, long packageId, long fromShipmentId, long toShipmentId,
+                               long agentId, String notes) throws SQLException {
+        insert(conn, fromShipmentId, ShipmentEvent.Type.PACKAGE_REMOVED, null, null, packageId, toShipmentId,
+               agentId, notes);
+    }
+
+    private static void insert(Connection conn, long shipmentId, ShipmentEvent.Type type, String status,
+                               Long driverId, Long packageId, Long relatedShipmentId, Long agentId,
+                               String notes) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(INSERT_SQL)) {
+            bind(pstmt, shipmentId, type, status, driverId, packageId, relatedShipmentId, agentId, notes);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, long shipmentId, ShipmentEvent.Type type, String status,
+                             Long driverId, Long packageId, Long relatedShipmentId, Long agentId,
+                             String notes) throws SQLException {
+        pstmt.setLong(1, shipmentId);
+        pstmt.setString(2, type.columnValue());
+        pstmt.setString(3, status);
+        pstmt.setObject(4, driverId, Types.BIGINT);
+        pstmt.setObject(5, packageId, Types.BIGINT);
+        pstmt.setObject(6, relatedShipmentId, Types.BIGINT);
+        pstmt.setObject(7, agentId, Types.BIGINT);
+        pstmt.setString(8, notes);
+    }
+}
@@ -0,0 +1,21 @@
+import java.sql.Timestamp;
+import java.util.*;
+
+// A shipment with its parties and route resolved to names
+public record ShipmentSummary(long shipmentId, String senderName, String recipientName,
+                              String originLocation, String destinationLocation, String status,
+                              Timestamp createdTime, Timestamp estimatedDeliveryTime) {
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("shipment_id", shipmentId);
+        row.put("sender_name", senderName);
+        row.put("recipient_name", recipientName);
+        row.put("origin_location", originLocation);
+        row.put("destination_location", destinationLocation);
+        row.put("status", status);
+        row.put("created_time", createdTime);
+        row.put("estimated_delivery_time", estimatedDeliveryTime);
+        return row;
+    }
+}
@@ -0,0 +1,171 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+// Statement-level instrumentation for pooled prepared statements. Every execute
+// is timed and reported as a JFR statement event; executions slower than the
+// threshold are logged with their SQL, bind values and an EXPLAIN plan. The plan
+// is fetched on a background thread over a separate pooled connection, so the
+// slow caller is not delayed further. Nothing is allocated unless a statement is
+// slow or JFR is recording statement events.
+public class SlowQueryLog implements CourierMetrics.SlowQueryLogMXBean, AutoCloseable {
+    public static final long DEFAULT_THRESHOLD_MILLIS = 200;
+    private static final int RECENT_ENTRIES = 100;
+    private static final int MAX_PENDING_EXPLAINS = 16;
+
+    // Sees every statement executed through the statement cache, e.g. to collect
+    // the queries an operation issues
+    public interface StatementListener {
+        void executed(String sql, Object[] binds);
+    }
+
+    private final DataSource dataSource;
+    private volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_THRESHOLD_MILLIS);
+    private final AtomicLong slowQueries = new AtomicLong();
+    private volatile StatementListener listener;
+    private final Deque<String> recent = new ArrayDeque<>();
+    private final ExecutorService explainer = new ThreadPoolExecutor(
+        1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING_EXPLAINS), r -> {
+            Thread t = new Thread(r, "slow-query-explain");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+
+    SlowQueryLog(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    // Short stable id for a statement's SQL text
+    static String sqlId(String sql) {
+        return String.format("%08x", sql.hashCode());
+    }
+
+    // Called after every execute* on a cached statement. binds[1..bindCount] are the
+    // current parameter values; result is what the execute call returned.
+    void executed(String sqlId, String sql, Object[] binds, int bindCount, long startNanos, Object result) {
+        long elapsed = System.nanoTime() - startNanos;
+        if (CourierMetrics.statementEventsEnabled()) {
+            CourierMetrics.emitStatementEvent(sqlId, sql, affectedRows(result), elapsed);
+        }
+        StatementListener statementListener = listener;
+        if (statementListener != null) {
+            statementListener.executed(sql, Arrays.copyOfRange(binds, 1, bindCount + 1));
+        }
+        long threshold = thresholdNanos;
+        if (threshold > 0 && elapsed >= threshold) {
+            slowQueries.incrementAndGet();
+            Object[] snapshot = Arrays.copyOfRange(binds, 1, bindCount + 1);
+            explainer.execute(() -> log(sqlId, sql, snapshot, elapsed));
+        }
+    }
+
+    private static long affectedRows(Object result) {
+        if (result instanceof Integer) {
+            return (Integer) result;
+        }
+        if (result instanceof Long) {
+            return (Long) result;
+        }
+        if (result instanceof int[]) {
+            long total = 0;
+            for (int count : (int[]) result) {
+                total += Math.max(count, 0);
+            }
+            return total;
+        }
+        // Row counts of queries are only known once the result set is read
+        return -1;
+    }
+
+    private void log(String sqlId, String sql, Object[] binds, long elapsedNanos) {
+        StringBuilder entry = new StringBuilder();
+        entry.append(String.format("Slow query %s (%.1f ms): %s%n  binds: %s",
+                                   sqlId, elapsedNanos / 1e6, sql, Arrays.toString(binds)));
+        String plan = explain(sql, binds);
+        if (plan != null) {
+            entry.append(System.lineSeparator()).append(plan);
+        }
+        String text = entry.toString();
+        System.err.println(text);
+        synchronized (recent) {
+            if (recent.size() == RECENT_ENTRIES) {
+                recent.removeFirst();
+            }
+            recent.addLast(text);
+        }
+    }
+
+    // EXPLAIN with the same bind values; only SELECT, UPDATE and DELETE have useful plans
+    private String explain(String sql, Object[] binds) {
+        String verb = sql.stripLeading();
+        verb = verb.substring(0, Math.min(6, verb.length())).toUpperCase();
+        if (!verb.equals("SELECT") && !verb.equals("UPDATE") && !verb.equals("DELETE")) {
+            return null;
+        }
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < binds.length; i++) {
+                pstmt.setObject(i + 1, binds[i]);
+            }
+            StringBuilder plan = new StringBuilder("  plan:");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                while (rs.next()) {
+                    plan.append(System.lineSeparator()).append("   ");
+                    for (int c = 1; c <= meta.getColumnCount(); c++) {
+                        Object value = rs.getObject(c);
+                        if (value != null) {
+                            plan.append(' ').append(meta.getColumnLabel(c)).append('=').append(value);
+                        }
+                    }
+                }
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            return "  plan unavailable: " + e.getMessage();
+        }
+    }
+
+    // Null removes the listener
+    public void setStatementListener(StatementListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    // 0 disables slow-query capture
+    @Override
+    public void setThresholdMillis(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    @Override
+    public long getSlowQueryCount() {
+        return slowQueries.get();
+    }
+
+    @Override
+    public List<String> getRecentSlowQueries() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (recent) {
+            recent.clear();
+        }
+        slowQueries.set(0);
+    }
+
+    @Override
+    public void close() {
+        explainer.shutdownNow();
+    }
+}
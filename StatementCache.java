@@ -0,0 +1,189 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-connection LRU cache of prepared statements keyed by SQL text.
+// Statements handed out are proxies: close() clears parameters and open result
+// sets and returns the statement to the cache; only eviction closes it for real.
+// Executions are timed and reported to the pool's SlowQueryLog together with the
+// statement's current bind values.
+class StatementCache {
+    // Hit/miss counters shared by every cache in a pool
+    static final class Counters {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+    }
+
+    private final Connection physical;
+    private final int capacity;
+    private final Counters counters;
+    private final SlowQueryLog slowQueryLog;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    StatementCache(Connection physical, int capacity, Counters counters, SlowQueryLog slowQueryLog) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.counters = counters;
+        this.slowQueryLog = slowQueryLog;
+        this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= StatementCache.this.capacity) {
+                    return false;
+                }
+                counters.evictions.incrementAndGet();
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+    }
+
+    synchronized PreparedStatement prepare(String sql, Connection owner) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && !cached.inUse) {
+            counters.hits.incrementAndGet();
+            return cached.checkOut(owner);
+        }
+        counters.misses.incrementAndGet();
+        PreparedStatement statement = physical.prepareStatement(sql);
+        if (cached != null || capacity <= 0) {
+            // Same SQL already checked out on this connection: hand out an uncached statement
+            return statement;
+        }
+        cached = new CachedStatement(sql, statement);
+        statements.put(sql, cached);
+        return cached.checkOut(owner);
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    synchronized void closeAll() {
+        for (CachedStatement cached : statements.values()) {
+            cached.evict();
+        }
+        statements.clear();
+    }
+
+    private final class CachedStatement implements InvocationHandler {
+        private final String sql;
+        private final String sqlId;
+        private final PreparedStatement statement;
+        private final PreparedStatement handle;
+        // Current parameter values by JDBC index (slot 0 unused); the boxed values
+        // come from the proxy's argument array, so capturing them allocates nothing
+        private Object[] binds = new Object[16];
+        private int bindCount;
+        private Connection owner;
+        private ResultSet openResultSet;
+        private boolean inUse;
+        private boolean evicted;
+
+        CachedStatement(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.sqlId = SlowQueryLog.sqlId(sql);
+            this.statement = statement;
+            this.handle = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, this);
+        }
+
+        PreparedStatement checkOut(Connection owner) {
+            this.owner = owner;
+            this.inUse = true;
+            return handle;
+        }
+
+        void checkIn() throws SQLException {
+            synchronized (StatementCache.this) {
+                if (!inUse) {
+                    return;
+                }
+                inUse = false;
+                owner = null;
+                if (evicted) {
+                    statement.close();
+                    return;
+                }
+                if (openResultSet != null) {
+                    openResultSet.close();
+                    openResultSet = null;
+                }
+                statement.clearParameters();
+                Arrays.fill(binds, 0, bindCount + 1, null);
+                bindCount = 0;
+                statement.clearBatch();
+                statement.clearWarnings();
+            }
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // Statement is discarded either way
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    checkIn();
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + statement + "]";
+                default:
+                    break;
+            }
+            if (!inUse) {
+                throw new SQLException("Statement has already been closed");
+            }
+            String name = method.getName();
+            if (args != null && args.length >= 2 && args[0] instanceof Integer && name.startsWith("set")) {
+                captureBind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            }
+            boolean execute = name.startsWith("execute");
+            long start = execute ? System.nanoTime() : 0;
+            try {
+                Object result = method.invoke(statement, args);
+                if (result instanceof ResultSet) {
+                    openResultSet = (ResultSet) result;
+                }
+                if (execute) {
+                    slowQueryLog.executed(sqlId, sql, binds, bindCount, start, result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void captureBind(int index, Object value) {
+            if (index < 1) {
+                return;
+            }
+            if (index >= binds.length) {
+                binds = Arrays.copyOf(binds, Math.max(index + 1, binds.length * 2));
+            }
+            binds[index] = value;
+            bindCount = Math.max(bindCount, index);
+        }
+    }
+}
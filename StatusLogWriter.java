@@ -0,0 +1,286 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.sql.DataSource;
+
+// Write-behind pipeline for status_logs. Producers put entries on a bounded
+// lock-free queue and one writer thread drains them into batched multi-row
+// INSERTs, committing a group once it reaches maxBatchSize entries or has been
+// open for the group-commit window. Many scan events then share one commit
+// (and one fsync) instead of paying for one each.
+public class StatusLogWriter implements AutoCloseable {
+    public enum Durability {
+        // Log row is written inside the status update's own transaction (no pipeline)
+        SYNC,
+        // Caller waits until the group containing its entry has committed
+        GROUP_COMMIT,
+        // Caller returns once the entry is queued; entries still queued at a crash are lost
+        ASYNC
+    }
+
+    public record Entry(long logId, long shipmentId, long agentId, String status, String notes, Timestamp timestamp) {
+    }
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+    public static final long DEFAULT_WINDOW_MILLIS = 5;
+    public static final long DEFAULT_RESERVE_TIMEOUT_MILLIS = 1000;
+    // How long a GROUP_COMMIT caller waits for its group before reporting failure
+    public static final long APPEND_TIMEOUT_MILLIS = 30_000;
+
+    private static final String INSERT_SQL =
+        "INSERT INTO status_logs (log_id, shipment_id, agent_id, status, notes, timestamp) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final DataSource dataSource;
+    private final Durability durability;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final long reserveTimeoutMillis;
+
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    // One permit per free queue slot, taken before the caller's transaction and
+    // returned once the entry has been written
+    private final Semaphore slots;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final AtomicLong entriesWritten = new AtomicLong();
+    private final AtomicLong entriesFailed = new AtomicLong();
+    private final AtomicLong groupsCommitted = new AtomicLong();
+    private final AtomicLong reserveTimeouts = new AtomicLong();
+    private final AtomicLong appendTimeouts = new AtomicLong();
+
+    public StatusLogWriter(DataSource dataSource, Durability durability) {
+        this(dataSource, durability, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE,
+             DEFAULT_WINDOW_MILLIS, DEFAULT_RESERVE_TIMEOUT_MILLIS);
+    }
+
+    public StatusLogWriter(DataSource dataSource, Durability durability, int capacity, int maxBatchSize,
+                           long windowMillis, long reserveTimeoutMillis) {
+        if (durability == Durability.SYNC) {
+            throw new IllegalArgumentException("SYNC status logging does not use a writer");
+        }
+        if (capacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid status log writer size: capacity=" + capacity +
+                                               ", maxBatchSize=" + maxBatchSize);
+        }
+        this.dataSource = dataSource;
+        this.durability = durability;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.reserveTimeoutMillis = reserveTimeoutMillis;
+        this.slots = new Semaphore(capacity);
+        this.writer = new Thread(this::drain, "status-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    // Claim a queue slot, waiting up to the reserve timeout when the queue is full.
+    // Returns false if none freed up (or the writer is closed); the caller should then
+    // write the log row itself.
+    public boolean reserve() {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (!slots.tryAcquire(reserveTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                reserveTimeouts.incrementAndGet();
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (closed) {
+            slots.release();
+            return false;
+        }
+        return true;
+    }
+
+    // Give back a reserved slot that will not be used
+    public void cancelReservation() {
+        slots.release();
+    }
+
+    // Queue an entry into a previously reserved slot. With GROUP_COMMIT this waits up
+    // to APPEND_TIMEOUT_MILLIS for the entry's group to commit and reports whether it
+    // was written; with ASYNC it returns true immediately. Failures are also counted
+    // in the metrics (entries_failed, append_timeouts).
+    public boolean append(Entry entry) {
+        Pending pending = new Pending(entry);
+        queue.offer(pending);
+        int size = queued.incrementAndGet();
+        if (size == 1 || size >= maxBatchSize) {
+            LockSupport.unpark(writer);
+        }
+        if (durability == Durability.ASYNC) {
+            return true;
+        }
+        try {
+            return pending.written.get(APPEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            appendTimeouts.incrementAndGet();
+            System.err.println("Timed out waiting for status log " + entry.logId() + " to be written");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long written = entriesWritten.get();
+        long groups = groupsCommitted.get();
+        metrics.put("durability", durability.name());
+        metrics.put("queued_entries", queued.get());
+        metrics.put("capacity", capacity);
+        metrics.put("entries_written", written);
+        metrics.put("entries_failed", entriesFailed.get());
+        metrics.put("groups_committed", groups);
+        metrics.put("avg_group_size", groups == 0 ? 0.0 : (double) written / groups);
+        metrics.put("reserve_timeouts", reserveTimeouts.get());
+        metrics.put("append_timeouts", appendTimeouts.get());
+        return metrics;
+    }
+
+    // Stop accepting entries and flush everything already queued or reserved
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<Pending> group = new ArrayList<>(maxBatchSize);
+        while (true) {
+            Pending first = queue.poll();
+            if (first == null) {
+                // Reserved slots may still be appended; exit only once all are back
+                if (closed && slots.availablePermits() == capacity) {
+                    return;
+                }
+                LockSupport.parkNanos(this, windowNanos);
+                continue;
+            }
+            group.add(first);
+            long deadline = System.nanoTime() + windowNanos;
+            while (group.size() < maxBatchSize) {
+                Pending next = queue.poll();
+                if (next != null) {
+                    group.add(next);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            queued.addAndGet(-group.size());
+            try {
+                write(group);
+            } catch (Throwable t) {
+                // Anything unexpected fails this group only; the writer keeps running
+                for (Pending pending : group) {
+                    if (!pending.written.isDone()) {
+                        fail(pending, t);
+                    }
+                }
+            } finally {
+                slots.release(group.size());
+                group.clear();
+            }
+        }
+    }
+
+    private void write(List<Pending> group) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(INSERT_SQL)) {
+            conn.setAutoCommit(false);
+            try {
+                for (Pending pending : group) {
+                    bind(pstmt, pending.entry);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+                groupsCommitted.incrementAndGet();
+                entriesWritten.addAndGet(group.size());
+                for (Pending pending : group) {
+                    pending.written.complete(true);
+                }
+                return;
+            } catch (SQLException e) {
+                conn.rollback();
+                pstmt.clearBatch();
+            }
+            // Retry one row at a time so a single bad entry does not drop its whole group
+            conn.setAutoCommit(true);
+            for (Pending pending : group) {
+                try {
+                    bind(pstmt, pending.entry);
+                    pstmt.executeUpdate();
+                    entriesWritten.incrementAndGet();
+                    pending.written.complete(true);
+                } catch (SQLException e) {
+                    fail(pending, e);
+                }
+            }
+        } catch (SQLException e) {
+            for (Pending pending : group) {
+                if (!pending.written.isDone()) {
+                    fail(pending, e);
+                }
+            }
+        }
+    }
+
+    private void fail(Pending pending, Throwable e) {
+        entriesFailed.incrementAndGet();
+        System.err.println("Error writing status log " + pending.entry.logId() + " for shipment " +
+                           pending.entry.shipmentId() + ": " + e.getMessage());
+        pending.written.complete(false);
+    }
+
+    private static void bind(PreparedStatement pstmt, Entry entry) throws SQLException {
+        pstmt.setLong(1, entry.logId());
+        pstmt.setLong(2, entry.shipmentId());
+        pstmt.setLong(3, entry.agentId());
+        pstmt.setString(4, entry.status());
+        pstmt.setString(5, entry.notes());
+        pstmt.setTimestamp(6, entry.timestamp());
+    }
+
+    private static final class Pending {
+        final Entry entry;
+        final CompletableFuture<Boolean> written = new CompletableFuture<>();
+
+        Pending(Entry entry) {
+            this.entry = entry;
+        }
+    }
+}
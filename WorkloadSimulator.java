@@ -0,0 +1,405 @@
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Multi-threaded courier workload driver for capacity planning on a local database.
+// Worker threads run a weighted mix of manifest ingestion, scan/status updates,
+// driver assignment, package moves and tracking lookups, with Zipfian skew over
+// shipments and drivers, for a fixed duration or operation count. Reports
+// throughput and p50/p99/p999 latency per operation.
+//
+// Usage: java WorkloadSimulator [--threads=16] [--duration=60] [--operations=0]
+//            [--preload=10000] [--manifest=50] [--drivers=200] [--driver-limit=50]
+//            [--theta=0.99] [--mix=ingest=5,scan=45,assign=10,move=5,track=35]
+//            [--report=10] [--pool=<threads>] [--url=...] [--user=root] [--password=password]
+//
+// Reference rows (customers, locations, agents, drivers) are created once in a
+// reserved id range and reused; shipments created by a run are left in place.
+public class WorkloadSimulator {
+    private static final String DEFAULT_URL =
+        "jdbc:mysql://localhost:3306/courier_service?rewriteBatchedStatements=true&useLocalSessionState=true";
+    private static final String DEFAULT_MIX = "ingest=5,scan=45,assign=10,move=5,track=35";
+
+    // Simulator reference rows use ids SIM_BASE + 1 .. SIM_BASE + n
+    private static final long SIM_BASE = 7_000_000_000L;
+    private static final int SIM_CUSTOMERS = 5_000;
+    private static final int SIM_LOCATIONS = 100;
+    private static final int SIM_ROOT_HUBS = 5;
+    private static final int SIM_AGENTS = 100;
+    private static final int PRELOAD_CHUNK = 10_000;
+
+    private static final String[] SCAN_STATUSES = { "in_transit", "in_transit", "in_transit", "delivered", "pending" };
+    // Movement reasons (CourierServiceDB.MOVEMENT_REASONS), recorded as reassigned, damaged and other removals
+    private static final String[] MOVE_REASONS = { "reassignment", "damage", "consolidation", "other" };
+
+    enum Operation { INGEST, SCAN, ASSIGN, MOVE, TRACK }
+
+    // REJECTED: the simulator declined to run the operation (nothing was sent to the
+    // database), so it counts neither as a failure nor towards latency
+    private enum Outcome { DONE, REJECTED, FAILED }
+
+    private final CourierServiceDB db;
+    private final Map<String, String> options;
+    private final IdGenerator ids = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID - 1);
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> failures = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> rejections = new EnumMap<>(Operation.class);
+    private final Operation[] mixOperations;
+    private final int[] mixCumulative;
+
+    private long[] shipmentIds;
+    // Current shipment of preloaded package i (package id packageIds[i]); -1 while a move is in flight
+    private long[] packageIds;
+    private AtomicLongArray packageShipment;
+    private ZipfianGenerator shipmentSkew;
+    private ZipfianGenerator driverSkew;
+    private long elapsedNanos;
+
+    WorkloadSimulator(CourierServiceDB db, Map<String, String> options) {
+        this.db = db;
+        this.options = options;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, new AtomicLong());
+            rejections.put(operation, new AtomicLong());
+        }
+        List<Operation> operations = new ArrayList<>();
+        List<Integer> cumulative = new ArrayList<>();
+        int sum = 0;
+        for (String part : option("mix", DEFAULT_MIX).split(",")) {
+            String[] kv = part.split("=");
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight > 0) {
+                sum += weight;
+                operations.add(Operation.valueOf(kv[0].trim().toUpperCase()));
+                cumulative.add(sum);
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("Operation mix has no positive weights: " + option("mix", DEFAULT_MIX));
+        }
+        this.mixOperations = operations.toArray(new Operation[0]);
+        this.mixCumulative = cumulative.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Unrecognized argument: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        int poolSize = Integer.parseInt(options.getOrDefault("pool", String.valueOf(threads)));
+        ConnectionPool pool = new ConnectionPool(options.getOrDefault("url", DEFAULT_URL),
+                                                 options.getOrDefault("user", "root"),
+                                                 options.getOrDefault("password", "password"),
+                                                 Math.min(2, poolSize), poolSize);
+        CourierServiceDB db = new CourierServiceDB(pool);
+        try {
+            db.createSchema();
+            WorkloadSimulator simulator = new WorkloadSimulator(db, options);
+            simulator.prepare();
+            simulator.run(threads);
+            simulator.printReport();
+            System.out.println("Pool: " + db.getPoolMetrics());
+        } finally {
+            db.close();
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private long longOption(String name, long defaultValue) {
+        return Long.parseLong(option(name, String.valueOf(defaultValue)));
+    }
+
+    // Create reference rows if missing and preload the shipments the mix operates on
+    void prepare() throws SQLException {
+        int drivers = (int) longOption("drivers", 200);
+        long driverLimit = longOption("driver-limit", 50);
+        int preload = (int) longOption("preload", 10_000);
+        double theta = Double.parseDouble(option("theta", "0.99"));
+
+        System.out.println("Preparing reference data...");
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            insertReferenceRows(conn, drivers, driverLimit);
+            conn.commit();
+        }
+        db.reconcileDriverLoad();
+
+        System.out.println("Preloading " + preload + " shipments...");
+        shipmentIds = new long[preload];
+        packageIds = new long[preload];
+        packageShipment = new AtomicLongArray(preload);
+        for (int first = 0; first < preload; first += PRELOAD_CHUNK) {
+            int last = Math.min(first + PRELOAD_CHUNK, preload);
+            List<NewShipment> shipments = new ArrayList<>();
+            List<NewPackage> packages = new ArrayList<>();
+            for (int i = first; i < last; i++) {
+                shipmentIds[i] = ids.nextId();
+                packageIds[i] = ids.nextId();
+                packageShipment.set(i, shipmentIds[i]);
+                shipments.add(newShipment(shipmentIds[i]));
+                packages.add(newPackage(packageIds[i], shipmentIds[i]));
+            }
+            if (!db.createShipments(shipments).isComplete() || !db.addPackagesToShipments(packages).isComplete()) {
+                throw new SQLException("Preloading shipments failed; see errors above");
+            }
+        }
+        shipmentSkew = new ZipfianGenerator(preload, theta);
+        driverSkew = new ZipfianGenerator(drivers, theta);
+    }
+
+    private void insertReferenceRows(Connection conn, int drivers, long driverLimit) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT IGNORE INTO customer (customer_id, name, contact) VALUES (?, ?, ?)")) {
+            for (int i = 1; i <= SIM_CUSTOMERS; i++) {
+                pstmt.setLong(1, SIM_BASE + i);
+                pstmt.setString(2, "Sim Customer " + i);
+                pstmt.setString(3, "sim" + i + "@customer.example");
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        // Root hubs come first so every branch's parent already exists
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT IGNORE INTO location (location_id, name, parent_location_id, pinCode) VALUES (?, ?, ?, ?)")) {
+            for (int i = 1; i <= SIM_LOCATIONS; i++) {
+                pstmt.setLong(1, SIM_BASE + i);
+                pstmt.setString(2, (i <= SIM_ROOT_HUBS ? "Sim Hub " : "Sim Branch ") + i);
+                if (i <= SIM_ROOT_HUBS) {
+                    pstmt.setNull(3, Types.BIGINT);
+                } else {
+                    pstmt.setLong(3, SIM_BASE + 1 + i % SIM_ROOT_HUBS);
+                }
+                pstmt.setString(4, String.valueOf(500000 + i));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT IGNORE INTO agent (agent_id, name, contacts) VALUES (?, ?, ?)")) {
+            for (int i = 1; i <= SIM_AGENTS; i++) {
+                pstmt.setLong(1, SIM_BASE + i);
+                pstmt.setString(2, "Sim Agent " + i);
+                pstmt.setString(3, "sim" + i + "@courier.example");
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT INTO driver (driver_id, name, license_number, contact, `limit`) VALUES (?, ?, ?, ?, ?) " +
+                 "ON DUPLICATE KEY UPDATE `limit` = VALUES(`limit`)")) {
+            for (int i = 1; i <= drivers; i++) {
+                pstmt.setLong(1, SIM_BASE + i);
+                pstmt.setString(2, "Sim Driver " + i);
+                pstmt.setString(3, "SIM-DL-" + i);
+                pstmt.setString(4, "sim" + i + "@driver.example");
+                pstmt.setLong(5, driverLimit);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    void run(int threads) throws InterruptedException {
+        long durationSeconds = longOption("duration", 60);
+        long operations = longOption("operations", 0);
+        long reportSeconds = longOption("report", 10);
+        // operations > 0 runs a fixed count; otherwise the run lasts durationSeconds
+        AtomicLong remaining = new AtomicLong(operations > 0 ? operations : Long.MAX_VALUE);
+        long deadline = operations > 0 ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        System.out.println("Running " + threads + " threads for " +
+                           (operations > 0 ? operations + " operations" : durationSeconds + " s") +
+                           ", mix " + option("mix", DEFAULT_MIX) + ", theta " + shipmentSkew.getTheta());
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "workload-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        long[] lastTotal = { 0 };
+        reporter.scheduleAtFixedRate(() -> {
+            long total = totalOperations();
+            System.out.printf("[%5.0f s] %,d ops, %,.0f ops/s%n", (System.nanoTime() - start) / 1e9,
+                              total, (total - lastTotal[0]) / (double) reportSeconds);
+            lastTotal[0] = total;
+        }, reportSeconds, reportSeconds, TimeUnit.SECONDS);
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                while (System.nanoTime() < deadline && remaining.getAndDecrement() > 0) {
+                    execute(pickOperation());
+                }
+            }, "workload-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        reporter.shutdownNow();
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private Operation pickOperation() {
+        int roll = ThreadLocalRandom.current().nextInt(mixCumulative[mixCumulative.length - 1]);
+        for (int i = 0; i < mixCumulative.length; i++) {
+            if (roll < mixCumulative[i]) {
+                return mixOperations[i];
+            }
+        }
+        return mixOperations[mixOperations.length - 1];
+    }
+
+    private void execute(Operation operation) {
+        long start = System.nanoTime();
+        Outcome outcome;
+        try {
+            outcome = switch (operation) {
+                case INGEST -> outcome(ingestManifest());
+                case SCAN -> outcome(scan());
+                case ASSIGN -> outcome(assign());
+                case MOVE -> move();
+                case TRACK -> outcome(track());
+            };
+        } catch (SQLException | RuntimeException e) {
+            System.err.println(operation + " failed: " + e.getMessage());
+            outcome = Outcome.FAILED;
+        }
+        if (outcome == Outcome.REJECTED) {
+            rejections.get(operation).incrementAndGet();
+            return;
+        }
+        latencies.get(operation).recordNanos(System.nanoTime() - start);
+        if (outcome == Outcome.FAILED) {
+            failures.get(operation).incrementAndGet();
+        }
+    }
+
+    private static Outcome outcome(boolean ok) {
+        return ok ? Outcome.DONE : Outcome.FAILED;
+    }
+
+    // A new manifest: a batch of shipments, one package each
+    private boolean ingestManifest() throws SQLException {
+        int size = (int) longOption("manifest", 50);
+        List<NewShipment> shipments = new ArrayList<>(size);
+        List<NewPackage> packages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long shipmentId = ids.nextId();
+            shipments.add(newShipment(shipmentId));
+            packages.add(newPackage(ids.nextId(), shipmentId));
+        }
+        return db.createShipments(shipments).isComplete() && db.addPackagesToShipments(packages).isComplete();
+    }
+
+    private boolean scan() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return db.updateShipmentStatus(hotShipment(), SCAN_STATUSES[random.nextInt(SCAN_STATUSES.length)],
+                                       randomAgent(), "Scanned at hub");
+    }
+
+    private boolean assign() {
+        LocalDateTime pickup = LocalDateTime.now().plusHours(1);
+        return db.assignShipmentToDriver(SIM_BASE + 1 + driverSkew.nextScrambled(), hotShipment(),
+                                         randomLocation(), randomLocation(), pickup, pickup.plusDays(1));
+    }
+
+    // Moves one preloaded package to another hot shipment. The package is claimed in
+    // memory first so two threads never move the same package at once. Rejected
+    // when no package can be claimed or the package is already on the target.
+    private Outcome move() {
+        int index = (int) shipmentSkew.nextScrambled();
+        long from = packageShipment.get(index);
+        if (from < 0 || !packageShipment.compareAndSet(index, from, -1)) {
+            // Someone else is moving this package; pick the next one over
+            index = (index + 1) % packageIds.length;
+            from = packageShipment.get(index);
+            if (from < 0 || !packageShipment.compareAndSet(index, from, -1)) {
+                return Outcome.REJECTED;
+            }
+        }
+        long to = hotShipment();
+        if (to == from) {
+            packageShipment.set(index, from);
+            return Outcome.REJECTED;
+        }
+        boolean moved = false;
+        try {
+            moved = db.movePackageBetweenShipments(packageIds[index], from, to, randomAgent(),
+                                                   MOVE_REASONS[ThreadLocalRandom.current().nextInt(MOVE_REASONS.length)],
+                                                   "Load rebalanced");
+        } finally {
+            packageShipment.set(index, moved ? to : from);
+        }
+        return outcome(moved);
+    }
+
+    private boolean track() {
+        return db.getShipmentStatusAndLog(hotShipment()) != null;
+    }
+
+    private long hotShipment() {
+        return shipmentIds[(int) shipmentSkew.nextScrambled()];
+    }
+
+    private static long randomLocation() {
+        return SIM_BASE + 1 + ThreadLocalRandom.current().nextInt(SIM_LOCATIONS);
+    }
+
+    private static long randomAgent() {
+        return SIM_BASE + 1 + ThreadLocalRandom.current().nextInt(SIM_AGENTS);
+    }
+
+    private static NewShipment newShipment(long shipmentId) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new NewShipment(shipmentId, SIM_BASE + 1 + random.nextInt(SIM_CUSTOMERS),
+                               SIM_BASE + 1 + random.nextInt(SIM_CUSTOMERS), randomLocation(), randomLocation(),
+                               LocalDateTime.now().plusHours(12 + random.nextInt(72)));
+    }
+
+    private static NewPackage newPackage(long packageId, long shipmentId) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new NewPackage(packageId, 0.2 + random.nextInt(3000) / 100.0, "Simulated parcel", shipmentId, randomAgent());
+    }
+
+    private long totalOperations() {
+        long total = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            total += histogram.getCount();
+        }
+        return total;
+    }
+
+    void printReport() {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%nCompleted %,d operations in %.1f s (%,.0f ops/s)%n", totalOperations(), seconds,
+                          totalOperations() / seconds);
+        System.out.printf("%-8s %10s %8s %8s %10s %10s %10s %10s %10s %10s%n",
+                          "op", "count", "failed", "rejected", "ops/s", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            long rejected = rejections.get(operation).get();
+            if (histogram.getCount() == 0 && rejected == 0) {
+                continue;
+            }
+            System.out.printf("%-8s %,10d %,8d %,8d %,10.0f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                              operation.name().toLowerCase(), histogram.getCount(), failures.get(operation).get(),
+                              rejected,
+                              histogram.getCount() / seconds, histogram.getMeanMicros() / 1000.0,
+                              histogram.percentileMicros(50) / 1000.0, histogram.percentileMicros(99) / 1000.0,
+                              histogram.percentileMicros(99.9) / 1000.0, histogram.getMaxMicros() / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+// Zipf-distributed ranks over [0, items), using the rejection-free method of Gray et
+// al. ("Quickly Generating Billion-Record Synthetic Databases"). Rank 0 is the most
+// popular. nextScrambled() hashes the rank so popular items are spread over the range
+// instead of clustering at its start.
+class ZipfianGenerator {
+    private final long items;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+    private final double halfPowTheta;
+
+    ZipfianGenerator(long items, double theta) {
+        if (items < 1 || theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("Invalid Zipfian parameters: items=" + items + ", theta=" + theta);
+        }
+        this.items = items;
+        this.theta = theta;
+        this.alpha = 1.0 / (1.0 - theta);
+        this.zetaN = zeta(items, theta);
+        double zeta2 = zeta(2, theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+        this.halfPowTheta = 1 + Math.pow(0.5, theta);
+    }
+
+    long next() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < halfPowTheta) {
+            return Math.min(1, items - 1);
+        }
+        long rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        return Math.min(rank, items - 1);
+    }
+
+    long nextScrambled() {
+        return Math.floorMod(fnv1a(next()), items);
+    }
+
+    long getItems() {
+        return items;
+    }
+
+    double getTheta() {
+        return theta;
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    private static long fnv1a(long value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xff;
+            hash *= 0x100000001b3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,241 @@
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import courier.bench.CourierOps;
+
+// Exposes CourierServiceDB to the benchmarks in courier.bench and seeds the
+// benchmark database. Lives in the default package so it can see the service classes.
+public class CourierBenchmarkAdapter implements CourierOps {
+    // Rows per createShipments/addPackagesToShipments call while seeding
+    private static final int SEED_LIST_SIZE = 50_000;
+    // Shipment id range covered by one bulk UPDATE/INSERT ... SELECT while seeding
+    private static final long SEED_RANGE = 100_000;
+    private static final int ROOT_HUBS = 10;
+    private static final long SEED_RESYNC_TIMEOUT_MILLIS = 120_000;
+
+    private static final String[] SEED_TABLES = {
+        "status_logs", "package_movement_log", "driver_shipment_assignment", "package_shipment_assignment",
+        "package", "daily_shipment_volume", "shipments", "driver", "agent", "location", "customer", "bench_dataset"
+    };
+
+    private CourierServiceDB db;
+    private IdGenerator idGenerator;
+
+    @Override
+    public void open(String url, String user, String password, int poolSize, long shipments) throws SQLException {
+        db = new CourierServiceDB(new ConnectionPool(url, user, password, 1, poolSize));
+        // Node 1023 keeps run-time ids apart from any application node sharing the database
+        idGenerator = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID);
+        db.createSchema();
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS bench_dataset (shipments BIGINT NOT NULL)");
+            try (ResultSet rs = stmt.executeQuery("SELECT shipments FROM bench_dataset")) {
+                if (rs.next() && rs.getLong(1) == shipments) {
+                    System.out.println("Reusing seeded dataset of " + shipments + " shipments");
+                    return;
+                }
+            }
+        }
+        seed(shipments);
+    }
+
+    private void seed(long shipments) throws SQLException {
+        System.out.println("Seeding " + shipments + " shipments...");
+        long start = System.currentTimeMillis();
+        Random random = new Random(42);
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 0");
+            for (String table : SEED_TABLES) {
+                stmt.execute("TRUNCATE TABLE " + table);
+            }
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
+
+            conn.setAutoCommit(false);
+            insertReferenceRows(conn);
+            conn.commit();
+        }
+
+        // Shipments and their packages go through the service's own batch APIs
+        LocalDateTime now = LocalDateTime.now();
+        for (long first = 1; first <= shipments; first += SEED_LIST_SIZE) {
+            long last = Math.min(first + SEED_LIST_SIZE - 1, shipments);
+            List<NewShipment> batch = new ArrayList<>();
+            List<NewPackage> packages = new ArrayList<>();
+            for (long id = first; id <= last; id++) {
+                // Roughly a quarter of estimated deliveries are already in the past
+                LocalDateTime estimated = now.minusDays(10).plusHours(random.nextInt(40 * 24));
+                batch.add(new NewShipment(id, 1 + random.nextInt(CUSTOMERS), 1 + random.nextInt(CUSTOMERS),
+                                          1 + random.nextInt(LOCATIONS), 1 + random.nextInt(LOCATIONS), estimated));
+                packages.add(new NewPackage(id, 0.5 + random.nextInt(5000) / 100.0, "Benchmark package " + id,
+                                            id, 1 + random.nextInt(AGENTS)));
+            }
+            requireComplete(db.createShipments(batch), "shipments");
+            requireComplete(db.addPackagesToShipments(packages), "packages");
+        }
+
+        // Spread creation over 60 days, mix statuses and give every tenth shipment a driver
+        try (Connection conn = db.getConnection()) {
+            executeInRanges(conn, shipments,
+                "UPDATE shipments SET created_time = NOW() - INTERVAL (shipment_id % 60) DAY, " +
+                "status = ELT(1 + shipment_id % 3, 'pending', 'in_transit', 'delivered'), " +
+                "actual_delivery = IF(shipment_id % 3 = 2, estimated_delivery_time, NULL) " +
+                "WHERE shipment_id BETWEEN ? AND ?");
+            executeInRanges(conn, shipments,
+                "INSERT INTO driver_shipment_assignment (assignment_id, driver_id, shipment_id, start_location_id, " +
+                "end_location_id, delivered, estimated_pickup_time, estimated_delivery_time) " +
+                "SELECT shipment_id, 1 + shipment_id % " + DRIVERS + ", shipment_id, origin_id, destination_id, " +
+                "status = 'delivered', created_time, estimated_delivery_time " +
+                "FROM shipments WHERE shipment_id % 10 = 0 AND shipment_id BETWEEN ? AND ?");
+        }
+        db.reconcileDriverLoad();
+        db.rebuildDailyVolumeRollup();
+        // The bulk UPDATE/INSERT above bypassed the delay watcher
+        if (!db.resyncDelayedShipments(SEED_RESYNC_TIMEOUT_MILLIS)) {
+            throw new SQLException("Delayed shipment index did not reload after seeding");
+        }
+
+        try (Connection conn = db.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO bench_dataset (shipments) VALUES (?)")) {
+            pstmt.setLong(1, shipments);
+            pstmt.executeUpdate();
+        }
+        System.out.println("Seeded " + shipments + " shipments in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void insertReferenceRows(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT INTO customer (customer_id, name, contact) VALUES (?, ?, ?)")) {
+            for (int id = 1; id <= CUSTOMERS; id++) {
+                pstmt.setLong(1, id);
+                pstmt.setString(2, "Customer " + id);
+                pstmt.setString(3, "98" + String.format("%08d", id));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        // A two-level hierarchy: root hubs first so parents exist before their children
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT INTO location (location_id, name, parent_location_id, pinCode) VALUES (?, ?, ?, ?)")) {
+            for (int id = 1; id <= LOCATIONS; id++) {
+                pstmt.setLong(1, id);
+                pstmt.setString(2, (id <= ROOT_HUBS ? "Hub " : "Branch ") + id);
+                if (id <= ROOT_HUBS) {
+                    pstmt.setNull(3, Types.BIGINT);
+                } else {
+                    pstmt.setLong(3, 1 + id % ROOT_HUBS);
+                }
+                pstmt.setString(4, String.valueOf(110000 + id));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT INTO agent (agent_id, name, contacts) VALUES (?, ?, ?)")) {
+            for (int id = 1; id <= AGENTS; id++) {
+                pstmt.setLong(1, id);
+                pstmt.setString(2, "Agent " + id);
+                pstmt.setString(3, "agent" + id + "@courier.example");
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        // Effectively unlimited capacity so assignment benchmarks never hit the cap
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                 "INSERT INTO driver (driver_id, name, license_number, contact, `limit`) VALUES (?, ?, ?, ?, ?)")) {
+            for (int id = 1; id <= DRIVERS; id++) {
+                pstmt.setLong(1, id);
+                pstmt.setString(2, "Driver " + id);
+                pstmt.setString(3, "DL-BENCH-" + id);
+                pstmt.setString(4, "97" + String.format("%08d", id));
+                pstmt.setLong(5, Integer.MAX_VALUE);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    private static void executeInRanges(Connection conn, long shipments, String sql) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (long first = 1; first <= shipments; first += SEED_RANGE) {
+                pstmt.setLong(1, first);
+                pstmt.setLong(2, Math.min(first + SEED_RANGE - 1, shipments));
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static void requireComplete(BatchResult result, String what) throws SQLException {
+        if (!result.isComplete()) {
+            throw new SQLException("Seeding " + what + " failed for " + result.getFailures().size() + " rows");
+        }
+    }
+
+    @Override
+    public long nextId() throws SQLException {
+        return idGenerator.nextId();
+    }
+
+    @Override
+    public boolean createShipment(long shipmentId, long senderId, long recipientId,
+                                  long originId, long destinationId, LocalDateTime estimatedDelivery) {
+        return db.createShipment(shipmentId, senderId, recipientId, originId, destinationId, estimatedDelivery);
+    }
+
+    @Override
+    public boolean addPackageToShipment(long packageId, double weight, String description, long shipmentId, long agentId) {
+        return db.addPackageToShipment(packageId, weight, description, shipmentId, agentId);
+    }
+
+    @Override
+    public boolean updateShipmentStatus(long shipmentId, String status, long agentId, String notes) {
+        return db.updateShipmentStatus(shipmentId, status, agentId, notes);
+    }
+
+    @Override
+    public boolean assignShipmentToDriver(long driverId, long shipmentId, long startLocationId, long endLocationId,
+                                          LocalDateTime estimatedPickup, LocalDateTime estimatedDelivery) {
+        return db.assignShipmentToDriver(driverId, shipmentId, startLocationId, endLocationId,
+                                         estimatedPickup, estimatedDelivery);
+    }
+
+    @Override
+    public boolean movePackageBetweenShipments(long packageId, long fromShipmentId, long toShipmentId,
+                                               long agentId, String reason, String notes) {
+        return db.movePackageBetweenShipments(packageId, fromShipmentId, toShipmentId, agentId, reason, notes);
+    }
+
+    @Override
+    public List<?> getShipmentStatusAndLog(long shipmentId) {
+        return db.getShipmentStatusAndLog(shipmentId);
+    }
+
+    @Override
+    public List<?> getPendingShipmentsForDriver(long driverId) {
+        return db.getPendingShipmentsForDriver(driverId);
+    }
+
+    @Override
+    public List<?> getDelayedShipments() {
+        return db.getDelayedShipments();
+    }
+
+    @Override
+    public List<?> getDailyShipmentVolume() {
+        return db.getDailyShipmentVolume();
+    }
+
+    @Override
+    public List<String> checkQueryPlans() {
+        return new QueryPlanCheck(db).run();
+    }
+
+    @Override
+    public void close() {
+        if (db != null) {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package courier.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmark suite once per thread count and writes one JSON result file
+// per run, so results from two builds can be diffed (e.g. with jmh.morethan.io).
+//
+// Settings (system properties):
+//   courier.bench.url       JDBC URL of the MySQL server, without a database (jdbc:mysql://localhost:3306/)
+//   courier.bench.user      database user (root)
+//   courier.bench.password  database password (password)
+//   courier.bench.scales    seeded shipment counts, e.g. 10000,1000000,10000000 (10000)
+//   courier.bench.threads   benchmark thread counts (1,8,32)
+//   courier.bench.include   regex of benchmarks to run (all)
+//   courier.bench.results   directory for the JSON files (jmh-results)
+//   courier.bench.planCheck false to skip the query-plan check (true)
+//
+// Before benchmarking, each scale's dataset is seeded and every hot query is
+// EXPLAINed; the run stops if any of them falls back to a full table scan.
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        String[] scales = System.getProperty("courier.bench.scales", "10000").split(",");
+        String[] threadCounts = System.getProperty("courier.bench.threads", "1,8,32").split(",");
+        String include = System.getProperty("courier.bench.include", CourierServiceBenchmark.class.getSimpleName());
+        File resultsDir = new File(System.getProperty("courier.bench.results", "jmh-results"));
+        if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+            throw new IllegalStateException("Cannot create results directory " + resultsDir);
+        }
+
+        if (Boolean.parseBoolean(System.getProperty("courier.bench.planCheck", "true"))) {
+            boolean plansOk = true;
+            for (String scale : scales) {
+                try (CourierOps ops = CourierServiceBenchmark.Dataset.open(Long.parseLong(scale.trim()), 2)) {
+                    List<String> problems = ops.checkQueryPlans();
+                    for (String problem : problems) {
+                        System.err.println("[scale " + scale.trim() + "] " + problem);
+                    }
+                    plansOk &= problems.isEmpty();
+                }
+            }
+            if (!plansOk) {
+                System.err.println("Query plan check failed; fix the plans or rerun with -Dcourier.bench.planCheck=false");
+                System.exit(1);
+            }
+        }
+
+        // Forked benchmark JVMs do not inherit our system properties
+        List<String> forwarded = new ArrayList<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("courier.")) {
+                forwarded.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+
+        for (String threadCount : threadCounts) {
+            int threads = Integer.parseInt(threadCount.trim());
+            File result = new File(resultsDir, "courier-t" + threads + ".json");
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .param("scale", scales)
+                .jvmArgsAppend(forwarded.toArray(new String[0]))
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath());
+            new Runner(options.build()).run();
+            System.out.println("Results for " + threads + " threads written to " + result);
+        }
+    }
+}
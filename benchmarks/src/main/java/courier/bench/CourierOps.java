@@ -0,0 +1,54 @@
+package courier.bench;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// The CourierServiceDB operations under benchmark. JMH refuses benchmarks in the
+// default package and named packages cannot import from it, so the benchmarks call
+// through this interface; CourierBenchmarkAdapter (default package) implements it.
+public interface CourierOps extends AutoCloseable {
+    // Seeded reference rows use ids 1..N of each of these sizes
+    int CUSTOMERS = 10_000;
+    int LOCATIONS = 200;
+    int AGENTS = 500;
+    int DRIVERS = 2_000;
+
+    // Create the schema and seed `shipments` shipments (ids 1..shipments, one package
+    // each with the same id) unless the database already holds that dataset
+    void open(String url, String user, String password, int poolSize, long shipments) throws Exception;
+
+    // Unique id for rows created during the run
+    long nextId() throws Exception;
+
+    boolean createShipment(long shipmentId, long senderId, long recipientId,
+                           long originId, long destinationId, LocalDateTime estimatedDelivery);
+
+    boolean addPackageToShipment(long packageId, double weight, String description, long shipmentId, long agentId);
+
+    boolean updateShipmentStatus(long shipmentId, String status, long agentId, String notes);
+
+    boolean assignShipmentToDriver(long driverId, long shipmentId, long startLocationId, long endLocationId,
+                                   LocalDateTime estimatedPickup, LocalDateTime estimatedDelivery);
+
+    boolean movePackageBetweenShipments(long packageId, long fromShipmentId, long toShipmentId,
+                                        long agentId, String reason, String notes);
+
+    List<?> getShipmentStatusAndLog(long shipmentId);
+
+    List<?> getPendingShipmentsForDriver(long driverId);
+
+    List<?> getDelayedShipments();
+
+    List<?> getDailyShipmentVolume();
+
+    // EXPLAIN every statement the operations issue (see QueryPlanCheck); returns the
+    // statements that fall back to a full scan of a large table
+    List<String> checkQueryPlans();
+
+    @Override
+    void close();
+
+    static CourierOps load() throws ReflectiveOperationException {
+        return (CourierOps) Class.forName("CourierBenchmarkAdapter").getDeclaredConstructor().newInstance();
+    }
+}
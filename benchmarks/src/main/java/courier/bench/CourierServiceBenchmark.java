@@ -0,0 +1,142 @@
+package courier.bench;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+// One benchmark per public CourierServiceDB operation, run against a MySQL database
+// seeded with `scale` shipments. Latency is sampled so the JSON results carry the
+// full percentile distribution, not just the mean.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CourierServiceBenchmark {
+    private static final String[] STATUSES = { "pending", "in_transit", "delivered" };
+
+    @State(Scope.Benchmark)
+    public static class Dataset {
+        @Param({ "10000" })
+        public long scale;
+
+        CourierOps ops;
+
+        @Setup(Level.Trial)
+        public void open(BenchmarkParams params) throws Exception {
+            ops = open(scale, Math.max(2, params.getThreads()));
+        }
+
+        // Each scale gets its own database so a seeded dataset is reused across runs
+        static CourierOps open(long scale, int poolSize) throws Exception {
+            CourierOps ops = CourierOps.load();
+            String url = System.getProperty("courier.bench.url", "jdbc:mysql://localhost:3306/") +
+                         "courier_bench_" + scale +
+                         "?createDatabaseIfNotExist=true&rewriteBatchedStatements=true&useLocalSessionState=true";
+            ops.open(url, System.getProperty("courier.bench.user", "root"),
+                     System.getProperty("courier.bench.password", "password"), poolSize, scale);
+            return ops;
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            ops.close();
+        }
+
+        long randomShipment() {
+            return 1 + ThreadLocalRandom.current().nextLong(scale);
+        }
+    }
+
+    // A package owned by one benchmark thread that shuttles between two shipments
+    @State(Scope.Thread)
+    public static class MovingPackage {
+        long packageId;
+        long current;
+        long other;
+
+        @Setup(Level.Trial)
+        public void create(Dataset dataset) throws Exception {
+            packageId = dataset.ops.nextId();
+            current = dataset.randomShipment();
+            do {
+                other = dataset.randomShipment();
+            } while (other == current);
+            if (!dataset.ops.addPackageToShipment(packageId, 1.0, "Benchmark mover", current, 1)) {
+                throw new IllegalStateException("Could not create package for move benchmark");
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean createShipment(Dataset dataset) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return dataset.ops.createShipment(dataset.ops.nextId(),
+                                          1 + random.nextInt(CourierOps.CUSTOMERS), 1 + random.nextInt(CourierOps.CUSTOMERS),
+                                          1 + random.nextInt(CourierOps.LOCATIONS), 1 + random.nextInt(CourierOps.LOCATIONS),
+                                          LocalDateTime.now().plusDays(3));
+    }
+
+    @Benchmark
+    public boolean addPackageToShipment(Dataset dataset) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return dataset.ops.addPackageToShipment(dataset.ops.nextId(), 0.5 + random.nextInt(5000) / 100.0,
+                                                "Benchmark package", dataset.randomShipment(),
+                                                1 + random.nextInt(CourierOps.AGENTS));
+    }
+
+    @Benchmark
+    public boolean updateShipmentStatus(Dataset dataset) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return dataset.ops.updateShipmentStatus(dataset.randomShipment(), STATUSES[random.nextInt(STATUSES.length)],
+                                                1 + random.nextInt(CourierOps.AGENTS), "Benchmark scan");
+    }
+
+    @Benchmark
+    public boolean assignShipmentToDriver(Dataset dataset) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LocalDateTime pickup = LocalDateTime.now().plusHours(2);
+        return dataset.ops.assignShipmentToDriver(1 + random.nextInt(CourierOps.DRIVERS), dataset.randomShipment(),
+                                                  1 + random.nextInt(CourierOps.LOCATIONS),
+                                                  1 + random.nextInt(CourierOps.LOCATIONS),
+                                                  pickup, pickup.plusDays(2));
+    }
+
+    // The package belongs to this thread, so every move must succeed; a failed one
+    // aborts the run instead of being timed as an error path
+    @Benchmark
+    public boolean movePackageBetweenShipments(Dataset dataset, MovingPackage mover) {
+        if (!dataset.ops.movePackageBetweenShipments(mover.packageId, mover.current, mover.other,
+                                                     1, "reassignment", "Benchmark move")) {
+            throw new IllegalStateException("Moving package " + mover.packageId + " from shipment " +
+                                            mover.current + " to " + mover.other + " failed");
+        }
+        long previous = mover.current;
+        mover.current = mover.other;
+        mover.other = previous;
+        return true;
+    }
+
+    @Benchmark
+    public Object getShipmentStatusAndLog(Dataset dataset) {
+        return dataset.ops.getShipmentStatusAndLog(dataset.randomShipment());
+    }
+
+    @Benchmark
+    public Object getPendingShipmentsForDriver(Dataset dataset) {
+        return dataset.ops.getPendingShipmentsForDriver(1 + ThreadLocalRandom.current().nextInt(CourierOps.DRIVERS));
+    }
+
+    @Benchmark
+    public Object getDelayedShipments(Dataset dataset) {
+        return dataset.ops.getDelayedShipments();
+    }
+
+    @Benchmark
+    public Object getDailyShipmentVolume(Dataset dataset) {
+        return dataset.ops.getDailyShipmentVolume();
+    }
+}
@@ -1,5 +1,7 @@
 -- Improved Courier Service Database Schema
 -- Handles package reassignment between shipments
+-- Reference copy of the schema at SchemaMigrator's latest version (6); the
+-- migrations in SchemaMigrator.java are what CourierServiceDB applies.
 
 -- 1. CUSTOMER table
 CREATE TABLE customer (
@@ -30,7 +32,8 @@ CREATE TABLE driver (
     name VARCHAR(100) NOT NULL,
     license_number VARCHAR(50) UNIQUE NOT NULL,
     contact VARCHAR(50) NOT NULL,
-    `limit` BIGINT DEFAULT 5
+    `limit` BIGINT NOT NULL DEFAULT 5,
+    active_load BIGINT NOT NULL DEFAULT 0  -- open assignments, kept below `limit`
 );
 
 -- 5. SHIPMENTS table (Core entity)
@@ -56,7 +59,8 @@ CREATE TABLE package (
     weight DECIMAL(8,2) NOT NULL,
     description VARCHAR(500) NOT NULL,
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-    is_active BOOLEAN DEFAULT TRUE
+    is_active BOOLEAN DEFAULT TRUE,
+    current_shipment_id BIGINT NULL  -- shipment of the open package_shipment_assignment row, if any
 );
 
 -- 7. PACKAGE_SHIPMENT_ASSIGNMENT table (Many-to-many relationship)
@@ -71,8 +75,7 @@ CREATE TABLE package_shipment_assignment (
     notes TEXT,
     FOREIGN KEY (package_id) REFERENCES package(package_id),
     FOREIGN KEY (shipment_id) REFERENCES shipments(shipment_id),
-    FOREIGN KEY (assigned_by_agent_id) REFERENCES agent(agent_id),
-    UNIQUE KEY unique_active_assignment (package_id, shipment_id, removed_at)
+    FOREIGN KEY (assigned_by_agent_id) REFERENCES agent(agent_id)
 );
 
 -- 8. DRIVER_SHIPMENT_ASSIGNMENT table
@@ -91,38 +94,57 @@ CREATE TABLE driver_shipment_assignment (
     FOREIGN KEY (driver_id) REFERENCES driver(driver_id),
     FOREIGN KEY (shipment_id) REFERENCES shipments(shipment_id),
     FOREIGN KEY (start_location_id) REFERENCES location(location_id),
-    FOREIGN KEY (end_location_id) REFERENCES location(location_id),
-    UNIQUE KEY unique_active_assignment (driver_id, shipment_id)
+    FOREIGN KEY (end_location_id) REFERENCES location(location_id)
 );
 
--- 9. STATUS_LOGS table
+-- 9. STATUS_LOGS table (Monthly range partitions; PartitionManager adds months
+-- ahead and archives expired ones. Partitioned tables cannot have foreign keys.)
 CREATE TABLE status_logs (
-    log_id BIGINT PRIMARY KEY,
+    log_id BIGINT NOT NULL,
     shipment_id BIGINT NOT NULL,
     location_id BIGINT,
     agent_id BIGINT,
-    timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     status ENUM('pending', 'in_transit', 'delivered', 'returned') NOT NULL,
     notes TEXT,
-    FOREIGN KEY (shipment_id) REFERENCES shipments(shipment_id) ON DELETE CASCADE,
-    FOREIGN KEY (location_id) REFERENCES location(location_id),
-    FOREIGN KEY (agent_id) REFERENCES agent(agent_id)
+    PRIMARY KEY (log_id, timestamp),
+    KEY idx_status_logs_shipment (shipment_id, timestamp)
+) PARTITION BY RANGE (UNIX_TIMESTAMP(timestamp)) (
+    PARTITION p_future VALUES LESS THAN MAXVALUE
 );
 
--- 10. PACKAGE_MOVEMENT_LOG table (Audit trail for package movements)
+-- 10. PACKAGE_MOVEMENT_LOG table (Audit trail for package movements, partitioned like status_logs)
 CREATE TABLE package_movement_log (
-    log_id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    log_id BIGINT NOT NULL AUTO_INCREMENT,
     package_id BIGINT NOT NULL,
     from_shipment_id BIGINT NULL,
     to_shipment_id BIGINT NULL,
-    moved_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    moved_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     moved_by_agent_id BIGINT,
     movement_reason ENUM('reassignment', 'consolidation', 'split_shipment', 'damage', 'customer_request', 'other'),
     notes TEXT,
-    FOREIGN KEY (package_id) REFERENCES package(package_id),
-    FOREIGN KEY (from_shipment_id) REFERENCES shipments(shipment_id),
-    FOREIGN KEY (to_shipment_id) REFERENCES shipments(shipment_id),
-    FOREIGN KEY (moved_by_agent_id) REFERENCES agent(agent_id)
+    PRIMARY KEY (log_id, moved_at)
+) PARTITION BY RANGE (UNIX_TIMESTAMP(moved_at)) (
+    PARTITION p_future VALUES LESS THAN MAXVALUE
+);
+
+-- 11. ID_SEQUENCE table (Block reservations for hi/lo key generation)
+CREATE TABLE id_sequence (
+    name VARCHAR(64) PRIMARY KEY,
+    next_hi BIGINT NOT NULL
+);
+
+-- 12. DAILY_SHIPMENT_VOLUME table (Rollup maintained by CourierServiceDB writes)
+CREATE TABLE daily_shipment_volume (
+    shipment_date DATE NOT NULL,
+    origin_id BIGINT NOT NULL,
+    total_shipments BIGINT NOT NULL DEFAULT 0,
+    delivered_shipments BIGINT NOT NULL DEFAULT 0,
+    in_transit_shipments BIGINT NOT NULL DEFAULT 0,
+    pending_shipments BIGINT NOT NULL DEFAULT 0,
+    total_weight_kg DECIMAL(14,2) NOT NULL DEFAULT 0,
+    PRIMARY KEY (shipment_date, origin_id),
+    FOREIGN KEY (origin_id) REFERENCES location(location_id)
 );
 
 -- Indexes
@@ -131,4 +153,50 @@ CREATE INDEX idx_package_shipment_assignment_shipment ON package_shipment_assign
 CREATE INDEX idx_package_shipment_assignment_active ON package_shipment_assignment(package_id, removed_at);
 CREATE INDEX idx_package_movement_log_package ON package_movement_log(package_id);
 CREATE INDEX idx_package_movement_log_timestamp ON package_movement_log(moved_at);
+CREATE INDEX idx_shipments_estimated_delivery ON shipments(estimated_delivery_time);
+CREATE INDEX idx_shipments_status_estimated_delivery ON shipments(status, estimated_delivery_time);
+CREATE INDEX idx_shipments_created_origin ON shipments(created_time, origin_id);
+CREATE INDEX idx_driver_assignment_driver_delivered ON driver_shipment_assignment(driver_id, delivered);
+CREATE INDEX idx_driver_assignment_shipment ON driver_shipment_assignment(shipment_id, delivered);
+
+-- 13. SCHEMA_MIGRATIONS table (Applied versions, maintained by SchemaMigrator)
+CREATE TABLE schema_migrations (
+    version INT PRIMARY KEY,
+    description VARCHAR(200) NOT NULL,
+    checksum CHAR(64) NOT NULL,
+    applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    execution_millis BIGINT NOT NULL
+);
 
+-- 14. BULK_LOAD_CHECKPOINTS table (Resume points of BulkLoader, one row per source file)
+CREATE TABLE bulk_load_checkpoints (
+    table_name VARCHAR(64) NOT NULL,
+    source_file VARCHAR(255) NOT NULL,
+    fingerprint VARCHAR(64) NOT NULL,
+    records_loaded BIGINT NOT NULL DEFAULT 0,
+    completed BOOLEAN NOT NULL DEFAULT FALSE,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (table_name, source_file)
+);
+
+-- 15. SHIPMENT_EVENTS table (Transactional outbox, tailed by ShipmentEventTailer)
+CREATE TABLE shipment_events (
+    event_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    shipment_id BIGINT NOT NULL,
+    event_type ENUM('status_changed', 'driver_assigned', 'package_added', 'package_removed') NOT NULL,
+    status VARCHAR(20) NULL,
+    driver_id BIGINT NULL,
+    package_id BIGINT NULL,
+    related_shipment_id BIGINT NULL,
+    agent_id BIGINT NULL,
+    notes TEXT,
+    created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    KEY idx_shipment_events_created (created_at)
+);
+
+-- 16. SHIPMENT_EVENT_OFFSETS table (Last event processed by each subscriber)
+CREATE TABLE shipment_event_offsets (
+    subscriber VARCHAR(128) PRIMARY KEY,
+    last_event_id BIGINT NOT NULL,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+);